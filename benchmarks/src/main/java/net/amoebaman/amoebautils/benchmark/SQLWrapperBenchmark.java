@@ -0,0 +1,131 @@
+package net.amoebaman.amoebautils.benchmark;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import net.amoebaman.amoebautils.SQLWrapper;
+import net.amoebaman.amoebautils.SQLWrapper.RSListMap;
+import net.amoebaman.amoebautils.sql.H2Dialect;
+import net.amoebaman.amoebautils.sql.Row;
+import net.amoebaman.amoebautils.sql.RowMapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the per-call overhead of {@link SQLWrapper}'s hot paths against an
+ * in-memory H2 database standing in for MySQL. Since the database itself is
+ * about as fast as a database gets, most of what's measured is the wrapper:
+ * borrowing connections, preparing statements, binding arguments and reading
+ * results.
+ * <p>
+ * Running the main method measures every benchmark twice, once for
+ * throughput in ops/sec and once sampling latency percentiles in
+ * microseconds, both with the GC profiler reporting allocation rates. Any
+ * standard JMH options (such as {@code -t 4} or a benchmark name filter) are
+ * passed along.
+ *
+ * @author AmoebaMan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SQLWrapperBenchmark{
+	
+	private static final int ROWS = 1000, PAGE = 20;
+	
+	private static final String UPDATE = "UPDATE players SET score = score + 1 WHERE id = ?";
+	private static final String SELECT = "SELECT id, name, score FROM players WHERE id BETWEEN ? AND ?";
+	
+	private static final RowMapper<Integer> SCORE = new RowMapper<Integer>(){
+		
+		public Integer map(Row row) throws SQLException{
+			return row.getInt(3);
+		}
+	};
+	
+	private SQLWrapper sql;
+	private int next = 0;
+	
+	@Setup
+	public void setup(){
+		sql = new SQLWrapper(new H2Dialect(true), null, "benchmark", "sa", "");
+		sql.executeCommand("DROP TABLE IF EXISTS players");
+		sql.executeCommand("CREATE TABLE players (id INT PRIMARY KEY, name VARCHAR(16), score INT)");
+		for(int i = 0; i < ROWS; i++)
+			sql.executeCommand("INSERT INTO players VALUES (?, ?, ?)", i, "player" + i, 0);
+	}
+	
+	@TearDown
+	public void tearDown(){
+		sql.disconnect();
+	}
+	
+	/*
+	 * Not synchronized, with several threads the ids just collide now and then, which is harmless
+	 */
+	private int nextId(){
+		int id = next++ % ROWS;
+		return id < 0 ? -id : id;
+	}
+	
+	@Benchmark
+	public void executeCommand(){
+		sql.executeCommand(UPDATE, nextId());
+	}
+	
+	@Benchmark
+	public RSListMap executeQueryTransform(){
+		int from = nextId() % (ROWS - PAGE);
+		return sql.transformRS(sql.executeQuery(SELECT, from, from + PAGE - 1), "id", "name", "score");
+	}
+	
+	/*
+	 * Once the write queue fills up this measures how fast the queue drains, which is the point
+	 */
+	@Benchmark
+	public void executeCommandAsync(){
+		sql.executeCommandAsync(UPDATE, nextId());
+	}
+	
+	@Benchmark
+	public List<Integer> queryAsync() throws InterruptedException, ExecutionException{
+		int from = nextId() % (ROWS - PAGE);
+		return sql.queryAsync(SELECT, SCORE, from, from + PAGE - 1).get();
+	}
+	
+	/**
+	 * Runs every benchmark for throughput and then for sampled latency, with
+	 * the GC profiler attached.
+	 * 
+	 * @param args standard JMH command line options
+	 * @throws RunnerException if a benchmark fails
+	 * @throws CommandLineOptionException if the options can't be parsed
+	 */
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException{
+		CommandLineOptions options = new CommandLineOptions(args);
+		new Runner(new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).mode(Mode.Throughput).timeUnit(TimeUnit.SECONDS).build()).run();
+		new Runner(new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).mode(Mode.SampleTime).timeUnit(TimeUnit.MICROSECONDS).build()).run();
+	}
+	
+}
@@ -3,13 +3,55 @@ package net.amoebaman.amoebautils;
 import java.io.*;
 import java.util.*;
 
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.server.PluginDisableEvent;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import net.amoebaman.amoebautils.CommandController.CommandHandler;
+import net.amoebaman.amoebautils.command.HandlerStats;
 import net.amoebaman.amoebautils.nms.ReflectionUtil;
 
-public class AmoebaUtils extends JavaPlugin{
+public class AmoebaUtils extends JavaPlugin implements Listener{
+	
+	public void onEnable(){
+		CommandController.registerCommands(this);
+		Bukkit.getPluginManager().registerEvents(this, this);
+	}
+	
+	/*
+	 * Otherwise a reloaded plugin's old command handlers (and everything they hold on to) would never go away
+	 */
+	@EventHandler
+	public void onPluginDisable(PluginDisableEvent event){
+		CommandController.unregisterAll(event.getPlugin());
+	}
+	
+	/*
+	 * Reports how often every annotated command has run and how long it took, see CommandController.getStats()
+	 */
+	@CommandHandler(cmd = "commandstats", permissions = "amoebautils.commandstats")
+	public List<String> commandStats(CommandSender sender){
+		List<String> lines = new ArrayList<String>();
+		lines.add(ChatColor.GOLD + "Command handlers, by total time spent:");
+		for(HandlerStats stats : CommandController.getStats())
+			if(stats.getCount() > 0)
+				lines.add(ChatColor.GRAY + stats.toString());
+		if(lines.size() == 1)
+			lines.add(ChatColor.GRAY + "No commands have been run yet");
+		return lines;
+	}
+	
+	@CommandHandler(cmd = "commandstats reset", permissions = "amoebautils.commandstats")
+	public String resetCommandStats(CommandSender sender){
+		CommandController.resetStats();
+		return ChatColor.GOLD + "Command handler metrics have been reset";
+	}
 	
 	/**
 	 * Gets a YAML (.yml) configuration file from the plugin's folder. If the
@@ -4,31 +4,38 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
-import java.lang.reflect.Method;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.logging.Logger;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 import net.amoebaman.amoebautils.chat.Chat;
+import net.amoebaman.amoebautils.command.ArgumentParser;
+import net.amoebaman.amoebautils.command.CachedPermissions;
+import net.amoebaman.amoebautils.command.CommandCompleter;
+import net.amoebaman.amoebautils.command.CommandDispatcher;
+import net.amoebaman.amoebautils.command.CommandRegistry;
+import net.amoebaman.amoebautils.command.HandlerStats;
+import net.amoebaman.amoebautils.command.PackageScanner;
+import net.amoebaman.amoebautils.command.Parsers;
+import net.amoebaman.amoebautils.command.PermissionSet;
+import net.amoebaman.amoebautils.command.SuggestionProvider;
 
-import org.bukkit.Bukkit;
-import org.bukkit.ChatColor;
+import org.bukkit.World;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
-import org.bukkit.command.PluginCommand;
-
-import com.google.common.collect.Lists;
+import org.bukkit.command.TabCompleter;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
 
 /**
  * Contains interfaces and methods for allowing other plugins to handle commands via annotated methods, much the
- * same way that Bukkit currently handles events.
+ * same way that Bukkit currently handles events.  The work itself is done by the classes in
+ * {@link net.amoebaman.amoebautils.command}.
  * 
  * @author AmoebaMan
  */
-public class CommandController implements CommandExecutor{
-	
-	private final static Set<AnnotatedPluginCommand> commands = new HashSet<AnnotatedPluginCommand>();
+public class CommandController implements CommandExecutor, TabCompleter{
 	
 	/*
 	 * This is necessary to ensure that developers don't try to hijack the controller and do janky shit with it
@@ -36,18 +43,212 @@ public class CommandController implements CommandExecutor{
 	private final static CommandController INSTANCE = new CommandController();
 	private CommandController(){}
 	
+	private final static CommandRegistry registry = new CommandRegistry(INSTANCE, INSTANCE);
+	private final static CommandDispatcher dispatcher = new CommandDispatcher(registry);
+	private final static CommandCompleter completer = new CommandCompleter(registry);
+	
+	/**
+	 * The resource that {@link net.amoebaman.amoebautils.processor.CommandHandlerProcessor} writes its index of handler
+	 * classes to, one binary class name per line.
+	 */
+	public static final String INDEX = "META-INF/amoebautils/command-handlers";
+	
 	/**
 	 * Registers all {@link @CommandHandler}{@code s} within a class with the CommandController, linking them
 	 * to their respective commands as defined by the annotation.
 	 * @param handler an instance of the class to register
 	 */
 	public static void registerCommands(Object handler){
-		for(Method method : handler.getClass().getMethods())
-			if(method.isAnnotationPresent(CommandHandler.class)){
-				Class<?>[] params = method.getParameterTypes();
-				if(params.length == 2 && CommandSender.class.isAssignableFrom(params[0]) && String[].class.equals(params[1]))
-					new AnnotatedPluginCommand(handler, method);
-			}
+		registerAll(Collections.singletonList(handler));
+	}
+	
+	/**
+	 * Registers all {@link CommandHandler}{@code s} within many objects at once.  Each Bukkit command is only looked up and
+	 * linked to the controller once, however many handlers and aliases share it, so this is quicker than registering the
+	 * objects one at a time.
+	 * @param handlers instances of the classes to register
+	 */
+	public static void registerAll(Collection<?> handlers){
+		registry.registerAll(handlers);
+	}
+	
+	/**
+	 * Registers all {@link CommandHandler}{@code s} within some classes, creating an instance of each class that has any.
+	 * A class is created with a constructor that takes the plugin if it has one, or with no arguments otherwise, and the
+	 * plugin itself is used for its own class.  Abstract classes and classes without handlers are skipped.
+	 * @param plugin the plugin the classes belong to
+	 * @param classes the classes to register
+	 */
+	public static void registerClasses(Plugin plugin, Collection<? extends Class<?>> classes){
+		registry.registerClasses(plugin, classes);
+	}
+	
+	/**
+	 * Registers all {@link CommandHandler}{@code s} within every class in a package (and the packages within it) of a
+	 * plugin's jar, as {@link #registerClasses(Plugin, Collection)} does.  Finding the classes means reading through the
+	 * whole jar, so plugins with an {@link #registerIndexed(Plugin) index} should use that instead.
+	 * @param plugin the plugin
+	 * @param packageName the package to scan, such as {@code "com.example.myplugin.commands"}
+	 */
+	public static void registerPackage(Plugin plugin, String packageName){
+		List<Class<?>> classes = PackageScanner.scanPackage(plugin, packageName);
+		if(classes != null)
+			registry.registerClasses(plugin, classes);
+	}
+	
+	/**
+	 * Registers all {@link CommandHandler}{@code s} listed in a plugin's handler index, as
+	 * {@link #registerClasses(Plugin, Collection)} does.  The index is written at compile time by
+	 * {@link net.amoebaman.amoebautils.processor.CommandHandlerProcessor}, which a plugin's build has to ask for, so no
+	 * scanning happens at runtime.
+	 * @param plugin the plugin
+	 * @return true if the plugin had an index, false if it didn't and nothing was registered
+	 */
+	public static boolean registerIndexed(Plugin plugin){
+		List<Class<?>> classes = PackageScanner.readIndex(plugin, INDEX);
+		if(classes == null)
+			return false;
+		registry.registerClasses(plugin, classes);
+		return true;
+	}
+	
+	/**
+	 * Unregisters every {@link CommandHandler} within an object, so that it's no longer called or kept around.
+	 * @param handler an instance that was registered
+	 * @return the number of handlers unregistered
+	 */
+	public static int unregisterCommands(Object handler){
+		return registry.unregister(handler);
+	}
+	
+	/**
+	 * Unregisters every {@link CommandHandler} belonging to a plugin: those on commands the plugin owns, and those within
+	 * objects the plugin loaded.  While AmoebaUtils is running as a plugin, this happens on its own whenever another plugin
+	 * is disabled, so reloading a plugin doesn't leave its old handlers behind.
+	 * @param plugin the plugin
+	 * @return the number of handlers unregistered
+	 */
+	public static int unregisterAll(Plugin plugin){
+		return registry.unregisterAll(plugin);
+	}
+	
+	/**
+	 * Replaces the {@link CommandHandler}{@code s} within one object with those within another, all at once, such as when
+	 * reloading a module.  There's no moment when the commands are missing, and dispatch never waits on the swap.
+	 * @param oldHandler an instance that was registered
+	 * @param newHandler an instance to register in its place
+	 */
+	public static void reloadCommands(Object oldHandler, Object newHandler){
+		registry.reload(oldHandler, newHandler);
+	}
+	
+	/**
+	 * Registers a parser for a type of handler parameter, replacing any parser already registered for it.  Handlers that
+	 * were registered before the parser won't use it.
+	 * <br><br>
+	 * Parsers for strings, numbers, booleans, online players, worlds and materials are built in, and any enum type is
+	 * parsed by the names of its constants.
+	 * @param type the parameter type
+	 * @param name the name of the type, as shown to senders in the command's usage
+	 * @param parser the parser
+	 */
+	public static <T> void registerParser(Class<T> type, String name, ArgumentParser<? extends T> parser){
+		Parsers.register(type, name, parser, null);
+	}
+	
+	/**
+	 * Registers a parser for a type of handler parameter along with the provider that suggests completions for it,
+	 * replacing any already registered for it.  Handlers that were registered before the parser won't use either.
+	 * <br><br>
+	 * Suggestions for booleans, online players, worlds and materials are built in, and any enum type is completed with
+	 * the names of its constants.
+	 * @param type the parameter type
+	 * @param name the name of the type, as shown to senders in the command's usage
+	 * @param parser the parser
+	 * @param provider the suggestion provider, or null to suggest nothing
+	 */
+	public static <T> void registerParser(Class<T> type, String name, ArgumentParser<? extends T> parser, SuggestionProvider provider){
+		Parsers.register(type, name, parser, provider);
+	}
+	
+	/**
+	 * Sets the most completions offered to a sender at once.  The default is 50.
+	 * @param max the maximum number of completions
+	 */
+	public static void setMaxSuggestions(int max){
+		completer.setMaxSuggestions(max);
+	}
+	
+	/**
+	 * Sets the limits for {@link CommandHandler#async() async} command handlers: how many worker threads run them, how many
+	 * may be waiting for a thread before senders are told the server is too busy, and how many each sender may have running
+	 * (or waiting) at once.  The pool is replaced, letting the handlers already running on the old one finish.
+	 * @param threads the number of worker threads
+	 * @param queueCapacity the number of handlers that may wait for a thread
+	 * @param perSender the number of handlers each sender may have running at once
+	 */
+	public static void setAsyncLimits(int threads, int queueCapacity, int perSender){
+		dispatcher.setAsyncLimits(threads, queueCapacity, perSender);
+	}
+	
+	/**
+	 * Sets how long the results of permission checks are cached for each player.  Changes to a sender's permissions may
+	 * take this long to be noticed, unless the cache is {@link #invalidatePermissions(CommandSender) invalidated}.  The
+	 * default is 2 seconds.
+	 * @param millis how long results are cached in milliseconds, or 0 to not cache them at all
+	 */
+	public static void setPermissionCacheTtl(long millis){
+		CachedPermissions.setTtl(millis);
+	}
+	
+	/**
+	 * Gives a set of permissions a name, so handlers can require them all with
+	 * {@link CommandHandler#permissionSets()} and have them checked as one.  Handlers that use the name must be
+	 * registered after it's defined, and keep the permissions it stood for when they were registered.
+	 * @param name the name of the set
+	 * @param nodes the permissions in the set
+	 */
+	public static void definePermissionSet(String name, String... nodes){
+		PermissionSet.define(name, nodes);
+	}
+	
+	/**
+	 * Throws out the cached results of a sender's permission checks, for when their permissions have just changed.
+	 * @param sender the sender
+	 */
+	public static void invalidatePermissions(CommandSender sender){
+		CachedPermissions.invalidate(sender);
+	}
+	
+	/**
+	 * Throws out the cached results of every sender's permission checks.
+	 */
+	public static void invalidatePermissions(){
+		CachedPermissions.invalidateAll();
+	}
+	
+	/**
+	 * Gets the execution metrics of every registered handler, ordered by the total time spent in them, most first.
+	 * @return the metrics of each handler
+	 */
+	public static List<HandlerStats> getStats(){
+		return registry.getStats();
+	}
+	
+	/**
+	 * Gets the execution metrics of the handler for a command.
+	 * @param command the handler's primary command, without the slash, ignoring case
+	 * @return the metrics, or null if no handler has that primary command
+	 */
+	public static HandlerStats getStats(String command){
+		return registry.getStats(command);
+	}
+	
+	/**
+	 * Clears the execution metrics of every registered handler.
+	 */
+	public static void resetStats(){
+		registry.resetStats();
 	}
 	
 	/**
@@ -55,12 +256,18 @@ public class CommandController implements CommandExecutor{
 	 * When registering a handler with this class, only methods marked with this annotation will be considered for command registration.
 	 * CommandHandler methods have very loose signature requirements in order to promote flexibility and adaptability.
 	 * <br><br>
-	 * CommandHandler methods must have two arguments.  The first <b>must</b> be an instance of {@link CommandSender}, though it can be <i>any</i>
+	 * The first argument of a CommandHandler method <b>must</b> be an instance of {@link CommandSender}, though it can be <i>any</i>
 	 * instance of CommandSender - if a CommandSender that can't be cast to the required form sends the command, they will automatically
 	 * be given a no-go message and the command will not be sent.
 	 * <br><br>
-	 * The second argument must be either an array of {@link String} or the varargs equivalent, which is used to pass in the arguments.
-	 * Arguments begin with the first traditional argument that is not part of the defined command string.
+	 * After the sender, a method may take any number of typed arguments, such as an {@code int}, a {@link Player} (by their full name), a {@link World}
+	 * or any enum, each of which is parsed from one command argument by its {@link ArgumentParser} (see
+	 * {@link CommandController#registerParser(Class, String, ArgumentParser)}).  The last argument may be an array of {@link String}
+	 * or the varargs equivalent, which receives all the remaining arguments.  Arguments begin with the first traditional argument
+	 * that is not part of the defined command string.  If an argument can't be parsed, or there are too few or too many of them,
+	 * the sender is told what went wrong along with the command's usage, and the method isn't called.
+	 * When the sender tab-completes an argument, they're offered the suggestions for its type, or those given by a {@link Suggest}
+	 * annotation on the parameter.
 	 * <br><br>
 	 * CommandHandlers <i>may return whatever they like</i> - if the method returns something besides void, it will be passed to
 	 * {@link Chat#send(CommandSender, Object...)} to be sent to the player as a message.  See the documentation for {@link Chat#send(CommandSender, Object...)}
@@ -88,86 +295,74 @@ public class CommandController implements CommandExecutor{
 		
 		/**
 		 * An array containing all permissions nodes required to run this command.  All permissions must be satisfied in order for
-		 * the command to be able to be run.
+		 * the command to be able to be run.  They're checked together as one set, and the result is cached for a moment (see
+		 * {@link CommandController#setPermissionCacheTtl(long)}).
 		 * @return
 		 */
 		String[] permissions() default {};
 		
+		/**
+		 * The names of permission sets, defined with {@link CommandController#definePermissionSet(String, String...)}, whose
+		 * permissions are all required to run this command as well.  They're resolved together with {@link #permissions()}
+		 * into one set when the handler is registered, so the sets must be defined first.
+		 * @return
+		 */
+		String[] permissionSets() default {};
+		
 		/**
 		 * The message to be sent to the command sender if they do not have permission to run the command.
 		 * @return
 		 */
 		String permissionMessage() default "You do not have permission to use that command";
-	}
-	
-	private static class AnnotatedPluginCommand{
 		
-		public final Object instance;
-		public final Method method;
-		public final Set<String[]> identifiers;
-		public final String[] permissions;
-		public final String permissionsMessage;
+		/**
+		 * Whether this command should be run off the main thread, for handlers that do slow things like querying a database.
+		 * Async handlers run on a bounded pool of worker threads, and whatever they return is sent to the sender back on the
+		 * main thread.  Since they don't run on the main thread, async handlers must stick to the thread-safe parts of the
+		 * Bukkit API.  See {@link CommandController#setAsyncLimits(int, int, int)}.
+		 * @return
+		 */
+		boolean async() default false;
+		
+		/**
+		 * How long, in milliseconds, an async handler may run before it is interrupted and the sender is told the command took
+		 * too long.  Ignored for handlers that aren't async.
+		 * @return
+		 */
+		long timeout() default 10000;
 		
 		/**
-		 * Constructs an AnnotatedPluginCommand containing all the information necessary to
-		 * run the command via the CommandController.  This will also pull all information
-		 * specified in the CommandHandler interface and assign it to the actual plugin command
-		 * at the root of this AnnotatedPluginCommand.
-		 * @param instance
-		 * @param method
+		 * How long, in milliseconds, each player must wait between uses of this command, or 0 for no limit.  Only players are
+		 * limited, not the console or command blocks.  The limit is checked before the arguments are parsed, so spamming a
+		 * limited command costs next to nothing.  See {@link #burst()}.
+		 * @return
 		 */
-		public AnnotatedPluginCommand(Object instance, Method method){
-			this.instance = instance;
-			this.method = method;
-			if(instance == null || method == null)
-				throw new IllegalArgumentException("instance and method must not be null");
-			if(!Lists.newArrayList(instance.getClass().getMethods()).contains(method))
-				throw new IllegalArgumentException("instance and method must be part of the same class");
-			
-			CommandHandler annot = method.getAnnotation(CommandHandler.class);
-			if(annot == null)
-				throw new IllegalArgumentException("command method must be annotated with @CommandHandler");
-			
-			identifiers = new HashSet<String[]>();
-			if(annot.cmd().trim().isEmpty())
-				throw new IllegalArgumentException("command method must have a valid base command");
-			identifiers.add(annot.cmd().split(" "));
-			for(String alias : annot.aliases())
-				if(!alias.trim().isEmpty())
-					identifiers.add(alias.split(" "));
-			
-			Set<String[]> invalid = new HashSet<String[]>();
-			for(String[] id : identifiers){
-				PluginCommand cmd = Bukkit.getPluginCommand(id[0]);
-				if(cmd == null){
-					invalid.add(id);
-					Logger.getLogger("minecraft").warning("[CommandController] Unable to register command with root identifier (or alias) " + id[0] + ": no Bukkit command is registered with that name");
-				}
-				else{
-					Bukkit.getPluginCommand(id[0]).setExecutor(INSTANCE);
-				}
-			}
-			identifiers.removeAll(invalid);
-			
-			permissions = annot.permissions();
-			permissionsMessage = annot.permissionMessage();
-			
-			if(!identifiers.isEmpty())
-				commands.add(this);
-		}
+		long cooldown() default 0;
 		
 		/**
-		 * Gets the class of the type of sender that this command needs to be passed to function.
-		 * This is determined when the command is registered, by the first parameter type of the method.
-		 * Any class assignable from this class can be used to run the command, so using a
-		 * <code>CommandSender</code> as the first parameter would allow <i>any</i> sender to run
-		 * the command.
-		 * @return the necessary sender class
+		 * How many times a player may use this command in quick succession before having to wait out the {@link #cooldown()}.
+		 * Uses are earned back one per cooldown, up to this many.  Ignored for commands without a cooldown.
+		 * @return
 		 */
-		public Class<?> getSenderType(){
-			return method.getParameterTypes()[0];
-		}
+		int burst() default 1;
+	}
+	
+	/**
+	 * An annotation that may be attached to a parameter of a {@link CommandHandler} method to suggest a fixed set of words
+	 * when the sender tab-completes that argument, in place of whatever is suggested for the parameter's type.  This is
+	 * mostly useful for {@link String} parameters that expect one of a few known words.
+	 * 
+	 * @author AmoebaMan
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.PARAMETER)
+	public static @interface Suggest {
 		
+		/**
+		 * The words to suggest.
+		 * @return
+		 */
+		String[] value();
 	}
 	
 	/**
@@ -175,86 +370,17 @@ public class CommandController implements CommandExecutor{
 	 * Beyond checking permissions, checking player/console sending, and invoking handlers and methods, this method does not actually act on the commands.
 	 */
 	public boolean onCommand(CommandSender sender, Command command, String label, String[] args){
-		
-		AnnotatedPluginCommand theCmd = null;
-		String[] theId = new String[]{};
-		
-		/*
-		 * For all registered commands...
-		 */
-		cmds: for(AnnotatedPluginCommand cmd : commands)
-			/*
-			 * For every identifier for the command...
-			 */
-			for(String[] id : cmd.identifiers)
-				/*
-				 * If the root command matches...
-				 */
-				if(id[0].equalsIgnoreCase(command.getName())){
-					/*
-					 * Make sure we even have enough args to make the match
-					 */
-					if(args.length < id.length - 1)
-						continue cmds;
-					/*
-					 * Make sure we've matched all required subcmds as well
-					 */
-					for(int i = 1; i < id.length; i++)
-						if(!id[i].equals(args[i - 1]))
-							continue cmds;
-					/*
-					 * If this is the longest matching command we've seen yet, fixate it
-					 */
-					if(id.length >= theId.length){
-						theCmd = cmd;
-						theId = id;
-					}
-					
-				}
-		/*
-		 * Make sure the command isn't null, we might have been passed the command
-		 * because a subcommand was registered but not super-command was
-		 */
-		if(theCmd == null)
-			return false;
-		/*
-		 * Verify that the correct sender was used
-		 */
-		if(!theCmd.getSenderType().isAssignableFrom(sender.getClass())){
-			sender.sendMessage(ChatColor.RED + "This command must be sent by a " + theCmd.getSenderType().getSimpleName());
-			return true;
-		}
-		/*
-		 * Make sure the sender has permissions
-		 */
-		for(String node : theCmd.permissions)
-			if(!sender.hasPermission(node)){
-				sender.sendMessage(ChatColor.translateAlternateColorCodes('&', theCmd.permissionsMessage));
-				return true;
-			}
-		/*
-		 * Trim down the args and try to process the command
-		 */
-		String[] newArgs = new String[args.length - (theId.length - 1)];
-		for(int i = 0; i < newArgs.length; i++)
-			newArgs[i] = args[i + (theId.length - 1)];
-		try {
-			if(!theCmd.method.getReturnType().equals(Void.class)){
-				Object result = theCmd.method.invoke(theCmd.instance, sender, newArgs);
-				if(result != null)
-					Chat.send(sender, result);
-			}
-			else
-				theCmd.method.invoke(theCmd.instance, sender, newArgs);
-			return true;
-		}
-		catch (Exception e) {
-			sender.sendMessage(ChatColor.RED + "An internal error occurred while attempting to perform this command");
-			e.printStackTrace();
-		}
-		
-		return false;
-		
+		return dispatcher.dispatch(sender, command, args);
+	}
+	
+	/**
+	 * Completes the last argument as the sender types it, with whichever subcommands the sender may use at that point,
+	 * followed by whatever the deepest matching handler's parameter at that position suggests (see {@link SuggestionProvider}).
+	 * Finding the subcommands walks the same trie as {@link #onCommand(CommandSender, Command, String, String[])}, and at
+	 * most {@link #setMaxSuggestions(int) so many} completions are ever gathered.
+	 */
+	public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args){
+		return completer.complete(sender, command, args);
 	}
 	
-}
\ No newline at end of file
+}
@@ -0,0 +1,139 @@
+package net.amoebaman.amoebautils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds, in the style of an HDR
+ * histogram. Values are counted in buckets that grow exponentially in width,
+ * with every power of two split into 32 linear sub-buckets, so any recorded
+ * value can be read back to within about 3% no matter how large it is.
+ * Recording a value takes a handful of atomic increments and never allocates,
+ * so it's cheap enough to leave on all the time.
+ * <p>
+ * Percentiles are read without stopping writers, so a histogram being
+ * recorded into while it's read may be very slightly inconsistent.
+ *
+ * @author AmoebaMan
+ */
+public class LatencyHistogram{
+	
+	private static final int SUB_BITS = 5, SUB_COUNT = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong(), total = new AtomicLong(), max = new AtomicLong();
+	
+	/**
+	 * Records a duration.
+	 * 
+	 * @param nanos the duration in nanoseconds, negative durations count as 0
+	 */
+	public void record(long nanos){
+		record(nanos, 1);
+	}
+	
+	/**
+	 * Records the same duration several times at once, such as the average
+	 * duration of each statement in a batch.
+	 * 
+	 * @param nanos the duration in nanoseconds, negative durations count as 0
+	 * @param times the number of times to record it
+	 */
+	public void record(long nanos, long times){
+		if(times <= 0)
+			return;
+		if(nanos < 0)
+			nanos = 0;
+		counts.addAndGet(index(nanos), times);
+		count.addAndGet(times);
+		total.addAndGet(nanos * times);
+		long current = max.get();
+		while(nanos > current && !max.compareAndSet(current, nanos))
+			current = max.get();
+	}
+	
+	/**
+	 * Gets the duration below which the given percentage of recorded
+	 * durations fall.
+	 * 
+	 * @param percentile the percentile, from 0 to 100
+	 * @return the duration in nanoseconds, or 0 if nothing has been recorded
+	 */
+	public long getPercentile(double percentile){
+		long count = this.count.get();
+		if(count == 0)
+			return 0;
+		long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++){
+			seen += counts.get(i);
+			if(seen >= target)
+				return Math.min(highest(i), max.get());
+		}
+		return max.get();
+	}
+	
+	/** @return the number of durations recorded */
+	public long getCount(){ return count.get(); }
+	/** @return the sum of every duration recorded, in nanoseconds */
+	public long getTotal(){ return total.get(); }
+	/** @return the longest duration recorded, in nanoseconds */
+	public long getMax(){ return max.get(); }
+	
+	/**
+	 * Gets the average of every duration recorded.
+	 * 
+	 * @return the mean in nanoseconds, or 0 if nothing has been recorded
+	 */
+	public long getMean(){
+		long count = this.count.get();
+		return count == 0 ? 0 : total.get() / count;
+	}
+	
+	/**
+	 * Clears every recorded duration.
+	 */
+	public void reset(){
+		for(int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+	
+	/**
+	 * Formats a duration in nanoseconds for humans, in milliseconds with
+	 * microsecond precision.
+	 * 
+	 * @param nanos a duration in nanoseconds
+	 * @return the formatted duration, such as {@code "1.234ms"}
+	 */
+	public static String format(long nanos){
+		long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+		return micros / 1000 + "." + String.valueOf(1000 + micros % 1000).substring(1) + "ms";
+	}
+	
+	/*
+	 * Values below SUB_COUNT get a bucket each, above that each power of two gets SUB_COUNT buckets
+	 */
+	static int index(long value){
+		if(value < SUB_COUNT)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return (shift + 1) * SUB_COUNT + ((int) (value >>> shift) & (SUB_COUNT - 1));
+	}
+	
+	/*
+	 * The largest value that lands in a bucket
+	 */
+	static long highest(int index){
+		if(index < SUB_COUNT)
+			return index;
+		int shift = index / SUB_COUNT - 1;
+		long lowest = (long) (SUB_COUNT + index % SUB_COUNT) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+	
+}
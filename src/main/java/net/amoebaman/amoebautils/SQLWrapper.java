@@ -2,23 +2,87 @@ package net.amoebaman.amoebautils;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import net.amoebaman.amoebautils.plugin.MainThread;
+import net.amoebaman.amoebautils.sql.ConnectionPool;
+import net.amoebaman.amoebautils.sql.ConnectionPool.ConnectionFactory;
+import net.amoebaman.amoebautils.sql.Cursor;
+import net.amoebaman.amoebautils.sql.DetachedResultSet;
+import net.amoebaman.amoebautils.sql.MySQLDialect;
+import net.amoebaman.amoebautils.sql.PooledConnection;
+import net.amoebaman.amoebautils.sql.QueryMetrics;
+import net.amoebaman.amoebautils.sql.ResultCache;
+import net.amoebaman.amoebautils.sql.RowHandler;
+import net.amoebaman.amoebautils.sql.RowMapper;
+import net.amoebaman.amoebautils.sql.SQLDialect;
+import net.amoebaman.amoebautils.sql.StatementCache;
+import net.amoebaman.amoebautils.sql.WriteQueue;
+import net.amoebaman.amoebautils.sql.WriteQueue.Batch;
+import net.amoebaman.amoebautils.sql.WriteQueue.BatchWriter;
 
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.Plugin;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
- * Wraps a {@link Connection} and provides convenient and exception-free methods
- * for accessing MySQL databases.
+ * Wraps a pool of {@link Connection}s and provides convenient and
+ * exception-free methods for accessing SQL databases. MySQL is used unless
+ * another {@link SQLDialect} is given, such as
+ * {@link net.amoebaman.amoebautils.sql.SQLiteDialect SQLiteDialect} for a
+ * local file-backed database.
+ * <p>
+ * Every thread that executes a statement borrows its own connection from the
+ * pool, so commands and queries sent from several threads at once (such as
+ * those sent by {@link #executeCommandAsync(String, Object...)}) run
+ * concurrently instead of queueing up on a single connection.
  * 
  * @author AmoebaMan
  */
 public class SQLWrapper{
 	
+	/** The default maximum pool size, scaled to the number of available cores */
+	public static final int DEFAULT_MAX_CONNECTIONS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+	
+	/** The most rows a batched insert is rewritten to write in a single statement */
+	private static final int MAX_REWRITTEN_ROWS = 128;
+	
 	private boolean suppressErrors, debug;
+	private final SQLDialect dialect;
 	private String url, database, username, password;
-	private Connection connection = null;
+	private volatile ConnectionPool pool = null;
+	private int minConnections = 1, maxConnections = DEFAULT_MAX_CONNECTIONS;
+	private long idleTimeout = 600000, poolWaitTimeout = 5000, validationInterval = 30000;
+	private int statementCacheSize = 64;
+	private volatile WriteQueue writeQueue = null;
+	private int writeQueueCapacity = 10000, writeBatchSize = 100;
+	private long writeFlushWindow = 100;
+	private int fetchSize = 0;
+	private ListeningExecutorService queryExecutor = null;
+	private ScheduledExecutorService timeoutScheduler = null;
+	private int queryThreads = DEFAULT_MAX_CONNECTIONS, queryQueueCapacity = 1000;
+	private volatile ResultCache resultCache = null;
+	private final QueryMetrics metrics = new QueryMetrics(null);
+	private volatile Logger logger;
 	
 	/**
 	 * Constructs an SQLHandler for an SQL server with its URL, initial
@@ -32,6 +96,28 @@ public class SQLWrapper{
 	 *            or "none" for no password
 	 */
 	public SQLWrapper(String url, String database, String username, String password){
+		this(new MySQLDialect(), url, database, username, password);
+	}
+	
+	/**
+	 * Constructs an SQLHandler for a database of any supported kind, with its
+	 * location, database, and connection credentials.
+	 * 
+	 * @param dialect the dialect of the database
+	 * @param url the location of the database, as understood by the dialect -
+	 *            the URL of a server, or the directory of a file-backed
+	 *            database
+	 * @param database the database to use, accepts null or empty for no
+	 *            database (or the dialect's default)
+	 * @param username the username to connect with
+	 * @param password the password for the given username, accepts null, empty,
+	 *            or "none" for no password
+	 */
+	public SQLWrapper(SQLDialect dialect, String url, String database, String username, String password){
+		if(dialect == null)
+			throw new IllegalArgumentException("dialect must not be null");
+		this.dialect = dialect;
+		setLogger(Bukkit.getServer() != null ? Bukkit.getLogger() : Logger.getLogger(SQLWrapper.class.getName()));
 		this.url = url;
 		this.database = database;
 		this.username = username;
@@ -39,17 +125,22 @@ public class SQLWrapper{
 		connect();
 	}
 	
-	private void connect(){
+	private synchronized void connect(){
 		try{
-			Class.forName("com.mysql.jdbc.Driver");
-			if(password == null || password.isEmpty() || password.equals("none"))
-				connection = DriverManager.getConnection("jdbc:mysql://" + url + "/");
-			else
-				connection = DriverManager.getConnection("jdbc:mysql://" + url + "/", username, password);
-			if(database != null && !database.isEmpty()){
-				executeCommand("CREATE DATABASE IF NOT EXISTS " + database);
-				executeCommand("USE " + database);
+			if(pool == null || pool.isClosed()){
+				ConnectionPool newPool = new ConnectionPool(new ConnectionFactory(){
+					
+					public Connection open() throws SQLException{
+						return openConnection();
+					}
+				}, minConnections, maxConnections);
+				newPool.setIdleTimeout(idleTimeout);
+				newPool.setBorrowTimeout(poolWaitTimeout);
+				newPool.setStatementCacheSize(statementCacheSize);
+				newPool.setValidationInterval(validationInterval);
+				pool = newPool;
 			}
+			pool.fill();
 		}
 		catch(Exception e){
 			if(!suppressErrors)
@@ -57,44 +148,149 @@ public class SQLWrapper{
 		}
 	}
 	
-	private boolean validateConnection(){
-		if(!isConnected(1)){
-			if(debug)
-				Bukkit.getLogger().info("[SQL] Connection lost, attempting to reconnect...");
-			connect();
-			if(!isConnected(1)){
-				if(debug)
-					Bukkit.getLogger().info("[SQL] Reconnection failed, aborting action");
-				return false;
-			}
-			else if(debug)
-				Bukkit.getLogger().info("[SQL] Successfully reconnected");
+	/**
+	 * Opens a new physical connection to the database, prepared by the
+	 * dialect. The connection pool calls this whenever it needs another
+	 * connection.
+	 * 
+	 * @return the connection
+	 * @throws SQLException if the connection couldn't be opened
+	 */
+	protected Connection openConnection() throws SQLException{
+		try{
+			Class.forName(dialect.getDriverClass());
 		}
-		return true;
+		catch(ClassNotFoundException e){
+			throw new SQLException("JDBC driver " + dialect.getDriverClass() + " not found", e);
+		}
+		String jdbcUrl = dialect.buildUrl(url, database);
+		Connection connection;
+		if(password == null || password.isEmpty() || password.equals("none"))
+			connection = DriverManager.getConnection(jdbcUrl);
+		else
+			connection = DriverManager.getConnection(jdbcUrl, username, password);
+		boolean initialized = false;
+		try{
+			dialect.initialize(connection, database);
+			initialized = true;
+		}
+		finally{
+			if(!initialized)
+				connection.close();
+		}
+		return connection;
 	}
 	
 	/**
-	 * Closes the connection to the SQL server.
+	 * Gets the dialect of the database this wrapper connects to, which can
+	 * build statements whose syntax differs between databases, such as
+	 * {@link SQLDialect#upsert(String, String[], String...) upserts}.
+	 * 
+	 * @return the dialect
 	 */
-	public void disconnect(){
+	public SQLDialect getDialect(){
+		return dialect;
+	}
+	
+	/*
+	 * Checks for null or empty SQL, and if debugging, logs where it came from
+	 */
+	private boolean isEmpty(String sql){
+		if(sql != null && !sql.isEmpty())
+			return false;
+		if(debug){
+			logger.info("[SQL] Received null SQL command from:");
+			for(StackTraceElement e : new Exception().fillInStackTrace().getStackTrace())
+				logger.info(" > " + e);
+		}
+		return true;
+	}
+	
+	/*
+	 * Borrows a connection for the current thread, the pool takes care of checking it's still alive
+	 */
+	private PooledConnection borrowConnection(){
 		try{
-			if(connection != null)
-				connection.close();
+			return borrow();
 		}
 		catch(SQLException e){
-			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	private PooledConnection borrow() throws SQLException{
+		try{
+			if(pool == null || pool.isClosed())
+				connect();
+			if(pool == null)
+				throw new SQLNonTransientConnectionException("Not connected", "08003");
+			return pool.borrow();
+		}
+		catch(SQLException e){
+			if(debug)
+				logger.info("[SQL] Unable to obtain a connection, aborting action");
+			if(!suppressErrors)
+				e.printStackTrace();
+			throw e;
+		}
+	}
+	
+	/*
+	 * Whether something failed because of the connection rather than the statement, which would've worked on a good one
+	 */
+	private static boolean isConnectionError(Throwable e){
+		for(; e != null; e = e.getCause()){
+			if(e instanceof SQLTransientConnectionException || e instanceof SQLNonTransientConnectionException || e instanceof SQLRecoverableException)
+				return true;
+			if(e instanceof SQLException && ((SQLException) e).getSQLState() != null && ((SQLException) e).getSQLState().startsWith("08"))
+				return true;
 		}
+		return false;
 	}
 	
 	/**
-	 * Checks to see if the wrapped connection is valid and usable.
+	 * Closes all connections to the SQL server. Any commands still waiting in
+	 * the asynchronous write queue are written first. Connections that are in
+	 * use will be closed as soon as the statements using them finish.
+	 */
+	public void disconnect(){
+		WriteQueue queue;
+		synchronized(this){
+			queue = writeQueue;
+			writeQueue = null;
+			if(queryExecutor != null){
+				queryExecutor.shutdown();
+				timeoutScheduler.shutdown();
+				queryExecutor = null;
+				timeoutScheduler = null;
+			}
+		}
+		if(queue != null){
+			int dropped = queue.shutdown();
+			if(dropped > 0)
+				logger.warning("[SQL] Dropped " + dropped + " queued commands that could not be written before disconnecting");
+		}
+		if(pool != null)
+			pool.close();
+	}
+	
+	/**
+	 * Checks to see if the wrapped connections are valid and usable.
 	 * 
 	 * @param timeout a maximum connection timeout in seconds
 	 * @return the result
 	 */
 	public boolean isConnected(int timeout){
+		if(pool == null || pool.isClosed())
+			return false;
 		try{
-			return connection != null && connection.isValid(timeout);
+			PooledConnection connection = pool.borrow();
+			try{
+				return connection.getConnection().isValid(timeout);
+			}
+			finally{
+				connection.release();
+			}
 		}
 		catch(Exception e){
 			if(!suppressErrors)
@@ -103,6 +299,223 @@ public class SQLWrapper{
 		}
 	}
 	
+	/**
+	 * Sets the minimum and maximum number of connections kept open to the SQL
+	 * server. The maximum caps how many commands and queries can run at once.
+	 * By default the pool keeps 1 connection open and grows to at most
+	 * {@link #DEFAULT_MAX_CONNECTIONS}.
+	 * 
+	 * @param min the number of connections to keep open at all times
+	 * @param max the maximum number of connections that may be open at once
+	 */
+	public void setPoolSize(int min, int max){
+		minConnections = min;
+		maxConnections = max;
+		if(pool != null)
+			pool.setSize(min, max);
+	}
+	
+	/**
+	 * Sets how long a connection may sit unused before it is closed, provided
+	 * the pool holds more than its minimum number of connections.
+	 * 
+	 * @param millis the idle timeout in milliseconds
+	 */
+	public void setIdleTimeout(long millis){
+		idleTimeout = millis;
+		if(pool != null)
+			pool.setIdleTimeout(millis);
+	}
+	
+	/**
+	 * Sets how long a command or query will wait for a free connection when
+	 * all of them are in use before giving up.
+	 * 
+	 * @param millis the wait timeout in milliseconds
+	 */
+	public void setPoolWaitTimeout(long millis){
+		poolWaitTimeout = millis;
+		if(pool != null)
+			pool.setBorrowTimeout(millis);
+	}
+	
+	/**
+	 * Sets how long a connection may go unchecked before it has to be pinged
+	 * to make sure it's still alive. Idle connections are pinged in the
+	 * background, so statements don't usually pay for it. A connection is
+	 * also checked again after any statement run on it fails. The default is
+	 * 30 seconds.
+	 * 
+	 * @param millis the validation interval in milliseconds
+	 */
+	public void setValidationInterval(long millis){
+		validationInterval = millis;
+		if(pool != null)
+			pool.setValidationInterval(millis);
+	}
+	
+	/**
+	 * Sets how many prepared statements are cached for reuse on each pooled
+	 * connection. Statements pushed out of a full cache are closed. Setting
+	 * this to 0 disables statement caching.
+	 * 
+	 * @param size the per-connection cache capacity
+	 */
+	public void setStatementCacheSize(int size){
+		statementCacheSize = size;
+		if(pool != null)
+			pool.setStatementCacheSize(size);
+	}
+	
+	/**
+	 * Sets the number of rows the driver should fetch from the server at a
+	 * time when streaming a query with
+	 * {@link #streamQuery(String, RowHandler, Object...)} or
+	 * {@link #openCursor(String, Object...)}. The default of 0 leaves it up to
+	 * the dialect, which picks a size that streams the result where the
+	 * driver needs one to, see {@link SQLDialect#getStreamingFetchSize(int)}.
+	 * MySQL only streams when its dialect has cursor fetching turned on, see
+	 * {@link MySQLDialect#MySQLDialect(boolean)}.
+	 * 
+	 * @param rows the fetch size
+	 */
+	public void setFetchSize(int rows){
+		fetchSize = rows;
+	}
+	
+	/**
+	 * Sets the size of the thread pool that runs queries sent by
+	 * {@link #queryAsync(String, RowMapper, Object...)}, and how many queries
+	 * may be waiting for a thread before new ones are rejected. Takes effect
+	 * the next time the pool is started, after connecting.
+	 * 
+	 * @param threads the number of query threads
+	 * @param queueCapacity the number of queries that may wait for a thread
+	 */
+	public synchronized void setAsyncQueryThreads(int threads, int queueCapacity){
+		queryThreads = threads;
+		queryQueueCapacity = queueCapacity;
+	}
+	
+	/**
+	 * Turns on the query result cache used by
+	 * {@link #cachedQuery(String, long, RowMapper, Object...)}, or resizes it.
+	 * Once the cache is full, the least recently used results are thrown out.
+	 * Setting this to 0 turns the cache off, which is the default.
+	 * <p>
+	 * Resizing the cache empties it.
+	 * 
+	 * @param maximumSize the maximum number of results to cache
+	 */
+	public void setResultCacheSize(int maximumSize){
+		resultCache = maximumSize > 0 ? new ResultCache(maximumSize) : null;
+	}
+	
+	/**
+	 * Gets the query result cache, for access to its hit-rate statistics or to
+	 * invalidate tables that were changed behind this wrapper's back.
+	 * 
+	 * @return the result cache, or null if it's turned off
+	 */
+	public ResultCache getResultCache(){
+		return resultCache;
+	}
+	
+	/**
+	 * Gets the metrics kept for every statement sent through this wrapper:
+	 * latency histograms, execution, failure and row counts, and the log of
+	 * slow queries. Metrics are always on, and cheap enough to leave that
+	 * way.
+	 * 
+	 * @return the query metrics
+	 */
+	public QueryMetrics getMetrics(){
+		return metrics;
+	}
+	
+	/**
+	 * Sets how long a statement has to take before it's logged as a slow
+	 * query. Each slow statement is reported to the console at most once a
+	 * minute, and the most recent ones are kept in
+	 * {@link QueryMetrics#getSlowQueries()}. The default is 100 milliseconds.
+	 * 
+	 * @param millis the slow query threshold in milliseconds
+	 */
+	public void setSlowQueryThreshold(long millis){
+		metrics.setSlowQueryThreshold(millis);
+	}
+	
+	/**
+	 * Sets how many commands sent by
+	 * {@link #executeCommandAsync(String, Object...)} may be waiting to
+	 * be written at once. Once the queue is full, sending another async command
+	 * will wait until there's room for it.
+	 * 
+	 * @param capacity the capacity of the write queue
+	 */
+	public synchronized void setWriteQueueCapacity(int capacity){
+		writeQueueCapacity = capacity;
+		if(writeQueue != null)
+			writeQueue.setCapacity(capacity);
+	}
+	
+	/**
+	 * Sets how commands sent by
+	 * {@link #executeCommandAsync(String, Object...)} are batched. The
+	 * queue is written as soon as it holds the given number of commands, or as
+	 * soon as its oldest command has waited for the flush window, whichever
+	 * comes first. No more than the given number of commands are written in
+	 * any one transaction.
+	 * 
+	 * @param batchSize the number of queued commands that triggers a write
+	 * @param flushWindow the longest time, in milliseconds, a command will wait
+	 */
+	public synchronized void setWriteBatching(int batchSize, long flushWindow){
+		writeBatchSize = batchSize;
+		writeFlushWindow = flushWindow;
+		if(writeQueue != null)
+			writeQueue.setBatching(batchSize, flushWindow);
+	}
+	
+	/**
+	 * Gets the queue holding commands sent by
+	 * {@link #executeCommandAsync(String, Object...)}, mostly for access
+	 * to its metrics.
+	 * 
+	 * @return the write queue, or null if no async commands have been sent
+	 *         since connecting
+	 */
+	public WriteQueue getWriteQueue(){
+		return writeQueue;
+	}
+	
+	/**
+	 * Gets the connection pool backing this wrapper, mostly for access to its
+	 * size, wait-time and statement cache hit/miss metrics.
+	 * 
+	 * @return the pool
+	 */
+	public ConnectionPool getConnectionPool(){
+		return pool;
+	}
+	
+	/**
+	 * Sets the logger that debugging output, dropped commands and slow
+	 * queries are reported to. By default this is the server's logger, or
+	 * outside of a server, a logger named after this class.
+	 * 
+	 * @param logger the logger
+	 */
+	public void setLogger(Logger logger){
+		if(logger == null)
+			throw new IllegalArgumentException("logger must not be null");
+		this.logger = logger;
+		metrics.setLogger(logger);
+		WriteQueue queue = writeQueue;
+		if(queue != null)
+			queue.setLogger(logger);
+	}
+	
 	/**
 	 * Turns on or off error suppression. When error suppression is on, no
 	 * exceptions thrown by SQL commands and queries will be logged to console.
@@ -134,48 +547,263 @@ public class SQLWrapper{
 	 * @param args arguments for the command
 	 */
 	public void executeCommand(String command, Object... args){
-		if(command == null || command.isEmpty()){
-			if(debug){
-				Bukkit.getLogger().info("[SQL] Received null SQL command from:");
-				for(StackTraceElement e : new Exception().fillInStackTrace().getStackTrace())
-					Bukkit.getLogger().info(" > " + e);
-			}
+		if(isEmpty(command))
 			return;
+		command(command, args);
+	}
+	
+	/*
+	 * Executes a command, returning whatever it failed with, or null if it worked
+	 */
+	private Exception command(String command, Object[] args){
+		long startTime = System.nanoTime();
+		PooledConnection connection;
+		try{
+			connection = borrow();
 		}
-		long startTime = System.currentTimeMillis();
-		if(!validateConnection())
-			return;
+		catch(SQLException e){
+			return e;
+		}
+		StatementCache statements = connection.getStatementCache();
+		PreparedStatement statement = null;
+		Exception failure = null;
 		try{
-			PreparedStatement statement = connection.prepareStatement(command);
+			statement = statements.prepare(command);
 			for(int i = 0; i < args.length; i++)
 				statement.setObject(i + 1, args[i]);
 			int count = statement.executeUpdate();
+			metrics.record(command, System.nanoTime() - startTime, count, false);
 			if(debug)
-				Bukkit.getLogger().info("[SQL] Successfully executed command \"" + command + "\", updated " + count + " rows (" + (System.currentTimeMillis() - startTime) + "ms)");
+				logger.info("[SQL] Successfully executed command \"" + command + "\", updated " + count + " rows (" + LatencyHistogram.format(System.nanoTime() - startTime) + ")");
 		}
 		catch(Exception e){
+			failure = e;
+			connection.suspect();
+			metrics.record(command, System.nanoTime() - startTime, 0, true);
 			if(debug)
-				Bukkit.getLogger().info("[SQL] Failed to execute command \"" + command + "\" (" + (System.currentTimeMillis() - startTime) + "ms)");
+				logger.info("[SQL] Failed to execute command \"" + command + "\" (" + LatencyHistogram.format(System.nanoTime() - startTime) + ")");
 			if(!suppressErrors)
 				e.printStackTrace();
 		}
+		finally{
+			if(statement != null)
+				statements.release(command, statement);
+			connection.release();
+			ResultCache cache = resultCache;
+			if(cache != null)
+				cache.invalidate(command);
+		}
+		return failure;
 	}
 	
 	/**
 	 * Sends a command statement to the SQL server asynchronously. See
 	 * {@link #executeCommand(String, Object...)}.
+	 * <p>
+	 * Async commands are placed in a write-behind queue and written in
+	 * batches by a background thread. Consecutive commands with the same SQL
+	 * text are sent together as a single JDBC batch, and each flush of the
+	 * queue, of at most the batch size, is written in one transaction.
+	 * Commands are always written in the order they were sent. If the queue is
+	 * full, this method waits until there's room. See
+	 * {@link #setWriteBatching(int, long)} and
+	 * {@link #setWriteQueueCapacity(int)}.
+	 * <p>
+	 * {@link #disconnect()} writes everything still in the queue before
+	 * closing the connections. Commands that couldn't be written because the
+	 * server couldn't be reached stay in the queue, and are tried again until
+	 * they're written or the wrapper disconnects. A command that fails
+	 * {@link WriteQueue#MAX_ATTEMPTS} times in a row as it's being written is
+	 * given up on and logged, so it can't hold up the commands behind it.
 	 * 
-	 * @param plugin a plugin, used to schedule the async task
 	 * @param command a command
 	 * @param args arguments for the command
 	 */
-	public void executeCommandAsync(Plugin plugin, final String command, final Object... args){
-		Bukkit.getScheduler().runTaskAsynchronously(plugin, new Runnable(){
-			
-			public void run(){
-				executeCommand(command, args);
+	public void executeCommandAsync(String command, Object... args){
+		if(isEmpty(command))
+			return;
+		try{
+			if(getOrCreateWriteQueue().add(command, args))
+				return;
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		/*
+		 * We're disconnecting or we got interrupted, better late than never
+		 */
+		executeCommand(command, args);
+	}
+	
+	/**
+	 * Sends a command statement to the SQL server asynchronously. See
+	 * {@link #executeCommandAsync(String, Object...)}.
+	 * 
+	 * @param plugin ignored, the queue runs on its own thread
+	 * @param command a command
+	 * @param args arguments for the command
+	 * @deprecated the plugin isn't needed, use
+	 *             {@link #executeCommandAsync(String, Object...)}
+	 */
+	@Deprecated
+	public void executeCommandAsync(Plugin plugin, String command, Object... args){
+		executeCommandAsync(command, args);
+	}
+	
+	private synchronized WriteQueue getOrCreateWriteQueue(){
+		if(writeQueue == null){
+			writeQueue = new WriteQueue(new BatchWriter(){
+				
+				public int write(List<Batch> batches){
+					return writeBatches(batches);
+				}
+			}, writeQueueCapacity, writeBatchSize, writeFlushWindow);
+			writeQueue.setLogger(logger);
+		}
+		return writeQueue;
+	}
+	
+	/*
+	 * Writes a flush of the write queue in a single transaction, falling back to writing the
+	 * commands one by one if the transaction fails so a single bad command doesn't sink the rest,
+	 * and returns how many commands were dealt with before one failed for want of a connection,
+	 * or -1 if there was no connection to try them on at all
+	 */
+	private int writeBatches(List<Batch> batches){
+		long startTime = System.nanoTime();
+		int count = 0;
+		for(Batch batch : batches)
+			count += batch.args.size();
+		PooledConnection connection = borrowConnection();
+		if(connection == null){
+			if(debug)
+				logger.info("[SQL] Unable to write " + count + " queued commands, will retry");
+			return -1;
+		}
+		Connection jdbc = connection.getConnection();
+		StatementCache statements = connection.getStatementCache();
+		Exception failure = null;
+		try{
+			jdbc.setAutoCommit(false);
+			for(Batch batch : batches){
+				long batchStart = System.nanoTime();
+				long rows = writeBatch(statements, batch);
+				metrics.record(batch.sql, System.nanoTime() - batchStart, batch.args.size(), rows, false);
+			}
+			jdbc.commit();
+			ResultCache cache = resultCache;
+			if(cache != null)
+				for(Batch batch : batches)
+					cache.invalidate(batch.sql);
+			if(debug)
+				logger.info("[SQL] Successfully wrote " + count + " queued commands in " + batches.size() + " batches (" + LatencyHistogram.format(System.nanoTime() - startTime) + ")");
+		}
+		catch(Exception e){
+			failure = e;
+			connection.suspect();
+			try{
+				jdbc.rollback();
+			}
+			catch(SQLException re){
+				/*
+				 * The commands will be retried anyways
+				 */
+			}
+			if(debug)
+				logger.info("[SQL] Failed to write " + count + " queued commands as a batch, retrying them individually (" + LatencyHistogram.format(System.nanoTime() - startTime) + ")");
+			if(!suppressErrors)
+				e.printStackTrace();
+		}
+		finally{
+			try{
+				jdbc.setAutoCommit(true);
+				connection.release();
+			}
+			catch(SQLException e){
+				connection.discard();
+			}
+		}
+		if(failure == null)
+			return count;
+		/*
+		 * Even if it looked like the connection failed, it may have been one command's fault, so find out which -
+		 * holding one connection throughout, which the pool checks first since the last one was suspect
+		 */
+		PooledConnection retry = borrowConnection();
+		if(retry == null)
+			return -1;
+		int written = 0;
+		try{
+			for(Batch batch : batches)
+				for(Object[] args : batch.args){
+					Exception e = command(batch.sql, args);
+					if(e != null && isConnectionError(e))
+						return written;
+					written++;
+				}
+		}
+		finally{
+			retry.release();
+		}
+		return written;
+	}
+	
+	/*
+	 * Writes a run of the same command, folding as much of it as it can into multi-row statements if the
+	 * dialect knows how and the driver won't, in power-of-two sizes so only a handful of them get prepared
+	 */
+	private long writeBatch(StatementCache statements, Batch batch) throws SQLException{
+		int width = batch.args.get(0).length, written = 0;
+		for(Object[] args : batch.args)
+			if(args.length != width)
+				width = 0;
+		int most = width == 0 ? 1 : Math.min(MAX_REWRITTEN_ROWS, dialect.getMaxParameters() / width);
+		long rows = 0;
+		for(int size = Integer.highestOneBit(Math.max(1, Math.min(most, batch.args.size()))); size > 1; size >>= 1){
+			if(batch.args.size() - written < size)
+				continue;
+			String sql = dialect.rewriteBatch(batch.sql, size);
+			if(sql == null)
+				break;
+			List<Object[]> merged = new ArrayList<Object[]>();
+			for(; batch.args.size() - written >= size; written += size){
+				Object[] args = new Object[size * width];
+				for(int i = 0; i < size; i++)
+					System.arraycopy(batch.args.get(written + i), 0, args, i * width, width);
+				merged.add(args);
+			}
+			rows += executeBatch(statements, sql, merged);
+		}
+		if(written < batch.args.size())
+			rows += executeBatch(statements, batch.sql, batch.args.subList(written, batch.args.size()));
+		return rows;
+	}
+	
+	private long executeBatch(StatementCache statements, String sql, List<Object[]> batch) throws SQLException{
+		PreparedStatement statement = statements.prepare(sql);
+		try{
+			for(Object[] args : batch){
+				for(int i = 0; i < args.length; i++)
+					statement.setObject(i + 1, args[i]);
+				statement.addBatch();
+			}
+			long rows = 0;
+			for(int updated : statement.executeBatch())
+				if(updated > 0)
+					rows += updated;
+			return rows;
+		}
+		finally{
+			try{
+				statement.clearBatch();
 			}
-		});
+			catch(SQLException e){
+				/*
+				 * It's either empty already or the statement is dead, either way we're done with it
+				 */
+			}
+			statements.release(sql, statement);
+		}
 	}
 	
 	/**
@@ -183,35 +811,332 @@ public class SQLWrapper{
 	 * (?) within the query will be replaced in order of occurrence by the
 	 * included arguments in accordance with
 	 * {@link PreparedStatement#setObject(int, Object)}.
+	 * <p>
+	 * The whole result is read into memory before it's returned, and the
+	 * statement and pooled connection it came from go straight back to be
+	 * reused, so the result can be read from any thread, and it doesn't matter
+	 * whether it's ever closed. For large results, use
+	 * {@link #streamQuery(String, RowHandler, Object...)} or
+	 * {@link #queryAsync(String, RowMapper, Object...)} instead.
 	 * 
 	 * @param query a query
 	 * @param args arguments for the query
 	 * @return the result, or null if something went wrong
 	 */
 	public ResultSet executeQuery(String query, Object... args){
-		if(query == null || query.isEmpty()){
-			if(debug){
-				Bukkit.getLogger().info("[SQL] Received null SQL command from:");
-				for(StackTraceElement e : new Exception().fillInStackTrace().getStackTrace())
-					Bukkit.getLogger().info(" > " + e);
-			}
+		if(isEmpty(query))
 			return null;
-		}
-		long startTime = System.currentTimeMillis();
-		if(!validateConnection())
+		long startTime = System.nanoTime();
+		PooledConnection connection = borrowConnection();
+		if(connection == null)
 			return null;
+		StatementCache statements = connection.getStatementCache();
+		PreparedStatement statement = null;
+		ResultSet set = null;
 		try{
-			PreparedStatement statement = connection.prepareStatement(query);
+			statement = statements.prepare(query);
 			for(int i = 0; i < args.length; i++)
 				statement.setObject(i + 1, args[i]);
-			ResultSet set = statement.executeQuery();
+			set = statement.executeQuery();
+			/*
+			 * Nothing the caller does with the result, or forgets to do, can hold up the connection
+			 */
+			ResultSet detached = DetachedResultSet.copy(set);
+			metrics.record(query, System.nanoTime() - startTime, 0, false);
 			if(debug)
-				Bukkit.getLogger().info("[SQL] Successfully executed query \"" + query + "\" (" + (System.currentTimeMillis() - startTime) + "ms)");
-			return set;
+				logger.info("[SQL] Successfully executed query \"" + query + "\" (" + LatencyHistogram.format(System.nanoTime() - startTime) + ")");
+			return detached;
 		}
 		catch(Exception e){
+			connection.suspect();
+			metrics.record(query, System.nanoTime() - startTime, 0, true);
 			if(debug)
-				Bukkit.getLogger().info("[SQL] Failed to execute query \"" + query + "\" (" + (System.currentTimeMillis() - startTime) + "ms)");
+				logger.info("[SQL] Failed to execute query \"" + query + "\" (" + LatencyHistogram.format(System.nanoTime() - startTime) + ")");
+			if(!suppressErrors)
+				e.printStackTrace();
+			return null;
+		}
+		finally{
+			try{
+				if(set != null)
+					set.close();
+			}
+			catch(SQLException e){
+				/*
+				 * We already have everything we wanted from it
+				 */
+			}
+			if(statement != null)
+				statements.release(query, statement);
+			connection.release();
+		}
+	}
+	
+	/**
+	 * Sends a query statement to the SQL server and streams its result to a
+	 * handler one row at a time, so no matter how large the result is, only
+	 * the current row is held in memory. The statement and result are closed
+	 * automatically once the last row has been handled. Arguments are handled
+	 * the same as with {@link #executeQuery(String, Object...)}.
+	 * 
+	 * @param query a query
+	 * @param handler a handler for the rows
+	 * @param args arguments for the query
+	 * @return the number of rows handled, or -1 if something went wrong
+	 */
+	public int streamQuery(String query, RowHandler handler, Object... args){
+		if(isEmpty(query))
+			return -1;
+		long startTime = System.nanoTime();
+		PooledConnection connection = borrowConnection();
+		if(connection == null)
+			return -1;
+		Cursor cursor = null;
+		int count = 0;
+		try{
+			cursor = Cursor.open(connection, query, dialect.getStreamingFetchSize(fetchSize), args);
+			while(cursor.hasNext()){
+				handler.handle(cursor.next());
+				count++;
+			}
+			metrics.record(query, System.nanoTime() - startTime, count, false);
+			if(debug)
+				logger.info("[SQL] Successfully streamed " + count + " rows from query \"" + query + "\" (" + LatencyHistogram.format(System.nanoTime() - startTime) + ")");
+			return count;
+		}
+		catch(Exception e){
+			metrics.record(query, System.nanoTime() - startTime, count, true);
+			if(debug)
+				logger.info("[SQL] Failed to stream query \"" + query + "\" after " + count + " rows (" + LatencyHistogram.format(System.nanoTime() - startTime) + ")");
+			if(!suppressErrors)
+				e.printStackTrace();
+			return -1;
+		}
+		finally{
+			if(cursor != null)
+				cursor.close();
+		}
+	}
+	
+	/**
+	 * Sends a query statement to the SQL server and opens a {@link Cursor} to
+	 * iterate over its result one row at a time. The cursor holds on to a
+	 * pooled connection until it has been read to the end or closed, so one
+	 * that's abandoned early must be closed, from the same thread that opened
+	 * it. Arguments are handled the same as with
+	 * {@link #executeQuery(String, Object...)}.
+	 * 
+	 * @param query a query
+	 * @param args arguments for the query
+	 * @return the cursor, or null if something went wrong
+	 */
+	public Cursor openCursor(String query, Object... args){
+		if(isEmpty(query))
+			return null;
+		long startTime = System.nanoTime();
+		PooledConnection connection = borrowConnection();
+		if(connection == null)
+			return null;
+		try{
+			Cursor cursor = Cursor.open(connection, query, dialect.getStreamingFetchSize(fetchSize), args);
+			metrics.record(query, System.nanoTime() - startTime, 0, false);
+			return cursor;
+		}
+		catch(Exception e){
+			metrics.record(query, System.nanoTime() - startTime, 0, true);
+			if(debug)
+				logger.info("[SQL] Failed to execute query \"" + query + "\" (" + LatencyHistogram.format(System.nanoTime() - startTime) + ")");
+			if(!suppressErrors)
+				e.printStackTrace();
+			return null;
+		}
+	}
+	
+	/**
+	 * Sends a query statement to the SQL server asynchronously, mapping each
+	 * row of its result to an object. The query runs on a dedicated, bounded
+	 * pool of query threads (see {@link #setAsyncQueryThreads(int, int)}), never
+	 * on the server's main thread. Arguments are handled the same as with
+	 * {@link #executeQuery(String, Object...)}.
+	 * <p>
+	 * The returned future fails if the query fails, or if too many queries are
+	 * already waiting. Cancelling the future cancels the query on the server
+	 * if it's still running. Listeners added to the future run on the query
+	 * thread unless given another executor - use {@link MainThread#executor(Plugin)}
+	 * to get back onto the main thread.
+	 * 
+	 * @param query a query
+	 * @param mapper a mapper to turn each row into an object
+	 * @param args arguments for the query
+	 * @return a future holding the mapped rows, in order
+	 */
+	public <T> ListenableFuture<List<T>> queryAsync(String query, RowMapper<T> mapper, Object... args){
+		return queryAsync(query, 0, mapper, args);
+	}
+	
+	/**
+	 * Sends a query statement to the SQL server asynchronously, failing it with
+	 * a {@link java.util.concurrent.TimeoutException} if it hasn't finished in
+	 * time. See {@link #queryAsync(String, RowMapper, Object...)}.
+	 * 
+	 * @param query a query
+	 * @param timeout the timeout in milliseconds, or 0 for no timeout
+	 * @param mapper a mapper to turn each row into an object
+	 * @param args arguments for the query
+	 * @return a future holding the mapped rows, in order
+	 */
+	public <T> ListenableFuture<List<T>> queryAsync(final String query, long timeout, final RowMapper<T> mapper, final Object... args){
+		if(isEmpty(query))
+			return Futures.immediateFailedFuture(new SQLException("Received null SQL query"));
+		final AtomicReference<Cursor> running = new AtomicReference<Cursor>();
+		ListenableFuture<List<T>> future;
+		synchronized(this){
+			startQueryExecutor();
+			try{
+				future = queryExecutor.submit(new Callable<List<T>>(){
+					
+					public List<T> call() throws Exception{
+						return mapQuery(query, mapper, running, args);
+					}
+				});
+			}
+			catch(RejectedExecutionException e){
+				if(debug)
+					logger.info("[SQL] Rejected async query \"" + query + "\", too many queries are waiting");
+				return Futures.immediateFailedFuture(e);
+			}
+			if(timeout > 0)
+				future = Futures.withTimeout(future, timeout, TimeUnit.MILLISECONDS, timeoutScheduler);
+		}
+		final ListenableFuture<List<T>> result = future;
+		result.addListener(new Runnable(){
+			
+			public void run(){
+				Cursor cursor = running.get();
+				if(result.isCancelled() && cursor != null)
+					cursor.cancel();
+			}
+		}, MoreExecutors.directExecutor());
+		return result;
+	}
+	
+	/**
+	 * Sends a query statement to the SQL server asynchronously, and delivers
+	 * the mapped rows (or the failure) to a callback on the server's main
+	 * thread. See {@link #queryAsync(String, RowMapper, Object...)}.
+	 * 
+	 * @param plugin a plugin, used to schedule the callback
+	 * @param query a query
+	 * @param mapper a mapper to turn each row into an object
+	 * @param callback a callback to receive the result on the main thread
+	 * @param args arguments for the query
+	 * @return a future holding the mapped rows, in order
+	 */
+	public <T> ListenableFuture<List<T>> queryAsync(Plugin plugin, String query, RowMapper<T> mapper, FutureCallback<? super List<T>> callback, Object... args){
+		ListenableFuture<List<T>> future = queryAsync(query, mapper, args);
+		Futures.addCallback(future, callback, MainThread.executor(plugin));
+		return future;
+	}
+	
+	/**
+	 * Gets an executor that runs tasks on the server's main thread.
+	 * 
+	 * @param plugin a plugin, used to schedule the tasks
+	 * @return the executor
+	 * @deprecated moved to {@link MainThread#executor(Plugin)}
+	 */
+	@Deprecated
+	public static Executor mainThread(Plugin plugin){
+		return MainThread.executor(plugin);
+	}
+	
+	private void startQueryExecutor(){
+		if(queryExecutor != null)
+			return;
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(queryThreads, queryThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queryQueueCapacity), new ThreadFactoryBuilder().setNameFormat("SQL-Query-%d").setDaemon(true).build());
+		executor.allowCoreThreadTimeOut(true);
+		queryExecutor = MoreExecutors.listeningDecorator(executor);
+		timeoutScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("SQL-Query-Timeout-%d").setDaemon(true).build());
+	}
+	
+	/*
+	 * Runs a query to completion on the current thread, throwing instead of logging failures
+	 */
+	private <T> List<T> mapQuery(String query, RowMapper<T> mapper, AtomicReference<Cursor> running, Object... args) throws SQLException{
+		long startTime = System.nanoTime();
+		PooledConnection connection = borrowConnection();
+		if(connection == null)
+			throw new SQLException("Unable to obtain a connection for query \"" + query + "\"");
+		Cursor cursor = null;
+		List<T> rows = new ArrayList<T>();
+		try{
+			cursor = Cursor.open(connection, query, dialect.getStreamingFetchSize(fetchSize), args);
+			if(running != null)
+				running.set(cursor);
+			while(cursor.hasNext()){
+				if(Thread.interrupted())
+					throw new SQLException("Query \"" + query + "\" was cancelled");
+				rows.add(mapper.map(cursor.next()));
+			}
+			metrics.record(query, System.nanoTime() - startTime, rows.size(), false);
+			if(debug)
+				logger.info("[SQL] Successfully executed async query \"" + query + "\", mapped " + rows.size() + " rows (" + LatencyHistogram.format(System.nanoTime() - startTime) + ")");
+			return rows;
+		}
+		catch(SQLException e){
+			metrics.record(query, System.nanoTime() - startTime, rows.size(), true);
+			if(debug)
+				logger.info("[SQL] Failed to execute async query \"" + query + "\" (" + LatencyHistogram.format(System.nanoTime() - startTime) + ")");
+			throw e;
+		}
+		finally{
+			if(running != null)
+				running.set(null);
+			if(cursor != null)
+				cursor.close();
+		}
+	}
+	
+	/**
+	 * Sends a query statement to the SQL server, mapping each row of its
+	 * result to an object, and caches the result. Until the result expires,
+	 * running the same query with the same arguments and mapper is answered
+	 * from the cache without touching the server. A cached result is thrown out
+	 * early as soon as {@link #executeCommand(String, Object...)} or an async
+	 * command writes to one of the tables it reads from. Arguments are handled
+	 * the same as with {@link #executeQuery(String, Object...)}.
+	 * <p>
+	 * If the result cache is turned off (see {@link #setResultCacheSize(int)}),
+	 * or the query is one whose tables it can't pick out (see
+	 * {@link ResultCache#isCacheable(String)}), this always queries the
+	 * server. Mappers are compared by identity, so reuse the same mapper
+	 * instance for the same query.
+	 * 
+	 * @param query a query
+	 * @param ttl how long the result may be cached, in milliseconds
+	 * @param mapper a mapper to turn each row into an object
+	 * @param args arguments for the query
+	 * @return the mapped rows as an unmodifiable list, or null if something went
+	 *         wrong
+	 */
+	public <T> List<T> cachedQuery(String query, long ttl, RowMapper<T> mapper, Object... args){
+		if(isEmpty(query))
+			return null;
+		ResultCache cache = resultCache;
+		long[] snapshot = null;
+		if(cache != null){
+			List<T> rows = cache.get(query, args, mapper);
+			if(rows != null)
+				return rows;
+			snapshot = cache.snapshot(query);
+		}
+		try{
+			List<T> rows = mapQuery(query, mapper, null, args);
+			if(cache != null)
+				cache.put(query, args, mapper, rows, ttl, snapshot);
+			return Collections.unmodifiableList(rows);
+		}
+		catch(Exception e){
 			if(!suppressErrors)
 				e.printStackTrace();
 			return null;
@@ -222,7 +1147,11 @@ public class SQLWrapper{
 	 * Safely transforms a {@link ResultSet} (returned by
 	 * {@link #executeQuery(String, Object...)}) into list of mappings, where
 	 * each entry in the list represents, in order, the rows in the result set
-	 * and the maps relate column name to data content.
+	 * and the maps relate column name to data content. The result set is
+	 * closed once it has been read.
+	 * <p>
+	 * This copies the entire result into memory. For large results, use
+	 * {@link #streamQuery(String, RowHandler, Object...)} instead.
 	 * 
 	 * @param rs a result set
 	 * @param columnNames the names of the columns to get
@@ -241,6 +1170,15 @@ public class SQLWrapper{
 		catch(Exception e){
 			e.printStackTrace();
 		}
+		finally{
+			try{
+				if(rs != null)
+					rs.close();
+			}
+			catch(SQLException e){
+				e.printStackTrace();
+			}
+		}
 		return transform;
 	}
 	
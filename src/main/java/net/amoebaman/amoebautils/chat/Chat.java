@@ -3,14 +3,16 @@ package net.amoebaman.amoebautils.chat;
 import java.util.List;
 
 import net.amoebaman.amoebautils.AmoebaUtils;
-import net.amoebaman.amoebautils.nms.ReflectionUtil;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.DyeColor;
+import org.bukkit.World;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 
+import com.google.common.base.Predicate;
+
 /**
  * This class contains utilities for working with Minecraft's chat system, to
  * make pretty and understandable text easier to code.
@@ -23,8 +25,40 @@ import org.bukkit.entity.Player;
  */
 public class Chat {
 	
-	private static Class<?> nmsPacketPlayOutChat = ReflectionUtil.getNMSClass("PacketPlayOutChat");
-    private static Class<?> nmsChatSerializer = ReflectionUtil.getNMSClass("IChatBaseComponent$ChatSerializer");
+	/*
+	 * Worked out once, rather than looking up the packet classes and methods for every message
+	 */
+	private static volatile ChatTransport transport;
+	static{
+		try{
+			transport = new PacketTransport();
+		}
+		catch(Exception e){
+			transport = new SpigotTransport();
+		}
+	}
+	
+	/**
+	 * Sets how JSON messages are delivered to players. By default they're
+	 * sent as packets through a {@link PacketTransport}, or through a
+	 * {@link SpigotTransport} if the server's internals can't be found.
+	 * 
+	 * @param transport the transport
+	 */
+	public static void setTransport(ChatTransport transport){
+		if(transport == null)
+			throw new IllegalArgumentException("transport must not be null");
+		Chat.transport = transport;
+	}
+	
+	/**
+	 * Gets the transport JSON messages are delivered to players with.
+	 * 
+	 * @return the transport
+	 */
+	public static ChatTransport getTransport(){
+		return transport;
+	}
 	
 	/**
 	 * Sends a message, or many messages, to the player (or console). Various
@@ -36,9 +70,10 @@ public class Chat {
 	 * {@link AmoebaUtils#expand(Object...)}, ensuring no containers or arrays will be sent
 	 * directly, but that their contents will be sent individually.
 	 * <p>
-	 * {@link Message}{@code s} using JSON will be parsed out to their JSON plaintext
-	 * and be sent to the player using the proper reflection packet sending to
-	 * ensure the message is fully displayed.
+	 * {@link Message}{@code s} and rendered {@link MessageTemplate}{@code s}
+	 * using JSON will be parsed out to their JSON plaintext
+	 * and be sent to the player through the {@link ChatTransport} to ensure
+	 * the message is fully displayed.
 	 * <p>
 	 * Any other {@link Object}{@code s} will be displayed to the player using
 	 * {@link String#valueOf(Object)}. For {@link String}{@code s} and
@@ -50,34 +85,147 @@ public class Chat {
 	 */
 	public static void send(CommandSender receiver, Object... messages){
 		for(Object message : AmoebaUtils.expand(messages))
-			if(message instanceof Message && ((Message) message).usesJson())
+			if(usesJson(message))
 				if(receiver instanceof Player){
+					ChatTransport transport = Chat.transport;
 					try{
-						Object connection = ReflectionUtil.getField(ReflectionUtil.getHandle(receiver).getClass(), "playerConnection").get(ReflectionUtil.getHandle(receiver));
-						Object packet = nmsPacketPlayOutChat.getConstructor(ReflectionUtil.getNMSClass("IChatBaseComponent")).newInstance(ReflectionUtil.getMethod(nmsChatSerializer, "a", String.class).invoke(null, message.toString()));
-						ReflectionUtil.getMethod(connection.getClass(), "sendPacket").invoke(connection, packet);
+						transport.send((Player) receiver, transport.prepare(message.toString()));
 					}
 					catch(Exception e){
-						receiver.sendMessage(((Message) message).getText());
+						receiver.sendMessage(getText(message));
 						e.printStackTrace();
 					}
 				}
 				else
-					receiver.sendMessage(((Message) message).getText());
+					receiver.sendMessage(getText(message));
 			else
 				receiver.sendMessage(String.valueOf(message));
 	}
 	
+	private static boolean usesJson(Object message){
+		if(message instanceof Message)
+			return ((Message) message).usesJson();
+		if(message instanceof MessageTemplate.Rendered)
+			return ((MessageTemplate.Rendered) message).usesJson();
+		return false;
+	}
+	
+	private static String getText(Object message){
+		if(message instanceof Message)
+			return ((Message) message).getText();
+		if(message instanceof MessageTemplate.Rendered)
+			return ((MessageTemplate.Rendered) message).getText();
+		return String.valueOf(message);
+	}
+	
 	/**
 	 * Sends a message, or many messages to all players on the server and the
 	 * console. See {@link Chat#send(CommandSender, Object...)}
+	 * <p>
+	 * The messages are expanded, serialized and prepared by the
+	 * {@link ChatTransport} only once, and the same prepared messages are then
+	 * sent to every player.
 	 * 
 	 * @param messages some messages
 	 */
 	public static void broadcast(Object... messages){
+		Prepared prepared = new Prepared(messages);
+		for(Player player : Bukkit.getOnlinePlayers())
+			prepared.send(player);
+		prepared.send(Bukkit.getConsoleSender());
+	}
+	
+	/**
+	 * Sends a message, or many messages to the players on the server that
+	 * match a filter, such as {@link #hasPermission(String)} or
+	 * {@link #inWorld(World)}. The messages are prepared only once, as with
+	 * {@link #broadcast(Object...)}, however many players they go to. The
+	 * console doesn't get them.
+	 * 
+	 * @param recipients the filter players must match to get the messages
+	 * @param messages some messages
+	 */
+	public static void broadcastTo(Predicate<? super Player> recipients, Object... messages){
+		Prepared prepared = new Prepared(messages);
 		for(Player player : Bukkit.getOnlinePlayers())
-			send(player, messages);
-		send(Bukkit.getConsoleSender(), messages);
+			if(recipients.apply(player))
+				prepared.send(player);
+	}
+	
+	/**
+	 * Gets a filter for {@link #broadcastTo(Predicate, Object...)} matching
+	 * players with a permission.
+	 * 
+	 * @param permission a permission node
+	 * @return the filter
+	 */
+	public static Predicate<Player> hasPermission(final String permission){
+		return new Predicate<Player>(){
+			
+			public boolean apply(Player player){
+				return player.hasPermission(permission);
+			}
+		};
+	}
+	
+	/**
+	 * Gets a filter for {@link #broadcastTo(Predicate, Object...)} matching
+	 * players in a world.
+	 * 
+	 * @param world a world
+	 * @return the filter
+	 */
+	public static Predicate<Player> inWorld(final World world){
+		return new Predicate<Player>(){
+			
+			public boolean apply(Player player){
+				return world.equals(player.getWorld());
+			}
+		};
+	}
+	
+	/*
+	 * Messages expanded and prepared for sending once, to be sent to any number of receivers
+	 */
+	private static class Prepared{
+		
+		private final ChatTransport transport = Chat.transport;
+		private final Object[] packets;
+		private final String[] texts;
+		
+		public Prepared(Object... messages){
+			List<Object> expanded = AmoebaUtils.expand(messages);
+			packets = new Object[expanded.size()];
+			texts = new String[expanded.size()];
+			for(int i = 0; i < texts.length; i++){
+				Object message = expanded.get(i);
+				if(usesJson(message)){
+					texts[i] = getText(message);
+					try{
+						packets[i] = transport.prepare(message.toString());
+					}
+					catch(Exception e){
+						e.printStackTrace();
+					}
+				}
+				else
+					texts[i] = String.valueOf(message);
+			}
+		}
+		
+		public void send(CommandSender receiver){
+			for(int i = 0; i < texts.length; i++)
+				if(packets[i] != null && receiver instanceof Player)
+					try{
+						transport.send((Player) receiver, packets[i]);
+					}
+					catch(Exception e){
+						receiver.sendMessage(texts[i]);
+						e.printStackTrace();
+					}
+				else
+					receiver.sendMessage(texts[i]);
+		}
 	}
 	
 	/**
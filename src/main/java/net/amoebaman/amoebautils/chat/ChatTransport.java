@@ -0,0 +1,37 @@
+package net.amoebaman.amoebautils.chat;
+
+import org.bukkit.entity.Player;
+
+/**
+ * Delivers JSON chat messages to players. Sending is split into two steps so
+ * that the expensive part - parsing the JSON into whatever the server sends
+ * over the wire - happens once per message, however many players it's sent
+ * to. Whatever {@link #prepare(String)} returns must be safe to send to any
+ * number of players, from any thread the server allows chat to be sent from.
+ * <p>
+ * {@link Chat} picks a transport once, when it's loaded, and it can be
+ * replaced with {@link Chat#setTransport(ChatTransport)}.
+ *
+ * @author AmoebaMan
+ */
+public interface ChatTransport{
+	
+	/**
+	 * Prepares a JSON message to be sent.
+	 * 
+	 * @param json the message, in Minecraft's JSON chat format
+	 * @return the prepared message, ready to be sent to players
+	 * @throws Exception if the message can't be prepared
+	 */
+	public Object prepare(String json) throws Exception;
+	
+	/**
+	 * Sends a prepared message to a player.
+	 * 
+	 * @param player the player
+	 * @param prepared a message returned by {@link #prepare(String)}
+	 * @throws Exception if the message can't be sent
+	 */
+	public void send(Player player, Object prepared) throws Exception;
+	
+}
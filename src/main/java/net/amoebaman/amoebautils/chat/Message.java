@@ -1,10 +1,7 @@
 package net.amoebaman.amoebautils.chat;
 
-import java.io.StringWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.bukkit.Achievement;
 import org.bukkit.ChatColor;
@@ -14,7 +11,6 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.entity.EntityType;
 import org.bukkit.inventory.ItemStack;
 
-import net.amoebaman.amoebautils.JsonWriter;
 import net.amoebaman.amoebautils.nms.ReflectionUtil;
 
 /**
@@ -34,11 +30,41 @@ public class Message {
 	private Class<?> obcStatistic = ReflectionUtil.getOBCClass("CraftStatistic");
 	private Class<?> obcItemStack = ReflectionUtil.getOBCClass("inventory.CraftItemStack");
 	
+	/*
+	 * The names of every color and style, as used in JSON, and every style, in order
+	 */
+	private static final String[] names = new String[ChatColor.values().length];
+	private static final ChatColor[] formats;
+	static{
+		List<ChatColor> styles = new ArrayList<ChatColor>();
+		for(ChatColor color : ChatColor.values()){
+			names[color.ordinal()] = color.name().toLowerCase();
+			if(color.isFormat())
+				styles.add(color);
+		}
+		formats = styles.toArray(new ChatColor[styles.size()]);
+		names[ChatColor.MAGIC.ordinal()] = "obfuscated";
+		names[ChatColor.UNDERLINE.ordinal()] = "underlined";
+	}
+	
+	/*
+	 * Each thread renders into its own buffer, so rendering a message only allocates the final string
+	 */
+	private static final int MAX_BUFFER = 8192;
+	private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>(){
+		
+		protected StringBuilder initialValue(){
+			return new StringBuilder(256);
+		}
+	};
+	
 	protected List<MessagePart> messageParts = new ArrayList<MessagePart>();
 	
 	private Scheme scheme;
-	private String text = "", jsonText = "";
-	private boolean written = false, jsonWritten = false;
+	/*
+	 * The rendered text and JSON, or null if they need to be rendered again
+	 */
+	private String text = null, jsonText = null;
 	private boolean usesJson = false;
 	
 	/**
@@ -70,6 +96,7 @@ public class Message {
 	 */
 	public Message then(Object text) {
 		messageParts.add(new MessagePart(String.valueOf(text.toString())));
+		changed();
 		if(scheme != null)
 			format(scheme.normal);
 		return this;
@@ -105,7 +132,7 @@ public class Message {
 		if (color != null && !color.isColor())
 			return this;
 		latest().color = color;
-		written = false;
+		changed();
 		return this;
 	}
 	
@@ -119,8 +146,8 @@ public class Message {
 	public Message style(ChatColor... styles){
 		for(ChatColor style : styles)
 			if(style.isFormat())
-				latest().styles.put(style, true);
-		written = false;
+				latest().styles |= 1 << style.ordinal();
+		changed();
 		return this;
 	}
 	
@@ -332,45 +359,40 @@ public class Message {
 		return this;
 	}
 	
+	/*
+	 * Item NBT, which is only quoted where it has to be - the lore lines, and nowhere else
+	 */
 	protected String makeMultilineTooltip(String... lines) {
-		String fbdn = "\"";
-		String escSeq = "\\\"";
-		String metaEsc = String.valueOf((char) 128);
-		
-		StringWriter str = new StringWriter();
-		JsonWriter json = new JsonWriter(str);
-		try {
-			json.beginObject();
-			json.name("id").value(1);
-			json.name("tag").beginObject();
-			json.name("display").beginObject();
-			json.name("Name").value(ChatColor.RESET + lines[0]);
-			json.name("Lore").beginArray();
-			for (int i = 1; i < lines.length; i++)
-				json.value(lines[i].isEmpty() ? ChatColor.RESET.toString() : metaEsc + lines[i] + metaEsc);
-			json.endArray().endObject().endObject().endObject();
-		}
-		catch (Exception e) {
-			e.printStackTrace();
+		StringBuilder nbt = new StringBuilder("{id:1,tag:{display:{Name:");
+		nbt.append(ChatColor.RESET).append(lines[0].replace("\"", "")).append(",Lore:[");
+		for (int i = 1; i < lines.length; i++) {
+			if (i > 1)
+				nbt.append(',');
+			if (lines[i].isEmpty())
+				nbt.append(ChatColor.RESET);
+			else
+				nbt.append('"').append(lines[i].replace("\"", "")).append('"');
 		}
-		String result = str.toString();
-		try{ json.close(); }
-		catch(Exception e){ e.printStackTrace(); }
-		return result.replace(fbdn, "").replace(metaEsc, escSeq);
+		return nbt.append("]}}}").toString();
 	}
 	
 	protected void onClick(String name, String data) {
 		latest().clickActionName = name;
 		latest().clickActionData = data;
 		usesJson = true;
-		jsonWritten = false;
+		changed();
 	}
 	
 	protected void onHover(String name, String data) {
 		latest().hoverActionName = name;
 		latest().hoverActionData = data;
 		usesJson = true;
-		jsonWritten = false;
+		changed();
+	}
+	
+	private void changed() {
+		text = null;
+		jsonText = null;
 	}
 	
 	/**
@@ -379,60 +401,134 @@ public class Message {
 	 * @return the message in full text
 	 */
 	public String getText(){
-		if(written && text != null)
+		String text = this.text;
+		if(text != null)
 			return text;
 		
-		String str = "";
-		for(MessagePart part : messageParts){
-			if(part.color != null)
-				str += part.color;
-			if(part.styles != null)
-				for(ChatColor style : part.styles.keySet())
-					if(part.styles.get(style))
-						str += style;
-			str += part.text;
-		}
-		if(scheme != null)
-			str += scheme.suffix;
-		
-		text = str;
-		if(scheme != null)
-			text = scheme.prefix + text + scheme.suffix;
-		written = true;
-		return text;
+		StringBuilder str = buffer();
+		if(scheme != null && scheme.prefix != null)
+			str.append(scheme.prefix);
+		for(MessagePart part : messageParts)
+			part.writeText(str);
+		if(scheme != null && scheme.suffix != null)
+			str.append(scheme.suffix);
+		return this.text = str.toString();
 	}
 	
 	/**
 	 * Writes this message to a JSON-formated string, fully compliant with
 	 * Minecraft's advanced text formatting, ready to be used.
+	 * <p>
+	 * The message is written as an array whose first element is the scheme's
+	 * prefix (or an empty string), so that the parts, which the client treats
+	 * as its children, don't pick up formatting from one another.
 	 * @return the json translation
 	 */
 	public String getJson() {
-		if (written && jsonWritten && jsonText != null)
+		String jsonText = this.jsonText;
+		if (jsonText != null)
 			return jsonText;
 		
-		getText();
-		
-		StringWriter str = new StringWriter();
-		JsonWriter json = new JsonWriter(str);
-		try {
-			json.beginArray();
-			for (MessagePart part : messageParts)
-				part.writeJson(json);
-			json.endArray();
+		StringBuilder json = buffer();
+		json.append('[');
+		quote(json, scheme != null && scheme.prefix != null ? scheme.prefix : "", false);
+		for (MessagePart part : messageParts) {
+			json.append(',');
+			part.writeJson(json);
 		}
-		catch (Exception e) {
-			e.printStackTrace();
+		if (scheme != null && scheme.suffix != null && !scheme.suffix.isEmpty()) {
+			json.append(',');
+			quote(json, scheme.suffix, false);
 		}
-		jsonText = str.toString().replace(String.valueOf((char) 128), "\\\"");
-		if(scheme != null)
-			jsonText = scheme.prefix + jsonText + scheme.suffix;
-		jsonWritten = true;
-		return jsonText;
+		json.append(']');
+		return this.jsonText = json.toString();
 	}
 	
+	/*
+	 * The calling thread's buffer, emptied - only to be used for one string at a time
+	 */
+	static StringBuilder buffer(){
+		StringBuilder buffer = buffers.get();
+		/*
+		 * Don't hang on to a huge buffer for the life of the thread just because one message was huge
+		 */
+		if(buffer.capacity() > MAX_BUFFER){
+			buffer = new StringBuilder(256);
+			buffers.set(buffer);
+		}
+		buffer.setLength(0);
+		return buffer;
+	}
+	
+	/**
+	 * Writes a string to a JSON buffer as a quoted, escaped JSON string.
+	 * @param json the buffer
+	 * @param value the string
+	 * @param quotesEscaped whether quotes in the string may already be
+	 *            escaped with a backslash, as in click and hover data, in which
+	 *            case they're written as quotes rather than as a backslash and a quote
+	 */
+	static void quote(StringBuilder json, String value, boolean quotesEscaped){
+		json.append('"');
+		escape(json, value, quotesEscaped);
+		json.append('"');
+	}
+	
+	/**
+	 * Writes a string to a JSON buffer, escaped to go inside a JSON string.
+	 * @param json the buffer
+	 * @param value the string
+	 * @param quotesEscaped see {@link #quote(StringBuilder, String, boolean)}
+	 */
+	static void escape(StringBuilder json, String value, boolean quotesEscaped){
+		int start = 0, length = value.length();
+		for(int i = 0; i < length; i++){
+			char c = value.charAt(i);
+			String escape;
+			switch(c){
+				case '"': escape = "\\\""; break;
+				case '\\':
+					if(quotesEscaped && i + 1 < length && value.charAt(i + 1) == '"'){
+						json.append(value, start, i).append("\\\"");
+						start = ++i + 1;
+						continue;
+					}
+					escape = "\\\\";
+					break;
+				case '\n': escape = "\\n"; break;
+				case '\r': escape = "\\r"; break;
+				case '\t': escape = "\\t"; break;
+				case '\b': escape = "\\b"; break;
+				case '\f': escape = "\\f"; break;
+				default:
+					if(c >= ' ' && c != '\u2028' && c != '\u2029')
+						continue;
+					escape = null;
+			}
+			json.append(value, start, i);
+			if(escape != null)
+				json.append(escape);
+			else
+				json.append("\\u").append(HEX[c >> 12 & 0xF]).append(HEX[c >> 8 & 0xF]).append(HEX[c >> 4 & 0xF]).append(HEX[c & 0xF]);
+			start = i + 1;
+		}
+		json.append(value, start, length);
+	}
+	
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
 	public boolean usesJson(){ return usesJson; }
 	
+	/**
+	 * Compiles this message into a template, with placeholders like
+	 * <code>{0}</code>, <code>{1}</code> and so on in its text, click actions
+	 * and tooltips to be filled in each time it's used. Changing this message
+	 * afterwards doesn't change the template.
+	 * @return the template
+	 * @see MessageTemplate
+	 */
+	public MessageTemplate compile(){ return new MessageTemplate(this); }
+	
 	public String toString(){ return usesJson ? getJson() : getText(); }
 	
 	protected MessagePart latest() {
@@ -449,37 +545,57 @@ public class Message {
 		
 		private String text;
 		private ChatColor color;
-		private Map<ChatColor, Boolean> styles;
+		/*
+		 * One bit for each style, by its ordinal
+		 */
+		private int styles;
 		private String clickActionName = null, clickActionData = null, hoverActionName = null, hoverActionData = null;
 		
 		public MessagePart(String text){
 			this.text = text;
 			color = ChatColor.RESET;
-			styles = new HashMap<ChatColor, Boolean>();
-			for(ChatColor style : ChatColor.values())
-				if(style.isFormat())
-					styles.put(style, false);
 		}
 		
-		private JsonWriter writeJson(JsonWriter json){
-			try{
-				json.beginObject();
-				json.name("text").value(text);
-				if(color != null)
-					json.name("color").value(color.name().toLowerCase());
-				if(styles != null)
-					for(ChatColor style : styles.keySet())
-						json.name(style.name().toLowerCase()).value(styles.get(style));
-				if(clickActionName != null && clickActionData != null)
-					json.name("clickEvent").beginObject().name("action").value(clickActionName).name("value").value(clickActionData.replace("\\\"", String.valueOf((char) 128))).endObject();
-				if(hoverActionName != null && hoverActionData != null)
-					json.name("hoverEvent").beginObject().name("action").value(hoverActionName).name("value").value(hoverActionData.replace("\\\"", String.valueOf((char) 128))).endObject();
-				json.endObject();
-			}
-			catch(Exception e){
-				e.printStackTrace();
-			}
-			return json;
+		private boolean hasStyle(ChatColor style){
+			return (styles & 1 << style.ordinal()) != 0;
+		}
+		
+		private void writeText(StringBuilder str){
+			if(color != null)
+				str.append(color);
+			if(styles != 0)
+				for(ChatColor style : formats)
+					if(hasStyle(style))
+						str.append(style);
+			str.append(text);
+		}
+		
+		private void writeJson(StringBuilder json){
+			json.append("{\"text\":");
+			quote(json, text, false);
+			/*
+			 * Parts are siblings under an unformatted root, so they don't inherit anything from one another,
+			 * and anything left unset is already the default - there's no need to write reset colors or false styles
+			 */
+			if(color != null && color != ChatColor.RESET)
+				json.append(",\"color\":\"").append(names[color.ordinal()]).append('"');
+			if(styles != 0)
+				for(ChatColor style : formats)
+					if(hasStyle(style))
+						json.append(",\"").append(names[style.ordinal()]).append("\":true");
+			if(clickActionName != null && clickActionData != null)
+				writeEvent(json, "clickEvent", clickActionName, clickActionData);
+			if(hoverActionName != null && hoverActionData != null)
+				writeEvent(json, "hoverEvent", hoverActionName, hoverActionData);
+			json.append('}');
+		}
+		
+		private static void writeEvent(StringBuilder json, String event, String action, String value){
+			json.append(",\"").append(event).append("\":{\"action\":");
+			quote(json, action, false);
+			json.append(",\"value\":");
+			quote(json, value, true);
+			json.append('}');
 		}
 	}
 	
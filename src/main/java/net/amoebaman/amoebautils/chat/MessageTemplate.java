@@ -0,0 +1,246 @@
+package net.amoebaman.amoebautils.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bukkit.command.CommandSender;
+
+/**
+ * A {@link Message} compiled once, with placeholders to fill in each time
+ * it's sent. Placeholders are written <code>{0}</code>, <code>{1}</code> and
+ * so on, anywhere in the message's text, click actions or tooltips, and are
+ * filled in by position from the arguments to {@link #render(Object...)}.
+ * <p>
+ * The message's JSON and text are written when the template is compiled,
+ * and split into fragments around the placeholders, so rendering the
+ * template is just a matter of splicing the arguments in between them.
+ * Arguments are escaped for JSON as they're spliced in - twice over in the
+ * lore of a multi-line tooltip, which is a string in the item's NBT, which is
+ * itself a string in the JSON. Placeholders with no argument are left as they
+ * are.
+ * <p>
+ * Templates are immutable, and can be shared freely between threads.
+ *
+ * <pre>
+ * MessageTemplate joined = new Message(Scheme.NORMAL).then("{0}").strong().then(" joined the game").compile();
+ * ...
+ * joined.broadcast(player.getName());
+ * </pre>
+ *
+ * @author AmoebaMan
+ */
+public final class MessageTemplate{
+	
+	private final boolean usesJson;
+	/*
+	 * The fragments of each form between the placeholders, and which argument goes after each fragment but the last
+	 */
+	private final String[] jsonFragments, textFragments;
+	private final int[] jsonSlots, textSlots;
+	/*
+	 * How many times over the argument after each JSON fragment has to be escaped
+	 */
+	private final int[] jsonDepths;
+	
+	MessageTemplate(Message message){
+		usesJson = message.usesJson();
+		
+		List<String> fragments = new ArrayList<String>();
+		List<Integer> slots = new ArrayList<Integer>(), offsets = new ArrayList<Integer>();
+		String json = message.getJson();
+		split(json, fragments, slots, offsets);
+		jsonFragments = fragments.toArray(new String[fragments.size()]);
+		jsonSlots = toArray(slots);
+		jsonDepths = depths(json, offsets);
+		
+		fragments.clear();
+		slots.clear();
+		offsets.clear();
+		split(message.getText(), fragments, slots, offsets);
+		textFragments = fragments.toArray(new String[fragments.size()]);
+		textSlots = toArray(slots);
+	}
+	
+	/**
+	 * Fills in this template's placeholders.
+	 * 
+	 * @param args the arguments, converted to strings with
+	 *            {@link String#valueOf(Object)}
+	 * @return the filled-in message, ready to be sent
+	 */
+	public Rendered render(Object... args){
+		String[] strings = new String[args.length];
+		for(int i = 0; i < args.length; i++)
+			strings[i] = String.valueOf(args[i]);
+		return new Rendered(strings);
+	}
+	
+	/**
+	 * Fills in this template's placeholders and sends the result to a player
+	 * (or console). See {@link Chat#send(CommandSender, Object...)}.
+	 * 
+	 * @param receiver the recipient
+	 * @param args the arguments
+	 */
+	public void send(CommandSender receiver, Object... args){
+		Chat.send(receiver, render(args));
+	}
+	
+	/**
+	 * Fills in this template's placeholders and broadcasts the result. See
+	 * {@link Chat#broadcast(Object...)}.
+	 * 
+	 * @param args the arguments
+	 */
+	public void broadcast(Object... args){
+		Chat.broadcast(render(args));
+	}
+	
+	/** @return whether messages from this template use JSON */
+	public boolean usesJson(){ return usesJson; }
+	
+	/*
+	 * Placeholders are only ever braces around digits, which JSON's own braces never are
+	 */
+	private static void split(String rendered, List<String> fragments, List<Integer> slots, List<Integer> offsets){
+		int start = 0;
+		for(int open = rendered.indexOf('{'); open >= 0; open = rendered.indexOf('{', open + 1)){
+			int close = open + 1, slot = 0;
+			while(close < rendered.length() && close - open <= 4 && Character.isDigit(rendered.charAt(close)))
+				slot = slot * 10 + rendered.charAt(close++) - '0';
+			if(close == open + 1 || close >= rendered.length() || rendered.charAt(close) != '}')
+				continue;
+			fragments.add(rendered.substring(start, open));
+			slots.add(slot);
+			offsets.add(open);
+			start = close + 1;
+		}
+		fragments.add(rendered.substring(start));
+	}
+	
+	/*
+	 * Walks the JSON keeping track of whether it's in a string, and if that string is the item NBT of a show_item
+	 * tooltip, whether it's in a string in the NBT as well
+	 */
+	private static int[] depths(String json, List<Integer> offsets){
+		int[] depths = new int[offsets.size()];
+		int next = 0;
+		boolean inString = false, nbt = false, inNbtString = false, nbtEscaped = false;
+		String key = null, action = null;
+		StringBuilder string = new StringBuilder();
+		for(int i = 0; i < json.length() && next < depths.length; i++){
+			if(offsets.get(next) == i)
+				depths[next++] = !inString ? 0 : inNbtString ? 2 : 1;
+			char c = json.charAt(i);
+			if(!inString){
+				if(c == '"'){
+					inString = true;
+					nbt = previous(json, i) == ':' && "value".equals(key) && "show_item".equals(action);
+					string.setLength(0);
+				}
+				continue;
+			}
+			if(c == '"'){
+				inString = false;
+				inNbtString = nbtEscaped = false;
+				if(following(json, i) == ':')
+					key = string.toString();
+				else if("action".equals(key))
+					action = string.toString();
+				continue;
+			}
+			/*
+			 * The NBT only cares about quotes and backslashes, so other escapes can stand for anything else
+			 */
+			if(c == '\\')
+				c = ++i < json.length() && (json.charAt(i) == '"' || json.charAt(i) == '\\') ? json.charAt(i) : ' ';
+			string.append(c);
+			if(!nbt)
+				continue;
+			if(nbtEscaped)
+				nbtEscaped = false;
+			else if(inNbtString && c == '\\')
+				nbtEscaped = true;
+			else if(c == '"')
+				inNbtString = !inNbtString;
+		}
+		return depths;
+	}
+	
+	private static char previous(String json, int index){
+		while(--index >= 0 && Character.isWhitespace(json.charAt(index)));
+		return index >= 0 ? json.charAt(index) : 0;
+	}
+	
+	private static char following(String json, int index){
+		while(++index < json.length() && Character.isWhitespace(json.charAt(index)));
+		return index < json.length() ? json.charAt(index) : 0;
+	}
+	
+	private static int[] toArray(List<Integer> list){
+		int[] array = new int[list.size()];
+		for(int i = 0; i < array.length; i++)
+			array[i] = list.get(i);
+		return array;
+	}
+	
+	/*
+	 * Text has no depths, and its arguments are never escaped
+	 */
+	private static String splice(String[] fragments, int[] slots, int[] depths, String[] args){
+		StringBuilder str = Message.buffer();
+		for(int i = 0; i < slots.length; i++){
+			str.append(fragments[i]);
+			int slot = slots[i], depth = depths == null ? 0 : depths[i];
+			if(slot >= args.length)
+				str.append('{').append(slot).append('}');
+			else if(depth > 1)
+				Message.escape(str, escapeNbt(args[slot]), false);
+			else if(depth == 1)
+				Message.escape(str, args[slot], false);
+			else
+				str.append(args[slot]);
+		}
+		return str.append(fragments[slots.length]).toString();
+	}
+	
+	/*
+	 * A quoted NBT string only understands escaped quotes and backslashes, so nothing else is escaped
+	 */
+	private static String escapeNbt(String value){
+		if(value.indexOf('"') < 0 && value.indexOf('\\') < 0)
+			return value;
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+	
+	/**
+	 * A {@link MessageTemplate} with its placeholders filled in. It can be
+	 * sent like a {@link Message}, with {@link Chat}, and is just as
+	 * immutable as its template.
+	 * 
+	 * @author AmoebaMan
+	 */
+	public final class Rendered{
+		
+		private final String[] args;
+		
+		private Rendered(String[] args){
+			this.args = args;
+		}
+		
+		/** @return the template this message was rendered from */
+		public MessageTemplate getTemplate(){ return MessageTemplate.this; }
+		
+		/** @return the message in full text */
+		public String getText(){ return splice(textFragments, textSlots, null, args); }
+		
+		/** @return the message in Minecraft's JSON chat format */
+		public String getJson(){ return splice(jsonFragments, jsonSlots, jsonDepths, args); }
+		
+		/** @return whether this message uses JSON */
+		public boolean usesJson(){ return usesJson; }
+		
+		public String toString(){ return usesJson ? getJson() : getText(); }
+	}
+	
+}
@@ -0,0 +1,51 @@
+package net.amoebaman.amoebautils.chat;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import net.amoebaman.amoebautils.nms.ReflectionUtil;
+
+import org.bukkit.entity.Player;
+
+/**
+ * Sends JSON messages as chat packets written straight to each player's
+ * connection, through CraftBukkit's internals. Every class, method and field
+ * involved is looked up once, when the transport is constructed, so preparing
+ * a message is one JSON parse and one packet, and sending it is three
+ * reflective calls with no searching.
+ *
+ * @author AmoebaMan
+ */
+public class PacketTransport implements ChatTransport{
+	
+	private final Method getHandle, serialize, sendPacket;
+	private final Field playerConnection;
+	private final Constructor<?> packet;
+	
+	/**
+	 * Constructs a packet transport for the running server version.
+	 * 
+	 * @throws Exception if the server's internals aren't what they're
+	 *             expected to be
+	 */
+	public PacketTransport() throws Exception{
+		getHandle = ReflectionUtil.getOBCClass("entity.CraftPlayer").getMethod("getHandle");
+		playerConnection = ReflectionUtil.getNMSClass("EntityPlayer").getField("playerConnection");
+		sendPacket = ReflectionUtil.getNMSClass("PlayerConnection").getMethod("sendPacket", ReflectionUtil.getNMSClass("Packet"));
+		serialize = ReflectionUtil.getNMSClass("IChatBaseComponent$ChatSerializer").getMethod("a", String.class);
+		packet = ReflectionUtil.getNMSClass("PacketPlayOutChat").getConstructor(ReflectionUtil.getNMSClass("IChatBaseComponent"));
+	}
+	
+	/*
+	 * The packet only holds the parsed component, which is never changed, so one packet can go to everybody
+	 */
+	public Object prepare(String json) throws Exception{
+		return packet.newInstance(serialize.invoke(null, json));
+	}
+	
+	public void send(Player player, Object prepared) throws Exception{
+		sendPacket.invoke(playerConnection.get(getHandle.invoke(player)), prepared);
+	}
+	
+}
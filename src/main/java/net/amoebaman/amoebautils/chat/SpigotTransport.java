@@ -0,0 +1,25 @@
+package net.amoebaman.amoebautils.chat;
+
+import net.md_5.bungee.api.chat.BaseComponent;
+import net.md_5.bungee.chat.ComponentSerializer;
+
+import org.bukkit.entity.Player;
+
+/**
+ * Sends JSON messages through the Spigot API's chat components, with no
+ * reflection at all. This is what {@link Chat} falls back to when the
+ * server's internals can't be found for a {@link PacketTransport}.
+ *
+ * @author AmoebaMan
+ */
+public class SpigotTransport implements ChatTransport{
+	
+	public Object prepare(String json){
+		return ComponentSerializer.parse(json);
+	}
+	
+	public void send(Player player, Object prepared){
+		player.spigot().sendMessage((BaseComponent[]) prepared);
+	}
+	
+}
@@ -0,0 +1,109 @@
+package net.amoebaman.amoebautils.command;
+
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.amoebaman.amoebautils.CommandController.CommandHandler;
+
+import org.bukkit.command.PluginCommand;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * A single {@link CommandHandler} method, along with everything worked out about it when it was registered.
+ */
+class AnnotatedPluginCommand{
+	
+	public final Object instance;
+	public final Method method;
+	public final Class<?> senderType;
+	public final Signature signature;
+	public final Invoker invoker;
+	public final HandlerStats stats;
+	public final boolean async;
+	public final long timeout;
+	public final RateLimiter limiter;
+	public final Plugin plugin;
+	public final String[] primaryIdentifier;
+	public final Set<String[]> identifiers;
+	public final String[] permissions;
+	public final PermissionSet permissionSet;
+	public final String permissionsMessage;
+	
+	/**
+	 * Constructs an AnnotatedPluginCommand containing all the information necessary to
+	 * run the command via the CommandController.  This will also pull all information
+	 * specified in the CommandHandler interface and assign it to the actual plugin command
+	 * at the root of this AnnotatedPluginCommand.  The command isn't linked into the trie here, that's up to
+	 * whoever is registering it.
+	 * @param instance
+	 * @param method
+	 * @param registry the registry the command is being registered with
+	 * @param roots the Bukkit commands already looked up in this batch of registrations
+	 */
+	public AnnotatedPluginCommand(Object instance, Method method, CommandRegistry registry, Map<String, PluginCommand> roots){
+		this.instance = instance;
+		this.method = method;
+		if(instance == null || method == null)
+			throw new IllegalArgumentException("instance and method must not be null");
+		if(!method.getDeclaringClass().isInstance(instance))
+			throw new IllegalArgumentException("instance and method must be part of the same class");
+		
+		CommandHandler annot = method.getAnnotation(CommandHandler.class);
+		if(annot == null)
+			throw new IllegalArgumentException("command method must be annotated with @CommandHandler");
+		
+		identifiers = new HashSet<String[]>();
+		if(annot.cmd().trim().isEmpty())
+			throw new IllegalArgumentException("command method must have a valid base command");
+		primaryIdentifier = annot.cmd().split(" ");
+		identifiers.add(primaryIdentifier);
+		
+		signature = new Signature(method, primaryIdentifier);
+		senderType = method.getParameterTypes()[0];
+		stats = new HandlerStats(annot.cmd(), instance.getClass().getSimpleName() + "." + method.getName());
+		invoker = new Invoker(instance, method, stats);
+		async = annot.async();
+		timeout = annot.timeout();
+		if(annot.cooldown() < 0 || annot.burst() < 1)
+			throw new IllegalArgumentException("cooldown must not be negative, and burst must be positive");
+		limiter = annot.cooldown() > 0 ? new RateLimiter(annot.cooldown(), annot.burst()) : null;
+		
+		for(String alias : annot.aliases())
+			if(!alias.trim().isEmpty())
+				identifiers.add(alias.split(" "));
+		
+		Set<String[]> invalid = new HashSet<String[]>();
+		Plugin owner = null;
+		for(String[] id : identifiers){
+			PluginCommand cmd = registry.resolveRoot(id[0], roots);
+			if(cmd == null)
+				invalid.add(id);
+			/*
+			 * Async results are delivered through the scheduler of whichever plugin owns the command
+			 */
+			else if(owner == null)
+				owner = cmd.getPlugin();
+		}
+		identifiers.removeAll(invalid);
+		plugin = owner;
+		
+		permissions = annot.permissions();
+		permissionSet = PermissionSet.resolve(permissions, annot.permissionSets());
+		permissionsMessage = annot.permissionMessage();
+	}
+	
+	/**
+	 * Gets the class of the type of sender that this command needs to be passed to function.
+	 * This is determined when the command is registered, by the first parameter type of the method.
+	 * Any class assignable from this class can be used to run the command, so using a
+	 * <code>CommandSender</code> as the first parameter would allow <i>any</i> sender to run
+	 * the command.
+	 * @return the necessary sender class
+	 */
+	public Class<?> getSenderType(){
+		return senderType;
+	}
+	
+}
@@ -0,0 +1,15 @@
+package net.amoebaman.amoebautils.command;
+
+/**
+ * Thrown by {@link ArgumentParser}s when an argument isn't valid.  The message is shown to the sender, followed by
+ * the command's usage.
+ * 
+ * @author AmoebaMan
+ */
+@SuppressWarnings("serial")
+public class ArgumentException extends Exception{
+	
+	public ArgumentException(String message){
+		super(message);
+	}
+}
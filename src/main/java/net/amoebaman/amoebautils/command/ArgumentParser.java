@@ -0,0 +1,22 @@
+package net.amoebaman.amoebautils.command;
+
+import org.bukkit.command.CommandSender;
+
+/**
+ * Parses a single command argument into a handler parameter.  Parsers are looked up by parameter type once, when a
+ * handler is registered, so dispatch only runs the parsers themselves.
+ * 
+ * @author AmoebaMan
+ * @param <T> the type of value the parser produces
+ */
+public interface ArgumentParser<T>{
+	
+	/**
+	 * Parses an argument.
+	 * @param sender the sender of the command
+	 * @param arg the argument
+	 * @return the value of the argument, never null
+	 * @throws ArgumentException if the argument isn't valid, with a message for the sender explaining why
+	 */
+	public T parse(CommandSender sender, String arg) throws ArgumentException;
+}
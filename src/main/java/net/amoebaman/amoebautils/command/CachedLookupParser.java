@@ -0,0 +1,49 @@
+package net.amoebaman.amoebautils.command;
+
+import java.lang.ref.WeakReference;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.command.CommandSender;
+
+/**
+ * Parses arguments by looking them up, caching the results for a tick.  Lookups like players and worlds search the
+ * server, so if the same name comes up several times in a tick (or in one command), the search only happens once.
+ * The cache is only cleared by the next parse after the tick is up, so it holds what it found weakly - a player who
+ * logs out or a world that's unloaded isn't kept around by a parser nobody has used since.
+ */
+abstract class CachedLookupParser<T> implements ArgumentParser<T>{
+	
+	private static final long TICK = TimeUnit.MILLISECONDS.toNanos(50);
+	
+	private final String error;
+	private final TreeMap<String, WeakReference<T>> cache = new TreeMap<String, WeakReference<T>>(String.CASE_INSENSITIVE_ORDER);
+	private long expires = System.nanoTime();
+	
+	public CachedLookupParser(String error){
+		this.error = error;
+	}
+	
+	protected abstract T lookup(String arg);
+	
+	protected boolean isValid(T value){
+		return true;
+	}
+	
+	public synchronized T parse(CommandSender sender, String arg) throws ArgumentException{
+		long now = System.nanoTime();
+		if(now - expires >= 0){
+			cache.clear();
+			expires = now + TICK;
+		}
+		WeakReference<T> cached = cache.get(arg);
+		T value = cached == null ? null : cached.get();
+		if(value == null || !isValid(value)){
+			value = lookup(arg);
+			if(value == null)
+				throw new ArgumentException(String.format(error, arg));
+			cache.put(arg, new WeakReference<T>(value));
+		}
+		return value;
+	}
+}
@@ -0,0 +1,107 @@
+package net.amoebaman.amoebautils.command;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+/**
+ * The results of a player's permission checks, cached for a moment since some permission plugins turn each one into a
+ * real lookup.  Each player's results are thrown out together once they're a TTL old.  Other senders aren't cached:
+ * the console and command blocks have nothing to tell them apart by but their names, which every command block shares.
+ * 
+ * @author AmoebaMan
+ */
+public class CachedPermissions{
+	
+	private final static ConcurrentMap<UUID, CachedPermissions> cache = new ConcurrentHashMap<UUID, CachedPermissions>();
+	private static volatile long ttl = TimeUnit.SECONDS.toNanos(2);
+	
+	/*
+	 * A player who logs back in is a new Player with the same ID, and shouldn't inherit the old results - but the cache
+	 * mustn't keep the old one from being collected in the meantime
+	 */
+	private final WeakReference<Player> player;
+	private final long expires;
+	private final ConcurrentMap<PermissionSet, Boolean> results = new ConcurrentHashMap<PermissionSet, Boolean>();
+	
+	private CachedPermissions(Player player, long expires){
+		this.player = new WeakReference<Player>(player);
+		this.expires = expires;
+	}
+	
+	/**
+	 * Sets how long the results of permission checks are cached for each sender.
+	 * @param millis how long results are cached in milliseconds, or 0 to not cache them at all
+	 */
+	public static void setTtl(long millis){
+		if(millis < 0)
+			throw new IllegalArgumentException("the permission cache TTL must not be negative");
+		ttl = TimeUnit.MILLISECONDS.toNanos(millis);
+		if(millis == 0)
+			cache.clear();
+	}
+	
+	/**
+	 * Throws out the cached results of a sender's permission checks.
+	 * @param sender the sender
+	 */
+	public static void invalidate(CommandSender sender){
+		if(sender instanceof Player)
+			cache.remove(((Player) sender).getUniqueId());
+	}
+	
+	/**
+	 * Throws out the cached results of every sender's permission checks.
+	 */
+	public static void invalidateAll(){
+		cache.clear();
+	}
+	
+	/**
+	 * Checks whether the sender has every permission in a set, as of at most one TTL ago if the sender is a player.
+	 * @param sender the sender
+	 * @param set the permissions, or null if there are none
+	 * @return true if the sender has them all
+	 */
+	static boolean test(CommandSender sender, PermissionSet set){
+		if(set == null)
+			return true;
+		long ttl = CachedPermissions.ttl;
+		if(ttl <= 0 || !(sender instanceof Player))
+			return set.test(sender);
+		Player player = (Player) sender;
+		UUID id = player.getUniqueId();
+		long now = System.nanoTime();
+		CachedPermissions cached = cache.get(id);
+		if(cached == null || cached.player.get() != player || now - cached.expires >= 0){
+			cached = new CachedPermissions(player, now + ttl);
+			cache.put(id, cached);
+			Housekeeping.start();
+		}
+		Boolean result = cached.results.get(set);
+		if(result == null)
+			cached.results.put(set, result = set.test(sender));
+		return result;
+	}
+	
+	/**
+	 * Throws out every player's results that are past their TTL, or whose player is gone.
+	 */
+	static void expire(){
+		long now = System.nanoTime();
+		for(Map.Entry<UUID, CachedPermissions> entry : cache.entrySet())
+			if(now - entry.getValue().expires >= 0 || entry.getValue().player.get() == null)
+				cache.remove(entry.getKey(), entry.getValue());
+	}
+	
+	static int size(){
+		return cache.size();
+	}
+	
+}
@@ -0,0 +1,92 @@
+package net.amoebaman.amoebautils.command;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+
+/**
+ * Tab-completes commands from the handlers in a {@link CommandRegistry}, walking the same trie that
+ * {@link CommandDispatcher} does.
+ * 
+ * @author AmoebaMan
+ */
+public class CommandCompleter{
+	
+	private final CommandRegistry registry;
+	
+	/*
+	 * The most completions offered at once, any more than a screenful is just noise
+	 */
+	private volatile int maxSuggestions = 50;
+	
+	public CommandCompleter(CommandRegistry registry){
+		this.registry = registry;
+	}
+	
+	/**
+	 * Sets the most completions offered to a sender at once.  The default is 50.
+	 * @param max the maximum number of completions
+	 */
+	public void setMaxSuggestions(int max){
+		if(max < 1)
+			throw new IllegalArgumentException("at least one suggestion must be allowed");
+		maxSuggestions = max;
+	}
+	
+	/**
+	 * Completes the last argument as the sender types it, with whichever subcommands the sender may use at that point,
+	 * followed by whatever the deepest matching handler's parameter at that position suggests.
+	 * @param sender the sender typing the command
+	 * @param command the Bukkit command
+	 * @param args the arguments typed so far, the last of which is being completed
+	 * @return the completions
+	 */
+	public List<String> complete(CommandSender sender, Command command, String[] args){
+		if(args.length == 0)
+			return Collections.emptyList();
+		/*
+		 * Walk down the trie through every finished arg, remembering the deepest command we pass
+		 */
+		int last = args.length - 1;
+		CommandNode match = registry.getCommands().children.get(command.getName());
+		AnnotatedPluginCommand theCmd = match == null ? null : match.command;
+		int depth = 0;
+		for(int i = 0; match != null && i < last; i++){
+			match = match.children.get(args[i]);
+			if(match != null && match.command != null){
+				theCmd = match.command;
+				depth = i + 1;
+			}
+		}
+		String prefix = args[last];
+		int limit = maxSuggestions;
+		List<String> completions = new ArrayList<String>();
+		/*
+		 * The children are sorted the same way we match prefixes, so the ones that match are all in a row
+		 */
+		if(match != null)
+			for(Map.Entry<String, CommandNode> child : match.children.tailMap(prefix, true).entrySet()){
+				if(completions.size() >= limit || !StaticSuggestions.startsWith(child.getKey(), prefix))
+					break;
+				AnnotatedPluginCommand cmd = child.getValue().command;
+				if(cmd == null || (cmd.getSenderType().isAssignableFrom(sender.getClass()) && CachedPermissions.test(sender, cmd.permissionSet)))
+					completions.add(child.getKey());
+			}
+		/*
+		 * Then whatever the command's parameter in this position suggests, if the sender could use it
+		 */
+		if(theCmd != null && completions.size() < limit && theCmd.getSenderType().isAssignableFrom(sender.getClass()) && CachedPermissions.test(sender, theCmd.permissionSet)){
+			SuggestionProvider provider = theCmd.signature.getSuggestions(last - depth);
+			if(provider != null)
+				for(String suggestion : provider.suggest(sender, prefix, limit - completions.size()))
+					if(completions.size() < limit)
+						completions.add(suggestion);
+		}
+		return completions;
+	}
+	
+}
@@ -0,0 +1,231 @@
+package net.amoebaman.amoebautils.command;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.amoebaman.amoebautils.chat.Chat;
+import net.amoebaman.amoebautils.plugin.MainThread;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs commands through the handlers in a {@link CommandRegistry}: finds the handler, checks the sender, their
+ * permissions and their cooldown, parses the arguments, and calls the handler, on the spot or on a pool of worker
+ * threads for async handlers.
+ * 
+ * @author AmoebaMan
+ */
+public class CommandDispatcher{
+	
+	private final CommandRegistry registry;
+	
+	/*
+	 * Async handlers run on a bounded pool, created the first time one is needed
+	 */
+	private ListeningExecutorService asyncPool = null;
+	private int asyncThreads = Math.max(2, Runtime.getRuntime().availableProcessors()), asyncQueueCapacity = 100;
+	private volatile int asyncPerSender = 1;
+	private final ConcurrentMap<String, AtomicInteger> asyncRunning = new ConcurrentHashMap<String, AtomicInteger>();
+	
+	public CommandDispatcher(CommandRegistry registry){
+		this.registry = registry;
+	}
+	
+	/**
+	 * Runs a command through whichever handler its arguments lead to.
+	 * @param sender the sender of the command
+	 * @param command the Bukkit command
+	 * @param args the arguments
+	 * @return false if no handler matched or the handler failed, true otherwise
+	 */
+	public boolean dispatch(CommandSender sender, Command command, String[] args){
+		
+		/*
+		 * Walk down the trie as far as the args will take us, remembering the deepest command we pass
+		 */
+		CommandNode match = registry.getCommands().children.get(command.getName());
+		AnnotatedPluginCommand theCmd = match == null ? null : match.command;
+		int depth = 0;
+		for(int i = 0; match != null && i < args.length; i++){
+			match = match.children.get(args[i]);
+			if(match != null && match.command != null){
+				theCmd = match.command;
+				depth = i + 1;
+			}
+		}
+		/*
+		 * Make sure the command isn't null, we might have been passed the command
+		 * because a subcommand was registered but not super-command was
+		 */
+		if(theCmd == null)
+			return false;
+		/*
+		 * Verify that the correct sender was used
+		 */
+		if(!theCmd.getSenderType().isAssignableFrom(sender.getClass())){
+			sender.sendMessage(ChatColor.RED + "This command must be sent by a " + theCmd.getSenderType().getSimpleName());
+			return true;
+		}
+		/*
+		 * Make sure the sender has permissions
+		 */
+		if(!CachedPermissions.test(sender, theCmd.permissionSet)){
+			sender.sendMessage(ChatColor.translateAlternateColorCodes('&', theCmd.permissionsMessage));
+			return true;
+		}
+		/*
+		 * Make sure the sender isn't using the command too often
+		 */
+		if(theCmd.limiter != null && sender instanceof Player){
+			long wait = theCmd.limiter.acquire(((Player) sender).getUniqueId());
+			if(wait > 0){
+				long seconds = (wait + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+				sender.sendMessage(ChatColor.RED + "You must wait " + seconds + (seconds == 1 ? " second" : " seconds") + " before using that command again");
+				return true;
+			}
+		}
+		/*
+		 * Trim down the args and parse them into the handler's parameters
+		 */
+		String[] newArgs = depth == 0 ? args : Arrays.copyOfRange(args, depth, args.length);
+		Object[] params;
+		try{
+			params = theCmd.signature.parse(sender, newArgs);
+		}
+		catch(ArgumentException e){
+			sender.sendMessage(ChatColor.RED + e.getMessage());
+			sender.sendMessage(ChatColor.RED + "Usage: " + theCmd.signature.usage);
+			return true;
+		}
+		/*
+		 * Try to process the command
+		 */
+		if(theCmd.async){
+			dispatchAsync(theCmd, sender, params);
+			return true;
+		}
+		try {
+			Object result = theCmd.invoker.invoke(params);
+			if(result != null)
+				Chat.send(sender, result);
+			return true;
+		}
+		catch (Exception e) {
+			sender.sendMessage(ChatColor.RED + "An internal error occurred while attempting to perform this command");
+			e.printStackTrace();
+		}
+		
+		return false;
+		
+	}
+	
+	/**
+	 * Sets the limits for async command handlers: how many worker threads run them, how many may be waiting for a thread
+	 * before senders are told the server is too busy, and how many each sender may have running (or waiting) at once.  The
+	 * pool is replaced, letting the handlers already running on the old one finish.
+	 * @param threads the number of worker threads
+	 * @param queueCapacity the number of handlers that may wait for a thread
+	 * @param perSender the number of handlers each sender may have running at once
+	 */
+	public synchronized void setAsyncLimits(int threads, int queueCapacity, int perSender){
+		if(threads < 1 || queueCapacity < 0 || perSender < 1)
+			throw new IllegalArgumentException("async limits must be positive");
+		asyncThreads = threads;
+		asyncQueueCapacity = queueCapacity;
+		asyncPerSender = perSender;
+		if(asyncPool != null){
+			asyncPool.shutdown();
+			asyncPool = null;
+		}
+	}
+	
+	private synchronized ListeningExecutorService getAsyncPool(){
+		if(asyncPool == null){
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(Math.max(1, asyncQueueCapacity)), new ThreadFactoryBuilder().setNameFormat("Command-Worker-%d").setDaemon(true).build());
+			executor.allowCoreThreadTimeOut(true);
+			asyncPool = MoreExecutors.listeningDecorator(executor);
+		}
+		return asyncPool;
+	}
+	
+	/*
+	 * Runs an async handler on the worker pool, and sends its result back on the main thread
+	 */
+	private void dispatchAsync(final AnnotatedPluginCommand cmd, final CommandSender sender, final Object[] params){
+		final String key = sender.getName();
+		AtomicInteger running = asyncRunning.get(key);
+		if(running == null){
+			asyncRunning.putIfAbsent(key, new AtomicInteger());
+			running = asyncRunning.get(key);
+		}
+		if(running.incrementAndGet() > asyncPerSender){
+			finishAsync(key, running);
+			sender.sendMessage(ChatColor.RED + "You already have a command running, wait for it to finish");
+			return;
+		}
+		
+		ListenableFuture<Object> future;
+		try{
+			future = getAsyncPool().submit(new Callable<Object>(){
+				
+				public Object call() throws Exception{
+					return cmd.invoker.invoke(params);
+				}
+			});
+		}
+		catch(RejectedExecutionException e){
+			finishAsync(key, running);
+			sender.sendMessage(ChatColor.RED + "The server is too busy to run that command right now, try again in a moment");
+			return;
+		}
+		/*
+		 * The timeout interrupts the handler as well as failing the future
+		 */
+		future = Futures.withTimeout(future, cmd.timeout, TimeUnit.MILLISECONDS, Housekeeping.getTimer());
+		
+		final AtomicInteger counter = running;
+		Futures.addCallback(future, new FutureCallback<Object>(){
+			
+			public void onSuccess(Object result){
+				finishAsync(key, counter);
+				if(result != null)
+					Chat.send(sender, result);
+			}
+			
+			public void onFailure(Throwable t){
+				finishAsync(key, counter);
+				if(t instanceof TimeoutException)
+					sender.sendMessage(ChatColor.RED + "That command took too long and was cancelled");
+				else if(!(t instanceof CancellationException)){
+					sender.sendMessage(ChatColor.RED + "An internal error occurred while attempting to perform this command");
+					t.printStackTrace();
+				}
+			}
+		}, MainThread.executor(cmd.plugin));
+	}
+	
+	private void finishAsync(String key, AtomicInteger running){
+		if(running.decrementAndGet() <= 0)
+			asyncRunning.remove(key, running);
+	}
+	
+}
@@ -0,0 +1,42 @@
+package net.amoebaman.amoebautils.command;
+
+import java.util.TreeMap;
+
+/**
+ * A node in the trie of command identifiers. Each level down matches one more token of the command, case-insensitively,
+ * so finding the handler for a command takes one lookup per token no matter how many handlers are registered.  Nodes are
+ * only changed while a new trie is being built, before it's published.
+ */
+class CommandNode{
+	
+	/*
+	 * A case-insensitive tree map can look up tokens without lower-casing (and so copying) them first
+	 */
+	public final TreeMap<String, CommandNode> children = new TreeMap<String, CommandNode>(String.CASE_INSENSITIVE_ORDER);
+	public AnnotatedPluginCommand command;
+	public boolean primary;
+	
+	/**
+	 * Links a command to an identifier, creating nodes along the way as needed.  An identifier that is some other command's
+	 * primary identifier won't be taken over by an alias.
+	 * @param id the identifier tokens
+	 * @param command the command
+	 * @param primary whether the identifier is the command's primary identifier, as opposed to an alias
+	 */
+	public void insert(String[] id, AnnotatedPluginCommand command, boolean primary){
+		CommandNode node = this;
+		for(String token : id){
+			CommandNode child = node.children.get(token);
+			if(child == null){
+				child = new CommandNode();
+				node.children.put(token, child);
+			}
+			node = child;
+		}
+		if(node.command == null || primary || !node.primary){
+			node.command = command;
+			node.primary = primary;
+		}
+	}
+	
+}
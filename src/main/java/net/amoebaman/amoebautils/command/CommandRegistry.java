@@ -0,0 +1,300 @@
+package net.amoebaman.amoebautils.command;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import net.amoebaman.amoebautils.CommandController.CommandHandler;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.command.TabCompleter;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Keeps every registered {@link CommandHandler} and the trie of identifiers that dispatch walks to find them.  The trie
+ * is never changed once it's published: registering or unregistering builds a new one and swaps it in all at once, so
+ * dispatch reads whichever trie is current without locking, never waits on a swap, and never sees a trie half built.
+ * 
+ * @author AmoebaMan
+ */
+public class CommandRegistry{
+	
+	private final CommandExecutor executor;
+	private final TabCompleter completer;
+	
+	/*
+	 * The root's children are keyed by Bukkit command name, every level below by subcommand
+	 */
+	private volatile CommandNode commands = new CommandNode();
+	
+	/*
+	 * Every registered handler in the order they were registered, swapped along with the trie
+	 */
+	private volatile List<AnnotatedPluginCommand> handlers = Collections.emptyList();
+	
+	/**
+	 * Creates an empty registry.
+	 * @param executor the executor that every Bukkit command with a handler is handed over to
+	 * @param completer the tab completer that every Bukkit command with a handler is handed over to
+	 */
+	public CommandRegistry(CommandExecutor executor, TabCompleter completer){
+		this.executor = executor;
+		this.completer = completer;
+	}
+	
+	/**
+	 * Registers all {@link CommandHandler}{@code s} within many objects at once.  Each Bukkit command is only looked up and
+	 * linked to the executor once, however many handlers and aliases share it.
+	 * @param handlers instances of the classes to register
+	 */
+	public void registerAll(Collection<?> handlers){
+		List<Object> instances = new ArrayList<Object>();
+		List<List<Method>> methods = new ArrayList<List<Method>>();
+		for(Object handler : handlers){
+			instances.add(handler);
+			methods.add(getHandlerMethods(handler.getClass()));
+		}
+		register(instances, methods);
+	}
+	
+	/**
+	 * Registers all {@link CommandHandler}{@code s} within some classes, creating an instance of each class that has any.
+	 * A class is created with a constructor that takes the plugin if it has one, or with no arguments otherwise, and the
+	 * plugin itself is used for its own class.  Abstract classes, inner classes and classes without handlers are skipped.
+	 * @param plugin the plugin the classes belong to
+	 * @param classes the classes to register
+	 */
+	public void registerClasses(Plugin plugin, Collection<? extends Class<?>> classes){
+		List<Object> instances = new ArrayList<Object>();
+		List<List<Method>> methods = new ArrayList<List<Method>>();
+		for(Class<?> type : classes){
+			if(type.isInterface() || Modifier.isAbstract(type.getModifiers()))
+				continue;
+			/*
+			 * Inner classes need an instance of their outer class, which there's no way to come up with
+			 */
+			if(type.getEnclosingClass() != null && !Modifier.isStatic(type.getModifiers()))
+				continue;
+			List<Method> handlerMethods = getHandlerMethods(type);
+			if(handlerMethods.isEmpty())
+				continue;
+			try{
+				instances.add(type.isInstance(plugin) ? plugin : instantiate(type, plugin));
+				methods.add(handlerMethods);
+			}
+			catch(Exception e){
+				Logger.getLogger("minecraft").warning("[CommandController] Unable to create command handler " + type.getName() + ": " + e);
+			}
+		}
+		register(instances, methods);
+	}
+	
+	/**
+	 * Unregisters every {@link CommandHandler} within an object.
+	 * @param handler an instance that was registered
+	 * @return the number of handlers unregistered
+	 */
+	public int unregister(Object handler){
+		Set<AnnotatedPluginCommand> removed = new HashSet<AnnotatedPluginCommand>();
+		for(AnnotatedPluginCommand cmd : handlers)
+			if(cmd.instance == handler)
+				removed.add(cmd);
+		if(!removed.isEmpty())
+			swap(removed, Collections.<AnnotatedPluginCommand>emptyList());
+		return removed.size();
+	}
+	
+	/**
+	 * Unregisters every {@link CommandHandler} belonging to a plugin: those on commands the plugin owns, and those within
+	 * objects the plugin loaded.
+	 * @param plugin the plugin
+	 * @return the number of handlers unregistered
+	 */
+	public int unregisterAll(Plugin plugin){
+		Set<AnnotatedPluginCommand> removed = new HashSet<AnnotatedPluginCommand>();
+		for(AnnotatedPluginCommand cmd : handlers)
+			if(cmd.plugin == plugin || cmd.instance.getClass().getClassLoader() == plugin.getClass().getClassLoader())
+				removed.add(cmd);
+		if(!removed.isEmpty())
+			swap(removed, Collections.<AnnotatedPluginCommand>emptyList());
+		return removed.size();
+	}
+	
+	/**
+	 * Replaces the {@link CommandHandler}{@code s} within one object with those within another, all at once.
+	 * @param oldHandler an instance that was registered
+	 * @param newHandler an instance to register in its place
+	 */
+	public void reload(Object oldHandler, Object newHandler){
+		List<AnnotatedPluginCommand> added = build(Collections.singletonList(newHandler), Collections.singletonList(getHandlerMethods(newHandler.getClass())));
+		/*
+		 * Gathered under the same lock as the swap, so nothing registered in between is missed
+		 */
+		synchronized(this){
+			Set<AnnotatedPluginCommand> removed = new HashSet<AnnotatedPluginCommand>();
+			for(AnnotatedPluginCommand cmd : handlers)
+				if(cmd.instance == oldHandler)
+					removed.add(cmd);
+			swap(removed, added);
+		}
+	}
+	
+	/**
+	 * Gets the execution metrics of every registered handler, ordered by the total time spent in them, most first.
+	 * @return the metrics of each handler
+	 */
+	public List<HandlerStats> getStats(){
+		List<HandlerStats> stats = new ArrayList<HandlerStats>();
+		for(AnnotatedPluginCommand cmd : handlers)
+			stats.add(cmd.stats);
+		Collections.sort(stats, new Comparator<HandlerStats>(){
+			
+			public int compare(HandlerStats a, HandlerStats b){
+				long x = a.getLatency().getTotal(), y = b.getLatency().getTotal();
+				return x > y ? -1 : x < y ? 1 : 0;
+			}
+		});
+		return stats;
+	}
+	
+	/**
+	 * Gets the execution metrics of the handler for a command.
+	 * @param command the handler's primary command, without the slash, ignoring case
+	 * @return the metrics, or null if no handler has that primary command
+	 */
+	public HandlerStats getStats(String command){
+		for(AnnotatedPluginCommand cmd : handlers)
+			if(cmd.stats.getCommand().equalsIgnoreCase(command))
+				return cmd.stats;
+		return null;
+	}
+	
+	/**
+	 * Clears the execution metrics of every registered handler.
+	 */
+	public void resetStats(){
+		for(AnnotatedPluginCommand cmd : handlers)
+			cmd.stats.reset();
+	}
+	
+	/**
+	 * Gets the Bukkit command a handler's identifier starts with.
+	 * @param name the name or alias of the command
+	 * @return the command, or null if no Bukkit command is registered with that name
+	 */
+	protected PluginCommand getPluginCommand(String name){
+		return Bukkit.getPluginCommand(name);
+	}
+	
+	CommandNode getCommands(){
+		return commands;
+	}
+	
+	List<AnnotatedPluginCommand> getHandlers(){
+		return handlers;
+	}
+	
+	/*
+	 * Looks up a Bukkit command and hands it over to the executor, once per batch of handlers
+	 */
+	PluginCommand resolveRoot(String name, Map<String, PluginCommand> roots){
+		if(roots.containsKey(name))
+			return roots.get(name);
+		PluginCommand cmd = getPluginCommand(name);
+		if(cmd == null)
+			Logger.getLogger("minecraft").warning("[CommandController] Unable to register command with root identifier (or alias) " + name + ": no Bukkit command is registered with that name");
+		else{
+			cmd.setExecutor(executor);
+			cmd.setTabCompleter(completer);
+		}
+		roots.put(name, cmd);
+		return cmd;
+	}
+	
+	private static Object instantiate(Class<?> type, Plugin plugin) throws Exception{
+		for(Constructor<?> constructor : type.getDeclaredConstructors())
+			if(constructor.getParameterTypes().length == 1 && constructor.getParameterTypes()[0].isInstance(plugin)){
+				constructor.setAccessible(true);
+				return constructor.newInstance(plugin);
+			}
+		Constructor<?> constructor = type.getDeclaredConstructor();
+		constructor.setAccessible(true);
+		return constructor.newInstance();
+	}
+	
+	private static List<Method> getHandlerMethods(Class<?> type){
+		List<Method> methods = new ArrayList<Method>();
+		for(Method method : type.getMethods())
+			if(method.isAnnotationPresent(CommandHandler.class))
+				methods.add(method);
+		return methods;
+	}
+	
+	/*
+	 * Builds every handler first, then links them all in, looking up each Bukkit command only once along the way
+	 */
+	private void register(List<Object> instances, List<List<Method>> methods){
+		swap(Collections.<AnnotatedPluginCommand>emptySet(), build(instances, methods));
+	}
+	
+	private List<AnnotatedPluginCommand> build(List<Object> instances, List<List<Method>> methods){
+		Map<String, PluginCommand> roots = new TreeMap<String, PluginCommand>(String.CASE_INSENSITIVE_ORDER);
+		List<AnnotatedPluginCommand> created = new ArrayList<AnnotatedPluginCommand>();
+		for(int i = 0; i < instances.size(); i++)
+			for(Method method : methods.get(i))
+				try{
+					AnnotatedPluginCommand cmd = new AnnotatedPluginCommand(instances.get(i), method, this, roots);
+					/*
+					 * A handler without a single Bukkit command to hang off of can never be called, so it isn't kept
+					 */
+					if(!cmd.identifiers.isEmpty())
+						created.add(cmd);
+					else if(cmd.limiter != null)
+						RateLimiter.limiters.remove(cmd.limiter);
+				}
+				catch(IllegalArgumentException e){
+					Logger.getLogger("minecraft").warning("[CommandController] Unable to register command handler " + method.getName() + " in " + instances.get(i).getClass().getName() + ": " + e.getMessage());
+				}
+		return created;
+	}
+	
+	/*
+	 * Builds a new trie with some handlers taken out and others put in, then swaps it in all at once
+	 */
+	private synchronized void swap(Set<AnnotatedPluginCommand> removed, List<AnnotatedPluginCommand> added){
+		List<AnnotatedPluginCommand> all = new ArrayList<AnnotatedPluginCommand>(handlers.size() + added.size());
+		for(AnnotatedPluginCommand cmd : handlers)
+			if(!removed.contains(cmd))
+				all.add(cmd);
+		all.addAll(added);
+		/*
+		 * Primary identifiers first, so they're there to fend off everybody's aliases
+		 */
+		CommandNode root = new CommandNode();
+		for(AnnotatedPluginCommand cmd : all)
+			if(cmd.identifiers.contains(cmd.primaryIdentifier))
+				root.insert(cmd.primaryIdentifier, cmd, true);
+		for(AnnotatedPluginCommand cmd : all)
+			for(String[] id : cmd.identifiers)
+				if(id != cmd.primaryIdentifier)
+					root.insert(id, cmd, false);
+		commands = root;
+		handlers = Collections.unmodifiableList(all);
+		for(AnnotatedPluginCommand cmd : removed)
+			if(cmd.limiter != null)
+				RateLimiter.limiters.remove(cmd.limiter);
+	}
+	
+}
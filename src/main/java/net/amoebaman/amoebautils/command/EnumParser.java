@@ -0,0 +1,29 @@
+package net.amoebaman.amoebautils.command;
+
+import java.util.TreeMap;
+
+import org.bukkit.command.CommandSender;
+
+/**
+ * Parses arguments into the constants of an enum by name, ignoring case and treating spaces and dashes like underscores.
+ */
+class EnumParser<E extends Enum<E>> implements ArgumentParser<E>{
+	
+	private final String name;
+	private final TreeMap<String, E> constants = new TreeMap<String, E>(String.CASE_INSENSITIVE_ORDER);
+	
+	public EnumParser(Class<E> type){
+		name = type.getSimpleName().toLowerCase();
+		for(E constant : type.getEnumConstants())
+			constants.put(constant.name(), constant);
+	}
+	
+	public E parse(CommandSender sender, String arg) throws ArgumentException{
+		E constant = constants.get(arg);
+		if(constant == null)
+			constant = constants.get(arg.replace('-', '_').replace(' ', '_'));
+		if(constant == null)
+			throw new ArgumentException("'" + arg + "' is not a valid " + name);
+		return constant;
+	}
+}
@@ -0,0 +1,51 @@
+package net.amoebaman.amoebautils.command;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.amoebaman.amoebautils.LatencyHistogram;
+
+/**
+ * The execution metrics of a single command handler: how many times it was called, how many of those threw an
+ * exception, and a {@link LatencyHistogram} of how long it took.  Only the handler method itself is timed, not parsing
+ * its arguments or sending whatever it returns.  Recording takes a couple of clock reads and a few atomic increments,
+ * so it's always on.
+ * 
+ * @author AmoebaMan
+ */
+public class HandlerStats{
+	
+	private final String command, handler;
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final AtomicLong errors = new AtomicLong();
+	
+	HandlerStats(String command, String handler){
+		this.command = command;
+		this.handler = handler;
+	}
+	
+	void record(long nanos, boolean failed){
+		latency.record(nanos);
+		if(failed)
+			errors.incrementAndGet();
+	}
+	
+	void reset(){
+		latency.reset();
+		errors.set(0);
+	}
+	
+	/** @return the handler's primary command, without the slash */
+	public String getCommand(){ return command; }
+	/** @return the handler's class and method name */
+	public String getHandler(){ return handler; }
+	/** @return the histogram of how long the handler took, in nanoseconds */
+	public LatencyHistogram getLatency(){ return latency; }
+	/** @return the number of times the handler was called */
+	public long getCount(){ return latency.getCount(); }
+	/** @return the number of times the handler threw an exception */
+	public long getErrorCount(){ return errors.get(); }
+	
+	public String toString(){
+		return "/" + command + ": " + latency.getCount() + "x, " + errors.get() + " failed, total " + LatencyHistogram.format(latency.getTotal()) + ", mean " + LatencyHistogram.format(latency.getMean()) + ", p50 " + LatencyHistogram.format(latency.getPercentile(50)) + ", p99 " + LatencyHistogram.format(latency.getPercentile(99)) + ", max " + LatencyHistogram.format(latency.getMax()) + " (" + handler + ")";
+	}
+}
@@ -0,0 +1,49 @@
+package net.amoebaman.amoebautils.command;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The timer thread shared by the command classes.  It times out async handlers, and every so often throws out rate
+ * limiter buckets and cached permissions that no longer matter, off the main thread.
+ */
+class Housekeeping{
+	
+	private static final long INTERVAL = 60000;
+	
+	private static ScheduledExecutorService timer = null;
+	private static volatile boolean started = false;
+	
+	private Housekeeping(){}
+	
+	static synchronized ScheduledExecutorService getTimer(){
+		if(timer == null)
+			timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("Command-Timer-%d").setDaemon(true).build());
+		return timer;
+	}
+	
+	/*
+	 * Nothing needs sweeping until there's a rate limiter or a cached permission, so the sweeps start with the first one
+	 */
+	static void start(){
+		if(started)
+			return;
+		synchronized(Housekeeping.class){
+			if(started)
+				return;
+			started = true;
+			getTimer().scheduleWithFixedDelay(new Runnable(){
+				
+				public void run(){
+					for(RateLimiter limiter : RateLimiter.limiters)
+						limiter.sweep();
+					CachedPermissions.expire();
+				}
+			}, INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+}
@@ -0,0 +1,81 @@
+package net.amoebaman.amoebautils.command;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Calls a handler method.  Everything about how to call it, including whether it returns something to send back
+ * to the sender, is worked out once when the handler is registered, so dispatch doesn't have to look anything up.
+ */
+class Invoker{
+	
+	private static final MethodType SPREAD = MethodType.methodType(Object.class, Object[].class);
+	
+	private final MethodHandle handle;
+	private final boolean hasResult;
+	private final HandlerStats stats;
+	
+	/**
+	 * Looks up a handle for a handler method, bound to the object it's called on and adapted to take its parameters
+	 * as an array.
+	 * @param instance the object the handler is called on, ignored for static handlers
+	 * @param method the handler
+	 * @param stats the stats to record calls in
+	 * @throws IllegalArgumentException if the handler can't be accessed
+	 */
+	public Invoker(Object instance, Method method, HandlerStats stats){
+		this.stats = stats;
+		hasResult = method.getReturnType() != void.class;
+		try{
+			method.setAccessible(true);
+		}
+		catch(SecurityException e){
+			/*
+			 * Public methods can be looked up without it
+			 */
+		}
+		MethodHandle handle;
+		try{
+			handle = MethodHandles.lookup().unreflect(method);
+		}
+		catch(IllegalAccessException e){
+			throw new IllegalArgumentException("command method " + method.getName() + " can't be accessed", e);
+		}
+		if(!Modifier.isStatic(method.getModifiers()))
+			handle = handle.bindTo(instance);
+		/*
+		 * Void handlers come back as null
+		 */
+		this.handle = handle.asSpreader(Object[].class, method.getParameterTypes().length).asType(SPREAD);
+	}
+	
+	/**
+	 * Calls the handler, recording how long it took in its {@link HandlerStats}.
+	 * @param params the parameters for the handler, as parsed by its {@link Signature}
+	 * @return whatever the handler returned to be sent to the sender, or null if there's nothing to send
+	 * @throws Exception whatever the handler throws
+	 */
+	public Object invoke(Object[] params) throws Exception{
+		Object result;
+		long start = System.nanoTime();
+		boolean failed = true;
+		try{
+			result = (Object) handle.invokeExact(params);
+			failed = false;
+		}
+		catch(Throwable e){
+			Throwables.propagateIfPossible(e, Exception.class);
+			throw new RuntimeException(e);
+		}
+		finally{
+			stats.record(System.nanoTime() - start, failed);
+		}
+		return hasResult ? result : null;
+	}
+	
+}
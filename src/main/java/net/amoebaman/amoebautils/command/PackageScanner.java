@@ -0,0 +1,130 @@
+package net.amoebaman.amoebautils.command;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.logging.Logger;
+
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Finds the classes of a plugin that might hold command handlers, either by reading through the plugin's jar or from
+ * the index written at compile time by {@link net.amoebaman.amoebautils.processor.CommandHandlerProcessor}.  Classes are
+ * loaded without being initialized, so classes without handlers don't run their static blocks for nothing.
+ * <p>
+ * Both ways find top-level classes and static nested classes.  Anonymous and local classes can't hold handlers that
+ * could be registered, so they're never listed, and inner classes are left out of the index and skipped when
+ * registering, since they can't be created without an instance of their outer class.
+ * 
+ * @author AmoebaMan
+ */
+public class PackageScanner{
+	
+	private PackageScanner(){}
+	
+	/**
+	 * Finds every class in a package (and the packages within it) of a plugin's jar.
+	 * @param plugin the plugin
+	 * @param packageName the package to scan
+	 * @return the classes, or null if the jar couldn't be read
+	 */
+	public static List<Class<?>> scanPackage(Plugin plugin, String packageName){
+		String path = packageName.replace('.', '/') + "/";
+		List<String> names = new ArrayList<String>();
+		try{
+			File source = new File(plugin.getClass().getProtectionDomain().getCodeSource().getLocation().toURI());
+			if(source.isDirectory())
+				scanDirectory(new File(source, path), packageName, names);
+			else{
+				JarFile jar = new JarFile(source);
+				try{
+					for(Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements();){
+						String name = entries.nextElement().getName();
+						if(name.startsWith(path) && isNamedClass(name))
+							names.add(name.substring(0, name.length() - 6).replace('/', '.'));
+					}
+				}
+				finally{
+					jar.close();
+				}
+			}
+		}
+		catch(Exception e){
+			Logger.getLogger("minecraft").warning("[CommandController] Unable to scan package " + packageName + " of " + plugin.getName() + ": " + e);
+			return null;
+		}
+		return loadClasses(plugin, names);
+	}
+	
+	/**
+	 * Finds every class listed in a plugin's handler index.
+	 * @param plugin the plugin
+	 * @param index the name of the index resource
+	 * @return the classes, or null if the plugin has no index or it couldn't be read
+	 */
+	public static List<Class<?>> readIndex(Plugin plugin, String index){
+		URL resource = plugin.getClass().getClassLoader().getResource(index);
+		if(resource == null)
+			return null;
+		List<String> names = new ArrayList<String>();
+		try{
+			BufferedReader reader = new BufferedReader(new InputStreamReader(resource.openStream(), "UTF-8"));
+			try{
+				for(String line = reader.readLine(); line != null; line = reader.readLine())
+					if(!line.trim().isEmpty())
+						names.add(line.trim());
+			}
+			finally{
+				reader.close();
+			}
+		}
+		catch(IOException e){
+			Logger.getLogger("minecraft").warning("[CommandController] Unable to read the command handler index of " + plugin.getName() + ": " + e);
+			return null;
+		}
+		return loadClasses(plugin, names);
+	}
+	
+	private static void scanDirectory(File dir, String packageName, List<String> names){
+		File[] files = dir.listFiles();
+		if(files == null)
+			return;
+		for(File file : files)
+			if(file.isDirectory())
+				scanDirectory(file, packageName + "." + file.getName(), names);
+			else if(isNamedClass(file.getName()))
+				names.add(packageName + "." + file.getName().substring(0, file.getName().length() - 6));
+	}
+	
+	/*
+	 * Anonymous and local classes are numbered after the $, nested classes are just named
+	 */
+	private static boolean isNamedClass(String fileName){
+		if(!fileName.endsWith(".class"))
+			return false;
+		for(int i = fileName.indexOf('$'); i >= 0; i = fileName.indexOf('$', i + 1))
+			if(i + 1 < fileName.length() && Character.isDigit(fileName.charAt(i + 1)))
+				return false;
+		return true;
+	}
+	
+	private static List<Class<?>> loadClasses(Plugin plugin, List<String> names){
+		List<Class<?>> classes = new ArrayList<Class<?>>();
+		for(String name : names)
+			try{
+				classes.add(Class.forName(name, false, plugin.getClass().getClassLoader()));
+			}
+			catch(Throwable t){
+				Logger.getLogger("minecraft").warning("[CommandController] Unable to load class " + name + " of " + plugin.getName() + ": " + t);
+			}
+		return classes;
+	}
+	
+}
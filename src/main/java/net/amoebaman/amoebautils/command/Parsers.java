@@ -0,0 +1,226 @@
+package net.amoebaman.amoebautils.command;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+/**
+ * Keeps the {@link ArgumentParser} and {@link SuggestionProvider} for each type of handler parameter, including the
+ * built-in ones for strings, numbers, booleans, online players, worlds, materials and enums.
+ * 
+ * @author AmoebaMan
+ */
+public class Parsers{
+	
+	private final static Map<Class<?>, ArgumentParser<?>> parsers = new HashMap<Class<?>, ArgumentParser<?>>();
+	private final static Map<Class<?>, String> names = new HashMap<Class<?>, String>();
+	private final static Map<Class<?>, SuggestionProvider> suggestions = new HashMap<Class<?>, SuggestionProvider>();
+	
+	private Parsers(){}
+	
+	/**
+	 * Registers a parser for a type of handler parameter along with the provider that suggests completions for it,
+	 * replacing any already registered for it.  Handlers that were registered before the parser won't use either.
+	 * @param type the parameter type
+	 * @param name the name of the type, as shown to senders in the command's usage
+	 * @param parser the parser
+	 * @param provider the suggestion provider, or null to suggest nothing
+	 */
+	public static synchronized <T> void register(Class<T> type, String name, ArgumentParser<? extends T> parser, SuggestionProvider provider){
+		parsers.put(type, parser);
+		names.put(type, name);
+		if(provider == null)
+			suggestions.remove(type);
+		else
+			suggestions.put(type, provider);
+	}
+	
+	/*
+	 * Finds the parser for a parameter type, making one up on the spot for enums
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static synchronized ArgumentParser<?> get(Class<?> type){
+		ArgumentParser<?> parser = parsers.get(type);
+		if(parser == null && type.isEnum()){
+			parsers.put(type, parser = new EnumParser(type));
+			names.put(type, type.getSimpleName().toLowerCase());
+			List<String> constants = new ArrayList<String>();
+			for(Object constant : type.getEnumConstants())
+				constants.add(((Enum<?>) constant).name().toLowerCase());
+			suggestions.put(type, new StaticSuggestions(constants));
+		}
+		if(parser == null)
+			throw new IllegalArgumentException("no argument parser is registered for parameters of type " + type.getName());
+		return parser;
+	}
+	
+	static synchronized String getName(Class<?> type){
+		return names.get(type);
+	}
+	
+	static synchronized SuggestionProvider getSuggestionProvider(Class<?> type){
+		return suggestions.get(type);
+	}
+	
+	/*
+	 * Online players the sender can see - also offered for leftover String[] arguments, like Bukkit would have
+	 */
+	final static SuggestionProvider PLAYERS = new SuggestionProvider(){
+		
+		public List<String> suggest(CommandSender sender, String prefix, int limit){
+			Player viewer = sender instanceof Player ? (Player) sender : null;
+			List<String> names = new ArrayList<String>();
+			for(Player player : Bukkit.getOnlinePlayers())
+				if(StaticSuggestions.startsWith(player.getName(), prefix) && (viewer == null || viewer.canSee(player))){
+					names.add(player.getName());
+					if(names.size() >= limit)
+						break;
+				}
+			Collections.sort(names, String.CASE_INSENSITIVE_ORDER);
+			return names;
+		}
+	};
+	
+	static{
+		ArgumentParser<String> string = new ArgumentParser<String>(){
+			
+			public String parse(CommandSender sender, String arg){
+				return arg;
+			}
+		};
+		register(String.class, "text", string, null);
+		
+		ArgumentParser<Integer> integer = new ArgumentParser<Integer>(){
+			
+			public Integer parse(CommandSender sender, String arg) throws ArgumentException{
+				try{
+					return Integer.parseInt(arg);
+				}
+				catch(NumberFormatException e){
+					throw new ArgumentException("'" + arg + "' is not a whole number");
+				}
+			}
+		};
+		register(int.class, "number", integer, null);
+		register(Integer.class, "number", integer, null);
+		
+		ArgumentParser<Long> longInteger = new ArgumentParser<Long>(){
+			
+			public Long parse(CommandSender sender, String arg) throws ArgumentException{
+				try{
+					return Long.parseLong(arg);
+				}
+				catch(NumberFormatException e){
+					throw new ArgumentException("'" + arg + "' is not a whole number");
+				}
+			}
+		};
+		register(long.class, "number", longInteger, null);
+		register(Long.class, "number", longInteger, null);
+		
+		ArgumentParser<Double> decimal = new ArgumentParser<Double>(){
+			
+			public Double parse(CommandSender sender, String arg) throws ArgumentException{
+				try{
+					double value = Double.parseDouble(arg);
+					if(Double.isNaN(value) || Double.isInfinite(value))
+						throw new NumberFormatException();
+					return value;
+				}
+				catch(NumberFormatException e){
+					throw new ArgumentException("'" + arg + "' is not a number");
+				}
+			}
+		};
+		register(double.class, "number", decimal, null);
+		register(Double.class, "number", decimal, null);
+		
+		ArgumentParser<Float> smallDecimal = new ArgumentParser<Float>(){
+			
+			public Float parse(CommandSender sender, String arg) throws ArgumentException{
+				try{
+					float value = Float.parseFloat(arg);
+					if(Float.isNaN(value) || Float.isInfinite(value))
+						throw new NumberFormatException();
+					return value;
+				}
+				catch(NumberFormatException e){
+					throw new ArgumentException("'" + arg + "' is not a number");
+				}
+			}
+		};
+		register(float.class, "number", smallDecimal, null);
+		register(Float.class, "number", smallDecimal, null);
+		
+		ArgumentParser<Boolean> bool = new ArgumentParser<Boolean>(){
+			
+			public Boolean parse(CommandSender sender, String arg) throws ArgumentException{
+				if(arg.equalsIgnoreCase("true") || arg.equalsIgnoreCase("yes") || arg.equalsIgnoreCase("on"))
+					return true;
+				if(arg.equalsIgnoreCase("false") || arg.equalsIgnoreCase("no") || arg.equalsIgnoreCase("off"))
+					return false;
+				throw new ArgumentException("'" + arg + "' is not true or false");
+			}
+		};
+		SuggestionProvider trueFalse = new StaticSuggestions("true", "false");
+		register(boolean.class, "true/false", bool, trueFalse);
+		register(Boolean.class, "true/false", bool, trueFalse);
+		
+		register(Player.class, "player", new CachedLookupParser<Player>("No player named '%s' is online"){
+			
+			/*
+			 * Bukkit.getPlayer would take the first player whose name starts with the argument, so a typo could pick
+			 * out someone else entirely - names are completed anyway
+			 */
+			protected Player lookup(String arg){
+				return Bukkit.getPlayerExact(arg);
+			}
+			
+			protected boolean isValid(Player player){
+				return player.isOnline();
+			}
+		}, PLAYERS);
+		
+		register(World.class, "world", new CachedLookupParser<World>("No world named '%s' exists"){
+			
+			protected World lookup(String arg){
+				return Bukkit.getWorld(arg);
+			}
+		}, new SuggestionProvider(){
+			
+			public List<String> suggest(CommandSender sender, String prefix, int limit){
+				List<String> names = new ArrayList<String>();
+				for(World world : Bukkit.getWorlds())
+					if(names.size() < limit && StaticSuggestions.startsWith(world.getName(), prefix))
+						names.add(world.getName());
+				return names;
+			}
+		});
+		
+		/*
+		 * Legacy materials still parse, but there's no sense cluttering completions with them
+		 */
+		List<String> materials = new ArrayList<String>();
+		for(Material material : Material.values())
+			if(!material.isLegacy())
+				materials.add(material.name().toLowerCase());
+		register(Material.class, "material", new ArgumentParser<Material>(){
+			
+			public Material parse(CommandSender sender, String arg) throws ArgumentException{
+				Material material = Material.matchMaterial(arg);
+				if(material == null)
+					throw new ArgumentException("'" + arg + "' is not a material");
+				return material;
+			}
+		}, new StaticSuggestions(materials));
+	}
+	
+}
@@ -0,0 +1,94 @@
+package net.amoebaman.amoebautils.command;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bukkit.command.CommandSender;
+
+/**
+ * A set of permissions that a command requires all of.  Sets are interned, so every handler that requires the same
+ * permissions (in any order) shares one set, and a sender's cached result for it - checking a command is one lookup in
+ * the sender's cache no matter how many permissions it requires.
+ * <p>
+ * Sets can also be given names, so handlers can require them by name instead of repeating the same permissions.  A
+ * handler's named sets and permissions are resolved into one set when it's registered.
+ * 
+ * @author AmoebaMan
+ */
+public class PermissionSet{
+	
+	private final static ConcurrentMap<String, PermissionSet> interned = new ConcurrentHashMap<String, PermissionSet>();
+	private final static ConcurrentMap<String, PermissionSet> named = new ConcurrentHashMap<String, PermissionSet>();
+	private final static PermissionSet EMPTY = new PermissionSet(new String[0]);
+	
+	private final String[] nodes;
+	
+	private PermissionSet(String[] nodes){
+		this.nodes = nodes;
+	}
+	
+	/**
+	 * Gives a set of permissions a name.  Handlers registered afterwards can require the set by name, those already
+	 * registered keep whatever permissions the name stood for when they were registered.
+	 * @param name the name
+	 * @param nodes the permissions
+	 */
+	public static void define(String name, String... nodes){
+		if(name == null || name.trim().isEmpty())
+			throw new IllegalArgumentException("a permission set needs a name");
+		PermissionSet set = resolve(nodes);
+		named.put(name.trim(), set == null ? EMPTY : set);
+	}
+	
+	/**
+	 * Resolves a handler's permissions into a set.
+	 * @param nodes the permissions
+	 * @return the set, or null if there are no permissions to check
+	 */
+	static PermissionSet resolve(String[] nodes){
+		return resolve(nodes, new String[0]);
+	}
+	
+	/**
+	 * Resolves a handler's permissions and named sets into one set.
+	 * @param nodes the permissions
+	 * @param names the names of sets whose permissions are also required, as given to {@link #define(String, String...)}
+	 * @return the set, or null if there are no permissions to check
+	 * @throws IllegalArgumentException if a name hasn't been defined
+	 */
+	static PermissionSet resolve(String[] nodes, String[] names){
+		TreeSet<String> sorted = new TreeSet<String>();
+		for(String node : nodes)
+			if(!node.trim().isEmpty())
+				sorted.add(node.trim());
+		for(String name : names){
+			PermissionSet set = named.get(name.trim());
+			if(set == null)
+				throw new IllegalArgumentException("no permission set is named \"" + name + "\"");
+			sorted.addAll(Arrays.asList(set.nodes));
+		}
+		if(sorted.isEmpty())
+			return null;
+		String key = sorted.toString();
+		PermissionSet set = interned.get(key);
+		if(set == null){
+			interned.putIfAbsent(key, new PermissionSet(sorted.toArray(new String[sorted.size()])));
+			set = interned.get(key);
+		}
+		return set;
+	}
+	
+	/**
+	 * Checks the permissions against the sender, without the cache.
+	 * @param sender the sender
+	 * @return true if the sender has every permission in the set
+	 */
+	boolean test(CommandSender sender){
+		for(String node : nodes)
+			if(!sender.hasPermission(node))
+				return false;
+		return true;
+	}
+}
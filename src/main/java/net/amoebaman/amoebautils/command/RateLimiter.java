@@ -0,0 +1,93 @@
+package net.amoebaman.amoebautils.command;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.amoebaman.amoebautils.CommandController.CommandHandler;
+
+/**
+ * Limits how often each player may use a command, with a token bucket per player: the bucket holds up to
+ * {@link CommandHandler#burst()} uses, and refills one every {@link CommandHandler#cooldown()}.  A bucket is nothing but
+ * the time at which it will be full again, updated by compare-and-set, so checking one never blocks.
+ * <br><br>
+ * A bucket that has filled back up is no different from having no bucket at all, so every so often the timer thread
+ * throws those out.  That way the buckets of players who have left go away on their own, without anyone having to
+ * listen for them leaving.
+ */
+class RateLimiter{
+	
+	/*
+	 * Marks a bucket that's being thrown out, so nobody takes a use from it in the meantime
+	 */
+	private static final long DEAD = Long.MIN_VALUE;
+	
+	public final static List<RateLimiter> limiters = new CopyOnWriteArrayList<RateLimiter>();
+	
+	private final long interval, tolerance;
+	private final ConcurrentMap<UUID, AtomicLong> buckets = new ConcurrentHashMap<UUID, AtomicLong>();
+	
+	public RateLimiter(long cooldown, int burst){
+		interval = TimeUnit.MILLISECONDS.toNanos(cooldown);
+		tolerance = interval * (burst - 1);
+		limiters.add(this);
+		Housekeeping.start();
+	}
+	
+	/**
+	 * Takes a use from a player's bucket, if there's one left.
+	 * @param player the player's unique ID
+	 * @return 0 if the player may use the command, otherwise how long in nanoseconds until they may
+	 */
+	public long acquire(UUID player){
+		long now = System.nanoTime();
+		while(true){
+			AtomicLong bucket = buckets.get(player);
+			if(bucket == null){
+				if(buckets.putIfAbsent(player, new AtomicLong(now + interval)) == null)
+					return 0;
+				continue;
+			}
+			long full = bucket.get();
+			if(full == DEAD){
+				buckets.remove(player, bucket);
+				continue;
+			}
+			/*
+			 * Each use pushes the time the bucket is full again back by one interval, and it can only be pushed so far
+			 */
+			long start = full - now > 0 ? full : now;
+			if(start - now > tolerance)
+				return start - now - tolerance;
+			if(bucket.compareAndSet(full, start + interval))
+				return 0;
+		}
+	}
+	
+	/**
+	 * Throws out every bucket that has filled back up.
+	 */
+	public void sweep(){
+		long now = System.nanoTime();
+		for(Map.Entry<UUID, AtomicLong> entry : buckets.entrySet()){
+			AtomicLong bucket = entry.getValue();
+			long full = bucket.get();
+			if(full != DEAD && full - now <= 0 && bucket.compareAndSet(full, DEAD))
+				buckets.remove(entry.getKey(), bucket);
+		}
+	}
+	
+	/**
+	 * Gets the number of players with a bucket that hasn't been thrown out yet.
+	 * @return the number of buckets
+	 */
+	public int size(){
+		return buckets.size();
+	}
+	
+}
@@ -0,0 +1,89 @@
+package net.amoebaman.amoebautils.command;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import net.amoebaman.amoebautils.CommandController.Suggest;
+
+import org.bukkit.command.CommandSender;
+
+/**
+ * The parameters of a handler method, compiled into the parsers that turn the command's arguments into them.  A
+ * handler takes the sender first, then any number of typed parameters (one argument each), and optionally a
+ * {@code String[]} last, which receives whatever arguments are left over.
+ */
+class Signature{
+	
+	private final ArgumentParser<?>[] parsers;
+	private final SuggestionProvider[] suggesters;
+	private final SuggestionProvider restSuggester;
+	private final boolean rest;
+	public final String usage;
+	
+	public Signature(Method method, String[] identifier){
+		Class<?>[] params = method.getParameterTypes();
+		if(params.length == 0 || !CommandSender.class.isAssignableFrom(params[0]))
+			throw new IllegalArgumentException("the first parameter must be a CommandSender");
+		Annotation[][] annotations = method.getParameterAnnotations();
+		rest = params.length > 1 && params[params.length - 1] == String[].class;
+		parsers = new ArgumentParser<?>[params.length - (rest ? 2 : 1)];
+		suggesters = new SuggestionProvider[parsers.length];
+		StringBuilder usage = new StringBuilder("/");
+		for(int i = 0; i < identifier.length; i++)
+			usage.append(i == 0 ? "" : " ").append(identifier[i]);
+		for(int i = 0; i < parsers.length; i++){
+			parsers[i] = Parsers.get(params[i + 1]);
+			SuggestionProvider suggester = getSuggest(annotations[i + 1]);
+			suggesters[i] = suggester != null ? suggester : Parsers.getSuggestionProvider(params[i + 1]);
+			usage.append(" <").append(Parsers.getName(params[i + 1])).append('>');
+		}
+		if(rest){
+			SuggestionProvider suggester = getSuggest(annotations[params.length - 1]);
+			restSuggester = suggester != null ? suggester : Parsers.PLAYERS;
+			usage.append(" [...]");
+		}
+		else
+			restSuggester = null;
+		this.usage = usage.toString();
+	}
+	
+	private static SuggestionProvider getSuggest(Annotation[] annotations){
+		for(Annotation annotation : annotations)
+			if(annotation instanceof Suggest)
+				return new StaticSuggestions(((Suggest) annotation).value());
+		return null;
+	}
+	
+	/**
+	 * Gets the provider that suggests completions for an argument.
+	 * @param index the index of the argument, after the command's identifier
+	 * @return the provider, or null if there's nothing to suggest
+	 */
+	public SuggestionProvider getSuggestions(int index){
+		if(index < 0)
+			return null;
+		return index < suggesters.length ? suggesters[index] : restSuggester;
+	}
+	
+	/**
+	 * Parses the arguments of a command into the parameters of the handler.
+	 * @param sender the sender, which becomes the first parameter
+	 * @param args the arguments
+	 * @return the parameters
+	 * @throws ArgumentException if an argument is invalid, or there are too few or too many
+	 */
+	public Object[] parse(CommandSender sender, String[] args) throws ArgumentException{
+		if(args.length < parsers.length)
+			throw new ArgumentException("Not enough arguments");
+		if(!rest && args.length > parsers.length)
+			throw new ArgumentException("Too many arguments");
+		Object[] params = new Object[parsers.length + (rest ? 2 : 1)];
+		params[0] = sender;
+		for(int i = 0; i < parsers.length; i++)
+			params[i + 1] = parsers[i].parse(sender, args[i]);
+		if(rest)
+			params[params.length - 1] = parsers.length == 0 ? args : Arrays.copyOfRange(args, parsers.length, args.length);
+		return params;
+	}
+}
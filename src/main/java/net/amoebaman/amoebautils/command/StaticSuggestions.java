@@ -0,0 +1,50 @@
+package net.amoebaman.amoebautils.command;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.bukkit.command.CommandSender;
+
+/**
+ * Suggests completions from a fixed vocabulary.  The words are sorted once up front, so answering a keystroke only
+ * takes a binary search for the first word that starts with what's been typed.
+ * 
+ * @author AmoebaMan
+ */
+public class StaticSuggestions implements SuggestionProvider{
+	
+	private final String[] words;
+	
+	public StaticSuggestions(String... words){
+		this(Arrays.asList(words));
+	}
+	
+	public StaticSuggestions(Collection<String> words){
+		TreeSet<String> sorted = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+		sorted.addAll(words);
+		this.words = sorted.toArray(new String[sorted.size()]);
+	}
+	
+	public List<String> suggest(CommandSender sender, String prefix, int limit){
+		int index = Arrays.binarySearch(words, prefix, String.CASE_INSENSITIVE_ORDER);
+		if(index < 0)
+			index = -index - 1;
+		List<String> suggestions = new ArrayList<String>();
+		for(; index < words.length && suggestions.size() < limit && startsWith(words[index], prefix); index++)
+			suggestions.add(words[index]);
+		return suggestions;
+	}
+	
+	/**
+	 * Checks whether a word starts with a prefix, ignoring case, without copying either.
+	 * @param word a word
+	 * @param prefix a prefix
+	 * @return true if the word starts with the prefix
+	 */
+	static boolean startsWith(String word, String prefix){
+		return word.regionMatches(true, 0, prefix, 0, prefix.length());
+	}
+}
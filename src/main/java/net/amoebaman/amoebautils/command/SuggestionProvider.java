@@ -0,0 +1,23 @@
+package net.amoebaman.amoebautils.command;
+
+import java.util.List;
+
+import org.bukkit.command.CommandSender;
+
+/**
+ * Suggests completions for a single command argument as the sender types it.  Tab completion runs on every keystroke,
+ * so providers should answer from what they already have at hand instead of searching for it.
+ * 
+ * @author AmoebaMan
+ */
+public interface SuggestionProvider{
+	
+	/**
+	 * Suggests completions for an argument.
+	 * @param sender the sender typing the command
+	 * @param prefix as much of the argument as the sender has typed so far, possibly nothing
+	 * @param limit the most suggestions that will be shown, any beyond this are wasted
+	 * @return the suggestions, each of which starts with the prefix (ignoring case)
+	 */
+	public List<String> suggest(CommandSender sender, String prefix, int limit);
+}
@@ -0,0 +1,38 @@
+package net.amoebaman.amoebautils.plugin;
+
+import java.util.concurrent.Executor;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Gets work done off the main thread back onto it, where it's safe to touch
+ * the server. Used for the callbacks of async queries and commands alike.
+ *
+ * @author AmoebaMan
+ */
+public class MainThread{
+	
+	private MainThread(){}
+	
+	/**
+	 * Gets an executor that runs tasks on the server's main thread. Tasks
+	 * submitted from the main thread run immediately, and all others are
+	 * scheduled for the next tick.
+	 * 
+	 * @param plugin a plugin, used to schedule the tasks
+	 * @return the executor
+	 */
+	public static Executor executor(final Plugin plugin){
+		return new Executor(){
+			
+			public void execute(Runnable task){
+				if(Bukkit.isPrimaryThread())
+					task.run();
+				else
+					Bukkit.getScheduler().runTask(plugin, task);
+			}
+		};
+	}
+	
+}
@@ -0,0 +1,105 @@
+package net.amoebaman.amoebautils.processor;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import net.amoebaman.amoebautils.CommandController;
+
+/**
+ * An annotation processor that lists every class with a
+ * {@link CommandController.CommandHandler CommandHandler} method in an index
+ * inside the compiled jar, so that
+ * {@link CommandController#registerIndexed(org.bukkit.plugin.Plugin)} can
+ * register them all without scanning the jar at startup.
+ * <p>
+ * The processor only runs when a plugin's build asks for it, with
+ * {@code javac -processor} and this library on the processor path, or in
+ * the {@code annotationProcessors} of Maven's compiler plugin:
+ *
+ * <pre>
+ * &lt;annotationProcessors&gt;
+ *     &lt;annotationProcessor&gt;net.amoebaman.amoebautils.processor.CommandHandlerProcessor&lt;/annotationProcessor&gt;
+ * &lt;/annotationProcessors&gt;
+ * </pre>
+ *
+ * Only the classes in one compilation are indexed, so incremental builds
+ * that recompile some of a plugin's classes should be followed by a full
+ * build before releasing.
+ * <p>
+ * Top-level classes and static nested classes are indexed, by their binary
+ * names, the same classes {@link net.amoebaman.amoebautils.command.PackageScanner}
+ * finds in a jar. Inner classes need an instance of their outer class to be
+ * created, so they're left out.
+ *
+ * @author AmoebaMan
+ */
+public class CommandHandlerProcessor extends AbstractProcessor{
+	
+	/*
+	 * By name, so running the processor doesn't load any Bukkit classes
+	 */
+	private static final String ANNOTATION = "net.amoebaman.amoebautils.CommandController.CommandHandler";
+	
+	private final Set<String> classes = new TreeSet<String>();
+	
+	public Set<String> getSupportedAnnotationTypes(){
+		return Collections.singleton(ANNOTATION);
+	}
+	
+	public SourceVersion getSupportedSourceVersion(){
+		return SourceVersion.latestSupported();
+	}
+	
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round){
+		if(round.processingOver()){
+			if(!classes.isEmpty())
+				writeIndex();
+			return false;
+		}
+		TypeElement annotation = processingEnv.getElementUtils().getTypeElement(ANNOTATION);
+		if(annotation == null)
+			return false;
+		for(Element method : round.getElementsAnnotatedWith(annotation)){
+			Element type = method.getEnclosingElement();
+			if(!(type instanceof TypeElement))
+				continue;
+			NestingKind nesting = ((TypeElement) type).getNestingKind();
+			if(nesting == NestingKind.TOP_LEVEL || (nesting == NestingKind.MEMBER && type.getModifiers().contains(Modifier.STATIC)))
+				classes.add(processingEnv.getElementUtils().getBinaryName((TypeElement) type).toString());
+		}
+		return false;
+	}
+	
+	private void writeIndex(){
+		try{
+			FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", CommandController.INDEX);
+			Writer out = new OutputStreamWriter(file.openOutputStream(), "UTF-8");
+			try{
+				for(String name : classes)
+					out.write(name + "\n");
+			}
+			finally{
+				out.close();
+			}
+		}
+		catch(IOException e){
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Unable to write the command handler index: " + e);
+		}
+	}
+	
+}
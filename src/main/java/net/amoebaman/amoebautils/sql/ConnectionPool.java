@@ -0,0 +1,675 @@
+package net.amoebaman.amoebautils.sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A bounded pool of JDBC {@link Connection}s. Each thread holds at most one
+ * pooled connection at a time - if a thread borrows again while it already
+ * holds a connection, it is handed the same one back, so a connection is never
+ * used by two threads at once and nested calls can't deadlock the pool.
+ * <p>
+ * The pool keeps at least its minimum number of connections open, never opens
+ * more than its maximum, and closes connections that have been idle for longer
+ * than the idle timeout. Threads that find the pool exhausted wait up to the
+ * borrow timeout for a connection to be returned, and the time spent waiting is
+ * recorded for the metric getters.
+ * <p>
+ * Connections aren't pinged every time they're borrowed. A background
+ * keepalive checks idle connections before they go stale, and a borrowed
+ * connection is only checked if it has sat unchecked for longer than the
+ * validation interval or was last released after a failure (see
+ * {@link PooledConnection#suspect()}). When the server can't be reached, new
+ * connections are attempted with an exponentially growing delay between
+ * attempts, rather than every time somebody asks for one.
+ *
+ * @author AmoebaMan
+ */
+public class ConnectionPool{
+	
+	/**
+	 * Opens new physical connections for a {@link ConnectionPool}.
+	 */
+	public static interface ConnectionFactory{
+		
+		/**
+		 * Opens a new connection, ready to be used.
+		 * 
+		 * @return the connection
+		 * @throws SQLException if the connection couldn't be opened
+		 */
+		public Connection open() throws SQLException;
+	}
+	
+	/** How often, in milliseconds, idle connections are checked for eviction */
+	private static final long HOUSEKEEPING_PERIOD = 5000;
+	
+	/** How long, in seconds, to wait for a connection to answer a validation check */
+	private static final int VALIDATION_TIMEOUT = 1;
+	
+	/** The shortest and longest delays, in milliseconds, between attempts to reach the server */
+	private static final long MIN_RECONNECT_DELAY = 500, MAX_RECONNECT_DELAY = 30000;
+	
+	private final ConnectionFactory factory;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+	private final ArrayDeque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+	private final ThreadLocal<PooledConnection> held = new ThreadLocal<PooledConnection>();
+	private final ScheduledExecutorService housekeeper;
+	
+	private volatile int minSize, maxSize;
+	private volatile long idleTimeout = TimeUnit.MINUTES.toMillis(10), borrowTimeout = 5000;
+	private volatile int statementCacheSize = 64;
+	private volatile long validationInterval = 30000;
+	
+	/*
+	 * Guarded by the lock
+	 */
+	private int total = 0;
+	private boolean closed = false;
+	private long reconnectDelay = 0, nextAttempt = 0;
+	
+	private final AtomicLong borrows = new AtomicLong(), timeouts = new AtomicLong();
+	private final AtomicLong waitNanos = new AtomicLong(), maxWaitNanos = new AtomicLong();
+	private final AtomicLong created = new AtomicLong(), destroyed = new AtomicLong();
+	private final AtomicLong validations = new AtomicLong(), validationFailures = new AtomicLong(), connectFailures = new AtomicLong();
+	final AtomicLong statementHits = new AtomicLong(), statementMisses = new AtomicLong(), statementEvictions = new AtomicLong();
+	
+	/**
+	 * Constructs a connection pool. No connections are opened until the pool is
+	 * first used or {@link #fill()} is called.
+	 * 
+	 * @param factory the factory used to open new connections
+	 * @param minSize the number of connections to keep open at all times
+	 * @param maxSize the maximum number of connections that may be open at once
+	 */
+	public ConnectionPool(ConnectionFactory factory, int minSize, int maxSize){
+		if(factory == null)
+			throw new IllegalArgumentException("factory must not be null");
+		this.factory = factory;
+		setSize(minSize, maxSize);
+		housekeeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("SQL-Pool-Housekeeper-%d").setDaemon(true).build());
+		housekeeper.scheduleWithFixedDelay(new Runnable(){
+			
+			public void run(){
+				evictIdle();
+				keepAlive();
+				try{
+					fill();
+				}
+				catch(SQLException e){
+					/*
+					 * The next borrow will report the failure to whoever wanted the connection
+					 */
+				}
+			}
+		}, HOUSEKEEPING_PERIOD, HOUSEKEEPING_PERIOD, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Borrows a connection from the pool for the current thread, waiting up to
+	 * the borrow timeout if none are available. If the current thread already
+	 * holds a connection, that same connection is returned. Every borrow must
+	 * be matched by a call to {@link PooledConnection#release()} (or
+	 * {@link PooledConnection#discard()}).
+	 * 
+	 * @return the connection
+	 * @throws SQLException if the pool is closed, the wait timed out, or a new
+	 *             connection couldn't be opened
+	 */
+	public PooledConnection borrow() throws SQLException{
+		PooledConnection connection = held.get();
+		if(connection != null){
+			if(connection.holder == Thread.currentThread()){
+				connection.depth++;
+				return connection;
+			}
+			/*
+			 * Somebody else released it for us, it's no longer ours
+			 */
+			held.remove();
+		}
+		
+		long start = System.nanoTime(), deadline = start + TimeUnit.MILLISECONDS.toNanos(borrowTimeout);
+		while(true){
+			boolean create = false;
+			lock.lock();
+			try{
+				while(true){
+					if(closed)
+						throw new SQLNonTransientConnectionException("Connection pool is closed", "08003");
+					connection = idle.pollFirst();
+					if(connection != null)
+						break;
+					if(total < maxSize){
+						total++;
+						create = true;
+						break;
+					}
+					long remaining = deadline - System.nanoTime();
+					if(remaining <= 0){
+						timeouts.incrementAndGet();
+						throw new SQLTransientConnectionException("Timed out after " + borrowTimeout + "ms waiting for a pooled connection (" + total + " in use)", "08001");
+					}
+					available.awaitNanos(remaining);
+				}
+			}
+			catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for a pooled connection");
+			}
+			finally{
+				lock.unlock();
+			}
+			
+			if(create){
+				connection = open();
+				break;
+			}
+			if(!isStale(connection, validationInterval) || validate(connection))
+				break;
+			/*
+			 * It died while sitting in the pool, throw it out and try for another
+			 */
+			retire(connection);
+		}
+		recordWait(System.nanoTime() - start);
+		
+		connection.depth = 1;
+		connection.broken = false;
+		connection.holder = Thread.currentThread();
+		held.set(connection);
+		return connection;
+	}
+	
+	/**
+	 * Opens connections until the pool holds at least its minimum number of
+	 * connections.
+	 * 
+	 * @throws SQLException if a connection couldn't be opened
+	 */
+	public void fill() throws SQLException{
+		while(true){
+			lock.lock();
+			try{
+				if(closed || total >= minSize)
+					return;
+				total++;
+			}
+			finally{
+				lock.unlock();
+			}
+			PooledConnection connection = open();
+			lock.lock();
+			try{
+				returnIdle(connection);
+			}
+			finally{
+				lock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Closes every idle connection that has been unused for longer than the
+	 * idle timeout, as long as doing so doesn't take the pool below its
+	 * minimum size. This is called periodically by the pool itself.
+	 */
+	public void evictIdle(){
+		List<PooledConnection> evicted = new ArrayList<PooledConnection>();
+		long cutoff = System.currentTimeMillis() - idleTimeout;
+		lock.lock();
+		try{
+			/*
+			 * Idle connections are pushed onto the front, so the stalest ones are at the back
+			 */
+			Iterator<PooledConnection> it = idle.descendingIterator();
+			while(it.hasNext() && total > minSize){
+				PooledConnection connection = it.next();
+				if(connection.lastUsed > cutoff)
+					break;
+				it.remove();
+				total--;
+				evicted.add(connection);
+			}
+		}
+		finally{
+			lock.unlock();
+		}
+		for(PooledConnection connection : evicted)
+			destroy(connection);
+	}
+	
+	/**
+	 * Checks that idle connections are still alive, closing any that aren't.
+	 * Connections are checked once they've gone unchecked for half the
+	 * validation interval, so threads borrowing them rarely have to wait on a
+	 * check themselves. This is called periodically by the pool itself.
+	 */
+	public void keepAlive(){
+		List<PooledConnection> stale = new ArrayList<PooledConnection>();
+		long interval = validationInterval / 2;
+		lock.lock();
+		try{
+			Iterator<PooledConnection> it = idle.iterator();
+			while(it.hasNext()){
+				PooledConnection connection = it.next();
+				if(isStale(connection, interval)){
+					it.remove();
+					stale.add(connection);
+				}
+			}
+		}
+		finally{
+			lock.unlock();
+		}
+		for(PooledConnection connection : stale){
+			if(!validate(connection)){
+				retire(connection);
+				continue;
+			}
+			lock.lock();
+			try{
+				/*
+				 * Back at the end with the other stale ones, so eviction still finds them in order
+				 */
+				if(closed){
+					total--;
+					destroy(connection);
+				}
+				else{
+					idle.addLast(connection);
+					available.signal();
+				}
+			}
+			finally{
+				lock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Closes the pool and every idle connection in it. Connections that are
+	 * currently borrowed are closed as soon as they are released.
+	 */
+	public void close(){
+		List<PooledConnection> toClose;
+		lock.lock();
+		try{
+			closed = true;
+			total -= idle.size();
+			toClose = new ArrayList<PooledConnection>(idle);
+			idle.clear();
+			available.signalAll();
+		}
+		finally{
+			lock.unlock();
+		}
+		housekeeper.shutdown();
+		for(PooledConnection connection : toClose)
+			destroy(connection);
+	}
+	
+	/**
+	 * Checks whether this pool has been closed.
+	 * 
+	 * @return true if the pool is closed, false otherwise
+	 */
+	public boolean isClosed(){
+		lock.lock();
+		try{
+			return closed;
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+	
+	void release(PooledConnection connection){
+		if(--connection.depth > 0)
+			return;
+		/*
+		 * The loan may be ended by another thread, in which case the holder forgets it on its next borrow
+		 */
+		if(connection.holder == Thread.currentThread())
+			held.remove();
+		connection.holder = null;
+		connection.lastUsed = System.currentTimeMillis();
+		if(!connection.suspect)
+			connection.lastValidated = connection.lastUsed;
+		boolean destroy = connection.broken;
+		lock.lock();
+		try{
+			if(closed)
+				destroy = true;
+			if(destroy){
+				total--;
+				available.signal();
+			}
+			else
+				returnIdle(connection);
+		}
+		finally{
+			lock.unlock();
+		}
+		if(destroy)
+			destroy(connection);
+	}
+	
+	/*
+	 * Must be called while holding the lock
+	 */
+	private void returnIdle(PooledConnection connection){
+		if(closed){
+			total--;
+			destroy(connection);
+			return;
+		}
+		idle.addFirst(connection);
+		available.signal();
+	}
+	
+	private PooledConnection open() throws SQLException{
+		boolean opened = false;
+		try{
+			lock.lock();
+			try{
+				long wait = nextAttempt - System.currentTimeMillis();
+				if(wait > 0)
+					throw new SQLTransientConnectionException("Unable to reach the server, next attempt in " + wait + "ms", "08001");
+			}
+			finally{
+				lock.unlock();
+			}
+			Connection jdbc;
+			try{
+				jdbc = factory.open();
+			}
+			catch(SQLException e){
+				connectFailures.incrementAndGet();
+				lock.lock();
+				try{
+					reconnectDelay = reconnectDelay == 0 ? MIN_RECONNECT_DELAY : Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY);
+					nextAttempt = System.currentTimeMillis() + reconnectDelay;
+				}
+				finally{
+					lock.unlock();
+				}
+				throw e;
+			}
+			lock.lock();
+			try{
+				reconnectDelay = 0;
+				nextAttempt = 0;
+			}
+			finally{
+				lock.unlock();
+			}
+			PooledConnection connection = new PooledConnection(this, jdbc);
+			created.incrementAndGet();
+			opened = true;
+			return connection;
+		}
+		finally{
+			if(!opened){
+				lock.lock();
+				try{
+					total--;
+					available.signal();
+				}
+				finally{
+					lock.unlock();
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Checks whether a connection needs validating before it's trusted again
+	 */
+	private static boolean isStale(PooledConnection connection, long interval){
+		return connection.suspect || System.currentTimeMillis() - connection.lastValidated >= interval;
+	}
+	
+	private boolean validate(PooledConnection connection){
+		validations.incrementAndGet();
+		boolean valid;
+		try{
+			valid = connection.getConnection().isValid(VALIDATION_TIMEOUT);
+		}
+		catch(SQLException e){
+			valid = false;
+		}
+		if(valid){
+			connection.suspect = false;
+			connection.lastValidated = System.currentTimeMillis();
+		}
+		else
+			validationFailures.incrementAndGet();
+		return valid;
+	}
+	
+	/*
+	 * Closes a connection that isn't idle or on loan, freeing up its slot
+	 */
+	private void retire(PooledConnection connection){
+		lock.lock();
+		try{
+			total--;
+			available.signal();
+		}
+		finally{
+			lock.unlock();
+		}
+		destroy(connection);
+	}
+	
+	private void destroy(PooledConnection connection){
+		destroyed.incrementAndGet();
+		try{
+			connection.getConnection().close();
+		}
+		catch(SQLException e){
+			/*
+			 * It's being thrown away, we don't care if it was already dead
+			 */
+		}
+	}
+	
+	private void recordWait(long nanos){
+		borrows.incrementAndGet();
+		waitNanos.addAndGet(nanos);
+		long max = maxWaitNanos.get();
+		while(nanos > max && !maxWaitNanos.compareAndSet(max, nanos))
+			max = maxWaitNanos.get();
+	}
+	
+	/**
+	 * Sets the minimum and maximum size of the pool. Shrinking the maximum
+	 * below the number of connections currently in use does not close any of
+	 * them; the pool simply won't open new ones until enough are returned.
+	 * 
+	 * @param minSize the number of connections to keep open at all times
+	 * @param maxSize the maximum number of connections that may be open at once
+	 */
+	public void setSize(int minSize, int maxSize){
+		if(minSize < 0 || maxSize < 1 || minSize > maxSize)
+			throw new IllegalArgumentException("pool size must satisfy 0 <= min <= max and max >= 1");
+		lock.lock();
+		try{
+			this.minSize = minSize;
+			this.maxSize = maxSize;
+			available.signalAll();
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Sets how long a connection may sit unused in the pool before it is
+	 * closed, provided the pool is above its minimum size.
+	 * 
+	 * @param millis the idle timeout in milliseconds
+	 */
+	public void setIdleTimeout(long millis){
+		idleTimeout = millis;
+	}
+	
+	/**
+	 * Sets how long a thread will wait for a connection when the pool is
+	 * exhausted before giving up.
+	 * 
+	 * @param millis the borrow timeout in milliseconds
+	 */
+	public void setBorrowTimeout(long millis){
+		borrowTimeout = millis;
+	}
+	
+	/**
+	 * Sets how many prepared statements each connection keeps cached. Setting
+	 * this to 0 disables statement caching, so every statement is prepared
+	 * fresh and closed after use.
+	 * 
+	 * @param size the per-connection statement cache capacity
+	 */
+	public void setStatementCacheSize(int size){
+		if(size < 0)
+			throw new IllegalArgumentException("statement cache size must not be negative");
+		statementCacheSize = size;
+	}
+	
+	/**
+	 * Sets how long a connection may go without being checked before it has
+	 * to be validated again. Idle connections are checked in the background
+	 * by the keepalive, and a connection that's been used successfully counts
+	 * as checked.
+	 * 
+	 * @param millis the validation interval in milliseconds
+	 */
+	public void setValidationInterval(long millis){
+		if(millis < 0)
+			throw new IllegalArgumentException("validation interval must not be negative");
+		validationInterval = millis;
+	}
+	
+	public int getMinSize(){ return minSize; }
+	public int getMaxSize(){ return maxSize; }
+	public long getIdleTimeout(){ return idleTimeout; }
+	public long getBorrowTimeout(){ return borrowTimeout; }
+	public int getStatementCacheSize(){ return statementCacheSize; }
+	public long getValidationInterval(){ return validationInterval; }
+	
+	/**
+	 * Gets the number of connections currently open, whether idle or borrowed.
+	 * 
+	 * @return the total connection count
+	 */
+	public int getTotalCount(){
+		lock.lock();
+		try{
+			return total;
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Gets the number of connections currently sitting idle in the pool.
+	 * 
+	 * @return the idle connection count
+	 */
+	public int getIdleCount(){
+		lock.lock();
+		try{
+			return idle.size();
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Gets the number of connections currently borrowed by threads.
+	 * 
+	 * @return the active connection count
+	 */
+	public int getActiveCount(){
+		lock.lock();
+		try{
+			return total - idle.size();
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+	
+	/** @return the number of successful (non-nested) borrows since the pool was created */
+	public long getBorrowCount(){ return borrows.get(); }
+	/** @return the number of borrows that gave up waiting for a connection */
+	public long getTimeoutCount(){ return timeouts.get(); }
+	/** @return the total time spent by all threads waiting to borrow, in nanoseconds */
+	public long getTotalWaitNanos(){ return waitNanos.get(); }
+	/** @return the longest time any thread has spent waiting to borrow, in nanoseconds */
+	public long getMaxWaitNanos(){ return maxWaitNanos.get(); }
+	/** @return the number of physical connections opened since the pool was created */
+	public long getCreatedCount(){ return created.get(); }
+	/** @return the number of physical connections closed since the pool was created */
+	public long getDestroyedCount(){ return destroyed.get(); }
+	/** @return the number of times a connection was pinged to check it was alive */
+	public long getValidationCount(){ return validations.get(); }
+	/** @return the number of pinged connections found dead */
+	public long getValidationFailureCount(){ return validationFailures.get(); }
+	/** @return the number of failed attempts to open a new connection */
+	public long getConnectFailureCount(){ return connectFailures.get(); }
+	/** @return the number of statements served from a connection's statement cache */
+	public long getStatementCacheHits(){ return statementHits.get(); }
+	/** @return the number of statements that had to be freshly prepared */
+	public long getStatementCacheMisses(){ return statementMisses.get(); }
+	/** @return the number of statements pushed out of a full statement cache */
+	public long getStatementCacheEvictions(){ return statementEvictions.get(); }
+	
+	/**
+	 * Gets how long the pool is currently waiting between attempts to reach
+	 * the server. This is 0 unless the last attempt to open a connection
+	 * failed.
+	 * 
+	 * @return the current reconnect delay in milliseconds
+	 */
+	public long getReconnectDelay(){
+		lock.lock();
+		try{
+			return reconnectDelay;
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Gets the average time spent waiting to borrow a connection.
+	 * 
+	 * @return the average wait in nanoseconds, or 0 if nothing has been
+	 *         borrowed yet
+	 */
+	public long getAverageWaitNanos(){
+		long count = borrows.get();
+		return count == 0 ? 0 : waitNanos.get() / count;
+	}
+	
+}
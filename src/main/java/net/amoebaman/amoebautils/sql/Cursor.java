@@ -0,0 +1,177 @@
+package net.amoebaman.amoebautils.sql;
+
+import java.io.Closeable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the rows of a query one at a time, holding on to its pooled
+ * connection until it's closed. A cursor closes itself once its last row has
+ * been read, but one that's abandoned early must be closed explicitly, and
+ * always from the thread that opened it.
+ * <p>
+ * Every call to {@link #next()} returns the same {@link Row}, moved along to
+ * the next row of the result. If the query fails, the connection is marked
+ * {@link PooledConnection#suspect() suspect} before it's released.
+ * 
+ * @author AmoebaMan
+ */
+public class Cursor implements Iterator<Row>, Closeable{
+	
+	private final PooledConnection connection;
+	private final String sql;
+	private final PreparedStatement statement;
+	private final ResultSet result;
+	private final Row row;
+	private boolean closed = false, advanced = false, more = false;
+	
+	private Cursor(PooledConnection connection, String sql, PreparedStatement statement, ResultSet result) throws SQLException{
+		this.connection = connection;
+		this.sql = sql;
+		this.statement = statement;
+		this.result = result;
+		row = new Row(result);
+	}
+	
+	/**
+	 * Executes a query on a pooled connection and opens a cursor over its
+	 * result. The cursor takes over the caller's loan of the connection, and
+	 * releases it when closed. Its statement is tracked as busy until then, so
+	 * the same query can be run again while the cursor is open without closing
+	 * it.
+	 * 
+	 * @param connection a borrowed connection
+	 * @param sql a query
+	 * @param fetchSize the number of rows the driver should fetch at a time, or
+	 *            0 to let the driver decide, see
+	 *            {@link SQLDialect#getStreamingFetchSize(int)}
+	 * @param args arguments for the query
+	 * @return the cursor
+	 * @throws SQLException if the query couldn't be executed, in which case the
+	 *             connection has been released
+	 */
+	public static Cursor open(PooledConnection connection, String sql, int fetchSize, Object... args) throws SQLException{
+		StatementCache statements = connection.getStatementCache();
+		PreparedStatement statement = null;
+		ResultSet result = null;
+		boolean opened = false;
+		try{
+			statement = statements.prepare(sql);
+			statement.setFetchSize(fetchSize);
+			for(int i = 0; i < args.length; i++)
+				statement.setObject(i + 1, args[i]);
+			result = statement.executeQuery();
+			statements.track(sql, statement, result);
+			Cursor cursor = new Cursor(connection, sql, statement, result);
+			opened = true;
+			return cursor;
+		}
+		finally{
+			if(!opened){
+				if(result != null)
+					closeQuietly(result);
+				if(statement != null)
+					releaseStatement(statements, sql, statement);
+				connection.suspect();
+				connection.release();
+			}
+		}
+	}
+	
+	public boolean hasNext(){
+		if(closed)
+			return false;
+		if(!advanced){
+			try{
+				more = result.next();
+			}
+			catch(SQLException e){
+				connection.suspect();
+				close();
+				throw new IllegalStateException("Failed to read the next row of \"" + sql + "\"", e);
+			}
+			advanced = true;
+			if(!more)
+				close();
+		}
+		return more;
+	}
+	
+	public Row next(){
+		if(!hasNext())
+			throw new NoSuchElementException();
+		advanced = false;
+		row.advance();
+		return row;
+	}
+	
+	public void remove(){
+		throw new UnsupportedOperationException("rows can't be removed through a cursor");
+	}
+	
+	/**
+	 * Closes the result, hands the statement back to its cache and releases
+	 * the connection. Closing a cursor more than once has no effect.
+	 */
+	public void close(){
+		if(closed)
+			return;
+		closed = true;
+		more = false;
+		closeQuietly(result);
+		releaseStatement(connection.getStatementCache(), sql, statement);
+		connection.release();
+	}
+	
+	/**
+	 * Asks the driver to cancel the query while it's still running on the
+	 * server. Unlike the rest of a cursor's methods, this may be called from
+	 * any thread. The cursor must still be closed by its own thread.
+	 */
+	public void cancel(){
+		try{
+			statement.cancel();
+		}
+		catch(SQLException e){
+			/*
+			 * Either it already finished or the driver can't cancel, nothing else we can do
+			 */
+		}
+	}
+	
+	/**
+	 * Checks whether this cursor has been closed.
+	 * 
+	 * @return true if the cursor is closed, false otherwise
+	 */
+	public boolean isClosed(){
+		return closed;
+	}
+	
+	private static void releaseStatement(StatementCache statements, String sql, PreparedStatement statement){
+		try{
+			statement.setFetchSize(0);
+		}
+		catch(SQLException e){
+			/*
+			 * The cache will find out soon enough if it's broken
+			 */
+		}
+		statements.release(sql, statement);
+	}
+	
+	private static void closeQuietly(ResultSet result){
+		try{
+			result.close();
+		}
+		catch(SQLException e){
+			/*
+			 * Nothing more we can do with it
+			 */
+		}
+	}
+	
+}
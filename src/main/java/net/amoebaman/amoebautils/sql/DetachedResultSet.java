@@ -0,0 +1,200 @@
+package net.amoebaman.amoebautils.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A read-only, forward-only {@link ResultSet} whose rows have all been copied
+ * into memory, so it no longer needs the statement or connection it was read
+ * from. It can be read from any thread, and left unclosed, without holding on
+ * to anything but its own rows.
+ * <p>
+ * Columns can be read by their 1-based index, or by their label,
+ * case-insensitively, as with {@link Row}. Values are converted between types
+ * the way drivers usually do - numbers to any kind of number, anything to a
+ * string, and so on.
+ *
+ * @author AmoebaMan
+ */
+public final class DetachedResultSet implements InvocationHandler{
+	
+	private final ResultSetMetaData meta;
+	private final Map<String, Integer> columns = new TreeMap<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+	private final List<Object[]> rows = new ArrayList<Object[]>();
+	private int index = -1;
+	private boolean closed = false, wasNull = false;
+	
+	private DetachedResultSet(ResultSet result) throws SQLException{
+		meta = result.getMetaData();
+		int columnCount = meta.getColumnCount();
+		for(int i = 1; i <= columnCount; i++)
+			if(!columns.containsKey(meta.getColumnLabel(i)))
+				columns.put(meta.getColumnLabel(i), i);
+		while(result.next()){
+			Object[] row = new Object[columnCount];
+			for(int i = 0; i < columnCount; i++)
+				row[i] = result.getObject(i + 1);
+			rows.add(row);
+		}
+	}
+	
+	/**
+	 * Reads every remaining row of a result into memory. The original result
+	 * is left open, and may be closed as soon as this returns.
+	 *
+	 * @param result the result
+	 * @return a copy of the rows that no longer needs the original
+	 * @throws SQLException if the result couldn't be read
+	 */
+	public static ResultSet copy(ResultSet result) throws SQLException{
+		return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class}, new DetachedResultSet(result));
+	}
+	
+	public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable{
+		String name = method.getName();
+		int argCount = args == null ? 0 : args.length;
+		if(name.equals("close")){
+			closed = true;
+			return null;
+		}
+		if(name.equals("isClosed"))
+			return closed;
+		if(name.equals("equals") && argCount == 1)
+			return proxy == args[0];
+		if(name.equals("hashCode") && argCount == 0)
+			return System.identityHashCode(proxy);
+		if(name.equals("toString") && argCount == 0)
+			return "DetachedResultSet[" + rows.size() + " rows]";
+		if(closed)
+			throw new SQLException("Result set is closed");
+		
+		if(argCount == 0){
+			if(name.equals("next")){
+				if(index < rows.size())
+					index++;
+				return index < rows.size();
+			}
+			if(name.equals("wasNull"))
+				return wasNull;
+			if(name.equals("getMetaData"))
+				return meta;
+			if(name.equals("getRow"))
+				return index >= 0 && index < rows.size() ? index + 1 : 0;
+			if(name.equals("isBeforeFirst"))
+				return index < 0 && !rows.isEmpty();
+			if(name.equals("isAfterLast"))
+				return index >= rows.size() && !rows.isEmpty();
+			if(name.equals("isFirst"))
+				return index == 0 && !rows.isEmpty();
+			if(name.equals("isLast"))
+				return index == rows.size() - 1 && !rows.isEmpty();
+			if(name.equals("getType"))
+				return ResultSet.TYPE_FORWARD_ONLY;
+			if(name.equals("getConcurrency"))
+				return ResultSet.CONCUR_READ_ONLY;
+			if(name.equals("getFetchSize"))
+				return 0;
+			if(name.equals("getWarnings") || name.equals("getStatement") || name.equals("clearWarnings"))
+				return null;
+		}
+		if(name.equals("findColumn"))
+			return column((String) args[0]);
+		if(name.startsWith("get") && argCount == 1 && (args[0] instanceof Integer || args[0] instanceof String)){
+			Object value = value(args[0] instanceof Integer ? (Integer) args[0] : column((String) args[0]));
+			wasNull = value == null;
+			return convert(value, method.getReturnType(), name);
+		}
+		throw new SQLFeatureNotSupportedException(name + " isn't supported by a detached result set");
+	}
+	
+	private int column(String label) throws SQLException{
+		Integer index = columns.get(label);
+		if(index == null)
+			throw new SQLException("No column labelled \"" + label + "\" in the result");
+		return index;
+	}
+	
+	private Object value(int column) throws SQLException{
+		if(index < 0 || index >= rows.size())
+			throw new SQLException("The result isn't on a row");
+		Object[] row = rows.get(index);
+		if(column < 1 || column > row.length)
+			throw new SQLException("Column index " + column + " is out of range");
+		return row[column - 1];
+	}
+	
+	private static Object convert(Object value, Class<?> type, String getter) throws SQLException{
+		if(type == Object.class)
+			return value;
+		if(value == null){
+			if(type == boolean.class)
+				return false;
+			if(type.isPrimitive())
+				return convert(0, type, getter);
+			return null;
+		}
+		if(type.isInstance(value))
+			return value;
+		try{
+			if(type == String.class)
+				return value instanceof byte[] ? new String((byte[]) value, "UTF-8") : value.toString();
+			if(type == boolean.class){
+				if(value instanceof Number)
+					return ((Number) value).doubleValue() != 0;
+				String string = value.toString().trim();
+				return string.equalsIgnoreCase("true") || string.equalsIgnoreCase("yes") || string.equals("1");
+			}
+			if(type.isPrimitive() || type == BigDecimal.class){
+				Number number;
+				if(value instanceof Number)
+					number = (Number) value;
+				else if(value instanceof Boolean)
+					number = (Boolean) value ? 1 : 0;
+				else
+					number = new BigDecimal(value.toString().trim());
+				if(type == int.class)
+					return number.intValue();
+				if(type == long.class)
+					return number.longValue();
+				if(type == double.class)
+					return number.doubleValue();
+				if(type == float.class)
+					return number.floatValue();
+				if(type == short.class)
+					return number.shortValue();
+				if(type == byte.class)
+					return number.byteValue();
+				return number instanceof BigDecimal ? number : new BigDecimal(number.toString());
+			}
+			if(value instanceof java.util.Date){
+				long time = ((java.util.Date) value).getTime();
+				if(type == Timestamp.class)
+					return new Timestamp(time);
+				if(type == Date.class)
+					return new Date(time);
+				if(type == Time.class)
+					return new Time(time);
+			}
+			if(type == byte[].class && value instanceof String)
+				return ((String) value).getBytes("UTF-8");
+		}
+		catch(Exception e){
+			throw new SQLException("Can't read " + value.getClass().getSimpleName() + " \"" + value + "\" with " + getter, e);
+		}
+		throw new SQLException("Can't read " + value.getClass().getSimpleName() + " with " + getter);
+	}
+	
+}
@@ -0,0 +1,74 @@
+package net.amoebaman.amoebautils.sql;
+
+import java.io.File;
+import java.sql.Connection;
+
+/**
+ * The dialect for embedded H2 databases, either stored in a local file or
+ * held entirely in memory. For a file-backed database the URL is the
+ * directory the file goes in, and the database name is the name of the file.
+ * An in-memory database lives as long as the JVM does, even after every
+ * wrapper using it has disconnected, so a wrapper that connects to it again
+ * later finds its data still there.
+ * <p>
+ * Databases are opened in MySQL compatibility mode, so statements written
+ * for MySQL mostly work as-is.
+ *
+ * @author AmoebaMan
+ */
+public class H2Dialect extends SQLDialect{
+	
+	private final boolean inMemory;
+	
+	/**
+	 * Constructs a dialect for a file-backed H2 database.
+	 */
+	public H2Dialect(){
+		this(false);
+	}
+	
+	/**
+	 * Constructs a dialect for an H2 database.
+	 * 
+	 * @param inMemory true to keep the database in memory, false to store it
+	 *            in a file
+	 */
+	public H2Dialect(boolean inMemory){
+		this.inMemory = inMemory;
+	}
+	
+	public String getDriverClass(){
+		return "org.h2.Driver";
+	}
+	
+	public String buildUrl(String url, String database){
+		if(database == null || database.isEmpty())
+			database = "database";
+		if(inMemory)
+			return "jdbc:h2:mem:" + database + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+		File directory = new File(url == null || url.isEmpty() ? "." : url);
+		return "jdbc:h2:" + new File(directory, database).getAbsolutePath() + ";MODE=MySQL";
+	}
+	
+	public void initialize(Connection connection, String database){
+		/*
+		 * The database is picked by the URL, and H2 creates it on first connect
+		 */
+	}
+	
+	public String upsert(String table, String[] keys, String... columns){
+		StringBuilder sql = insert("MERGE INTO", table, columns).append(" KEY (");
+		join(sql, keys).append(')');
+		return values(sql, columns.length).toString();
+	}
+	
+	/**
+	 * Checks whether this dialect keeps its databases in memory.
+	 * 
+	 * @return true if in memory, false if file-backed
+	 */
+	public boolean isInMemory(){
+		return inMemory;
+	}
+	
+}
@@ -0,0 +1,107 @@
+package net.amoebaman.amoebautils.sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The dialect for MySQL (and MariaDB) servers. The database is created if it
+ * doesn't exist yet, and the driver is told to rewrite batched inserts into
+ * multi-row inserts.
+ * <p>
+ * Connector/J ignores fetch sizes unless it's told to use server-side
+ * cursors, and otherwise reads every row of a result into memory before the
+ * first one can be read. Cursor fetching is off by default, since it makes
+ * the driver prepare every statement on the server, which costs an extra
+ * round trip for statements that are only run once. A dialect constructed
+ * with cursor fetching on opens connections with it turned on, and gives
+ * results read through a {@link Cursor} a fetch size, so they're streamed;
+ * other queries are unaffected, since they aren't given a fetch size. Its
+ * other streaming mode, with a fetch size of {@link Integer#MIN_VALUE}, isn't
+ * used, since it ties up the connection until the whole result is read - and
+ * the thread reading it may well need the same connection for something else
+ * in the meantime.
+ *
+ * @author AmoebaMan
+ */
+public class MySQLDialect extends SQLDialect{
+	
+	/** The fetch size used for cursors when none is configured */
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+	
+	private final boolean cursorFetch;
+	
+	/**
+	 * Constructs a dialect for a MySQL server, without cursor fetching.
+	 */
+	public MySQLDialect(){
+		this(false);
+	}
+	
+	/**
+	 * Constructs a dialect for a MySQL server.
+	 * 
+	 * @param cursorFetch true to stream results read through a {@link Cursor}
+	 *            with server-side cursors, false to read them into memory
+	 *            all at once
+	 */
+	public MySQLDialect(boolean cursorFetch){
+		this.cursorFetch = cursorFetch;
+	}
+	
+	public String getDriverClass(){
+		return "com.mysql.jdbc.Driver";
+	}
+	
+	public String buildUrl(String url, String database){
+		return "jdbc:mysql://" + url + "/?rewriteBatchedStatements=true" + (cursorFetch ? "&useCursorFetch=true" : "");
+	}
+	
+	public void initialize(Connection connection, String database) throws SQLException{
+		if(database == null || database.isEmpty())
+			return;
+		Statement statement = connection.createStatement();
+		try{
+			statement.executeUpdate("CREATE DATABASE IF NOT EXISTS " + database);
+			statement.executeUpdate("USE " + database);
+		}
+		finally{
+			statement.close();
+		}
+	}
+	
+	public String upsert(String table, String[] keys, String... columns){
+		StringBuilder sql = values(insert("INSERT INTO", table, columns), columns.length).append(" ON DUPLICATE KEY UPDATE ");
+		boolean first = true;
+		for(String column : columns)
+			if(!isKey(keys, column)){
+				if(!first)
+					sql.append(", ");
+				sql.append(column).append(" = VALUES(").append(column).append(')');
+				first = false;
+			}
+		/*
+		 * Nothing to update, but MySQL still needs something after the UPDATE
+		 */
+		if(first)
+			sql.append(keys[0]).append(" = ").append(keys[0]);
+		return sql.toString();
+	}
+	
+	/*
+	 * Connector/J already does this with rewriteBatchedStatements, and does it for more than inserts
+	 */
+	public String rewriteBatch(String sql, int rows){
+		return null;
+	}
+	
+	/*
+	 * Without a positive fetch size, a server-side cursor isn't opened and the whole result is read at once
+	 */
+	public int getStreamingFetchSize(int rows){
+		if(!cursorFetch)
+			return rows;
+		return rows > 0 ? rows : DEFAULT_FETCH_SIZE;
+	}
+	
+}
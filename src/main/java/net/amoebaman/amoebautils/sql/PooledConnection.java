@@ -0,0 +1,100 @@
+package net.amoebaman.amoebautils.sql;
+
+import java.sql.Connection;
+
+/**
+ * A {@link Connection} on loan from a {@link ConnectionPool}. The wrapped
+ * connection belongs to the thread that borrowed it until it is released, and
+ * must not be closed directly - release it (or discard it, if it's broken) and
+ * let the pool decide what to do with it.
+ *
+ * @author AmoebaMan
+ */
+public class PooledConnection{
+	
+	private final ConnectionPool pool;
+	private final Connection connection;
+	private final StatementCache statements;
+	
+	/*
+	 * Only touched by the thread holding the connection, or by the pool while it's idle
+	 */
+	int depth = 0;
+	boolean broken = false;
+	long lastUsed = System.currentTimeMillis(), lastValidated = lastUsed;
+	
+	/*
+	 * May be set by the holder and cleared by the pool, so it has to be visible to both
+	 */
+	volatile boolean suspect = false;
+	
+	/*
+	 * The thread the connection is on loan to, or null while it's idle
+	 */
+	volatile Thread holder = null;
+	
+	PooledConnection(ConnectionPool pool, Connection connection){
+		this.pool = pool;
+		this.connection = connection;
+		statements = new StatementCache(pool, connection);
+	}
+	
+	/**
+	 * Gets the underlying JDBC connection.
+	 * 
+	 * @return the connection
+	 */
+	public Connection getConnection(){
+		return connection;
+	}
+	
+	/**
+	 * Gets the cache of prepared statements belonging to this connection.
+	 * 
+	 * @return the statement cache
+	 */
+	public StatementCache getStatementCache(){
+		return statements;
+	}
+	
+	/**
+	 * Gets the pool this connection belongs to.
+	 * 
+	 * @return the pool
+	 */
+	public ConnectionPool getPool(){
+		return pool;
+	}
+	
+	/**
+	 * Returns this connection to its pool, ending its loan. This is usually
+	 * done by the thread that borrowed it, but needn't be.
+	 */
+	public void release(){
+		pool.release(this);
+	}
+	
+	/**
+	 * Marks this connection as possibly broken, usually because a statement
+	 * run on it failed. It stays on loan to the current thread, but the pool
+	 * will check that it's still alive before handing it out again.
+	 * <p>
+	 * Connections that are released without being marked suspect are assumed
+	 * to have worked, and won't be checked again until they've sat idle for
+	 * the pool's validation interval.
+	 */
+	public void suspect(){
+		suspect = true;
+	}
+	
+	/**
+	 * Marks this connection as unusable and releases it. Once the thread's
+	 * loan ends the connection will be closed instead of being returned to
+	 * the pool.
+	 */
+	public void discard(){
+		broken = true;
+		pool.release(this);
+	}
+	
+}
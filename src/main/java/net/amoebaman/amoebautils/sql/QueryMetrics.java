@@ -0,0 +1,296 @@
+package net.amoebaman.amoebautils.sql;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import net.amoebaman.amoebautils.LatencyHistogram;
+
+/**
+ * Always-on metrics for every SQL statement sent through a
+ * {@link net.amoebaman.amoebautils.SQLWrapper SQLWrapper}, grouped by SQL
+ * text. Each statement gets a {@link LatencyHistogram} of how long it took,
+ * along with counts of executions, failures and rows.
+ * <p>
+ * Statements that take longer than the slow query threshold are kept in a
+ * short log of the most recent slow queries, and reported to the logger - at
+ * most once a minute for any given statement, so a statement that's always
+ * slow doesn't flood the console. Everything can be dumped as a readable
+ * report or exported to a CSV file on demand.
+ *
+ * @author AmoebaMan
+ */
+public class QueryMetrics{
+	
+	/** The most distinct statements tracked, beyond which they're lumped together */
+	public static final int MAX_STATEMENTS = 1000;
+	
+	/** The SQL text statements are lumped together under once there are too many */
+	public static final String OTHER = "(other statements)";
+	
+	/** How many slow queries are kept in the log */
+	private static final int SLOW_LOG_SIZE = 100;
+	
+	/** How often, in nanoseconds, the same slow statement may be reported to the logger */
+	private static final long REPORT_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+	
+	private final ConcurrentMap<String, StatementStats> statements = new ConcurrentHashMap<String, StatementStats>();
+	private final ArrayDeque<SlowQuery> slowLog = new ArrayDeque<SlowQuery>();
+	private volatile long slowThreshold = TimeUnit.MILLISECONDS.toNanos(100);
+	private volatile Logger logger;
+	
+	/**
+	 * Constructs a set of query metrics.
+	 * 
+	 * @param logger the logger to report slow queries to, or null to only keep
+	 *            them in the slow query log
+	 */
+	public QueryMetrics(Logger logger){
+		this.logger = logger;
+	}
+	
+	/**
+	 * Records an execution of a statement.
+	 * 
+	 * @param sql the SQL text of the statement
+	 * @param nanos how long it took, in nanoseconds
+	 * @param rows the number of rows it affected or returned
+	 * @param failed whether it failed
+	 */
+	public void record(String sql, long nanos, long rows, boolean failed){
+		record(sql, nanos, 1, rows, failed);
+	}
+	
+	/**
+	 * Records a batch of executions of the same statement that were sent
+	 * together.
+	 * 
+	 * @param sql the SQL text of the statement
+	 * @param nanos how long the whole batch took, in nanoseconds
+	 * @param count the number of statements in the batch
+	 * @param rows the number of rows the batch affected
+	 * @param failed whether the batch failed
+	 */
+	public void record(String sql, long nanos, int count, long rows, boolean failed){
+		if(count <= 0)
+			return;
+		StatementStats stats = getOrCreate(sql);
+		stats.latency.record(nanos / count, count);
+		if(failed)
+			stats.errors.addAndGet(count);
+		if(rows > 0)
+			stats.rows.addAndGet(rows);
+		if(nanos >= slowThreshold)
+			slow(stats, nanos, count, failed);
+	}
+	
+	private StatementStats getOrCreate(String sql){
+		StatementStats stats = statements.get(sql);
+		if(stats != null)
+			return stats;
+		/*
+		 * Statements with their values inlined would otherwise grow this forever
+		 */
+		if(statements.size() >= MAX_STATEMENTS)
+			sql = OTHER;
+		stats = new StatementStats(sql);
+		StatementStats existing = statements.putIfAbsent(sql, stats);
+		return existing == null ? stats : existing;
+	}
+	
+	private void slow(StatementStats stats, long nanos, int count, boolean failed){
+		SlowQuery query = new SlowQuery(stats.sql, nanos, count, failed, System.currentTimeMillis());
+		synchronized(slowLog){
+			if(slowLog.size() >= SLOW_LOG_SIZE)
+				slowLog.removeFirst();
+			slowLog.addLast(query);
+		}
+		Logger logger = this.logger;
+		if(logger == null)
+			return;
+		long now = System.nanoTime(), last = stats.lastReported.get();
+		if((last == 0 || now - last >= REPORT_INTERVAL) && stats.lastReported.compareAndSet(last, now))
+			logger.warning("[SQL] Slow " + (count > 1 ? "batch of " + count + " statements" : "statement") + " took " + LatencyHistogram.format(nanos) + ": " + stats.sql);
+	}
+	
+	/**
+	 * Sets how long a statement has to take to count as slow. The default is
+	 * 100 milliseconds.
+	 * 
+	 * @param millis the slow query threshold in milliseconds
+	 */
+	public void setSlowQueryThreshold(long millis){
+		slowThreshold = TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+	
+	/**
+	 * Sets the logger slow queries are reported to.
+	 * 
+	 * @param logger the logger, or null to stop reporting
+	 */
+	public void setLogger(Logger logger){
+		this.logger = logger;
+	}
+	
+	public long getSlowQueryThreshold(){ return TimeUnit.NANOSECONDS.toMillis(slowThreshold); }
+	
+	/**
+	 * Gets the metrics of a single statement.
+	 * 
+	 * @param sql the SQL text of the statement
+	 * @return the metrics, or null if the statement hasn't been executed
+	 */
+	public StatementStats getStats(String sql){
+		return statements.get(sql);
+	}
+	
+	/**
+	 * Gets the metrics of every statement that has been executed, ordered by
+	 * the total time spent on them, most first.
+	 * 
+	 * @return the metrics of each statement
+	 */
+	public List<StatementStats> getStats(){
+		List<StatementStats> stats = new ArrayList<StatementStats>(statements.values());
+		Collections.sort(stats, new Comparator<StatementStats>(){
+			
+			public int compare(StatementStats a, StatementStats b){
+				long x = a.latency.getTotal(), y = b.latency.getTotal();
+				return x > y ? -1 : x < y ? 1 : 0;
+			}
+		});
+		return stats;
+	}
+	
+	/**
+	 * Gets the most recent slow queries, oldest first.
+	 * 
+	 * @return the slow query log
+	 */
+	public List<SlowQuery> getSlowQueries(){
+		synchronized(slowLog){
+			return new ArrayList<SlowQuery>(slowLog);
+		}
+	}
+	
+	/**
+	 * Clears every statement's metrics and the slow query log.
+	 */
+	public void reset(){
+		statements.clear();
+		synchronized(slowLog){
+			slowLog.clear();
+		}
+	}
+	
+	/**
+	 * Dumps the metrics of every statement as a readable report, one line per
+	 * statement, ordered by the total time spent on them.
+	 * 
+	 * @return the report lines
+	 */
+	public List<String> dump(){
+		List<String> lines = new ArrayList<String>();
+		for(StatementStats stats : getStats()){
+			LatencyHistogram latency = stats.latency;
+			lines.add(latency.getCount() + "x, " + stats.getErrorCount() + " failed, " + stats.getRowCount() + " rows, total " + LatencyHistogram.format(latency.getTotal()) + ", mean " + LatencyHistogram.format(latency.getMean()) + ", p50 " + LatencyHistogram.format(latency.getPercentile(50)) + ", p99 " + LatencyHistogram.format(latency.getPercentile(99)) + ", max " + LatencyHistogram.format(latency.getMax()) + ": " + stats.sql);
+		}
+		return lines;
+	}
+	
+	/**
+	 * Exports the metrics of every statement to a CSV file, with latencies in
+	 * microseconds.
+	 * 
+	 * @param file the file to write to, which is overwritten
+	 * @throws IOException if the file couldn't be written
+	 */
+	public void export(File file) throws IOException{
+		Writer out = new FileWriter(file);
+		try{
+			out.write("sql,count,errors,rows,total_us,mean_us,p50_us,p90_us,p99_us,p999_us,max_us\n");
+			for(StatementStats stats : getStats()){
+				LatencyHistogram latency = stats.latency;
+				out.write('"' + stats.sql.replace("\"", "\"\"") + "\",");
+				out.write(latency.getCount() + "," + stats.getErrorCount() + "," + stats.getRowCount());
+				for(long nanos : new long[]{latency.getTotal(), latency.getMean(), latency.getPercentile(50), latency.getPercentile(90), latency.getPercentile(99), latency.getPercentile(99.9), latency.getMax()})
+					out.write("," + TimeUnit.NANOSECONDS.toMicros(nanos));
+				out.write('\n');
+			}
+		}
+		finally{
+			out.close();
+		}
+	}
+	
+	/**
+	 * The metrics of a single statement.
+	 */
+	public static class StatementStats{
+		
+		private final String sql;
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final AtomicLong errors = new AtomicLong(), rows = new AtomicLong(), lastReported = new AtomicLong();
+		
+		private StatementStats(String sql){
+			this.sql = sql;
+		}
+		
+		/** @return the SQL text of the statement */
+		public String getSql(){ return sql; }
+		/** @return the histogram of how long the statement took, in nanoseconds */
+		public LatencyHistogram getLatency(){ return latency; }
+		/** @return the number of times the statement was executed */
+		public long getCount(){ return latency.getCount(); }
+		/** @return the number of times the statement failed */
+		public long getErrorCount(){ return errors.get(); }
+		/** @return the number of rows the statement affected or returned, in total */
+		public long getRowCount(){ return rows.get(); }
+	}
+	
+	/**
+	 * An entry in the slow query log.
+	 */
+	public static class SlowQuery{
+		
+		private final String sql;
+		private final long nanos, time;
+		private final int count;
+		private final boolean failed;
+		
+		private SlowQuery(String sql, long nanos, int count, boolean failed, long time){
+			this.sql = sql;
+			this.nanos = nanos;
+			this.count = count;
+			this.failed = failed;
+			this.time = time;
+		}
+		
+		/** @return the SQL text of the statement */
+		public String getSql(){ return sql; }
+		/** @return how long the statement (or batch) took, in nanoseconds */
+		public long getNanos(){ return nanos; }
+		/** @return the number of statements, more than 1 for a batch */
+		public int getCount(){ return count; }
+		/** @return whether the statement failed */
+		public boolean isFailed(){ return failed; }
+		/** @return when the statement finished, in epoch milliseconds */
+		public long getTime(){ return time; }
+		
+		public String toString(){
+			return LatencyHistogram.format(nanos) + (count > 1 ? " (batch of " + count + ")" : "") + (failed ? " (failed)" : "") + ": " + sql;
+		}
+	}
+	
+}
@@ -0,0 +1,289 @@
+package net.amoebaman.amoebautils.sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+/**
+ * A size-bounded cache of query results, keyed by SQL text, arguments and the
+ * {@link RowMapper} used to read them. Each result is cached with its own
+ * time-to-live, and is thrown out early as soon as a command writes to any of
+ * the tables the query reads from.
+ * <p>
+ * Table names are picked out of the SQL with a simple parser that follows
+ * {@code FROM} lists, comma and {@code JOIN} joins and subqueries for
+ * queries, and the usual {@code INSERT}, {@code REPLACE}, {@code UPDATE},
+ * {@code DELETE}, {@code MERGE}, {@code TRUNCATE}, {@code ALTER},
+ * {@code CREATE}, {@code DROP} and {@code RENAME} forms for commands,
+ * including multi-table updates and deletes. To be safe, a query it can't
+ * account for completely is never cached, and a command it can't account
+ * for clears the whole cache.
+ *
+ * @author AmoebaMan
+ */
+public class ResultCache{
+	
+	/*
+	 * Applications only have so many distinct statements, so parse each one once
+	 */
+	private static final LoadingCache<String, Optional<List<String>>> readTables = CacheBuilder.newBuilder().maximumSize(1024).build(new CacheLoader<String, Optional<List<String>>>(){
+		
+		public Optional<List<String>> load(String sql){
+			return Optional.fromNullable(TableParser.readTables(sql));
+		}
+	});
+	private static final LoadingCache<String, Optional<List<String>>> writeTables = CacheBuilder.newBuilder().maximumSize(1024).build(new CacheLoader<String, Optional<List<String>>>(){
+		
+		public Optional<List<String>> load(String sql){
+			return Optional.fromNullable(TableParser.writeTables(sql));
+		}
+	});
+	
+	private final Cache<Key, Entry> results;
+	private final ConcurrentMap<String, Set<Key>> keysByTable = new ConcurrentHashMap<String, Set<Key>>();
+	private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicLong globalVersion = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), expirations = new AtomicLong(), invalidations = new AtomicLong();
+	
+	/**
+	 * Constructs a result cache. Once the cache is full, the least recently
+	 * used results are thrown out to make room.
+	 * 
+	 * @param maximumSize the maximum number of results to hold
+	 */
+	public ResultCache(int maximumSize){
+		results = CacheBuilder.newBuilder().maximumSize(maximumSize).removalListener(new RemovalListener<Key, Entry>(){
+			
+			public void onRemoval(RemovalNotification<Key, Entry> notification){
+				/*
+				 * A replaced result is still indexed under the same key
+				 */
+				Key key = notification.getKey();
+				if(key != null && notification.getCause() != RemovalCause.REPLACED)
+					for(String table : key.tables){
+						Set<Key> keys = keysByTable.get(table);
+						if(keys != null)
+							keys.remove(key);
+					}
+			}
+		}).build();
+	}
+	
+	/**
+	 * Gets a cached result, if there's one that hasn't expired.
+	 * 
+	 * @param sql a query
+	 * @param args the query's arguments
+	 * @param mapper the mapper the rows were read with
+	 * @return the cached rows, or null if there are none
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> List<T> get(String sql, Object[] args, RowMapper<T> mapper){
+		Key key = new Key(sql, args, mapper, null);
+		Entry entry = results.getIfPresent(key);
+		if(entry != null && System.nanoTime() - entry.expiresAt >= 0){
+			results.invalidate(key);
+			expirations.incrementAndGet();
+			entry = null;
+		}
+		if(entry == null){
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return (List<T>) entry.rows;
+	}
+	
+	/**
+	 * Takes a snapshot of the write versions of every table a query reads
+	 * from. Take one before running a query and pass it to
+	 * {@link #put(String, Object[], RowMapper, List, long, long[])}, so a result
+	 * that raced with a write to its tables isn't cached.
+	 * 
+	 * @param sql a query
+	 * @return the snapshot
+	 */
+	public long[] snapshot(String sql){
+		List<String> tables = readTables.getUnchecked(sql).or(Collections.<String>emptyList());
+		long[] snapshot = new long[tables.size() + 1];
+		snapshot[0] = globalVersion.get();
+		for(int i = 0; i < tables.size(); i++)
+			snapshot[i + 1] = version(tables.get(i)).get();
+		return snapshot;
+	}
+	
+	/**
+	 * Checks whether a query's results can be cached, which they can't be if
+	 * the tables it reads from can't all be picked out of it.
+	 * 
+	 * @param sql a query
+	 * @return true if the query's results can be cached
+	 */
+	public boolean isCacheable(String sql){
+		return readTables.getUnchecked(sql).isPresent();
+	}
+	
+	/**
+	 * Caches the result of a query, unless one of the tables it reads from has
+	 * been written to since the snapshot was taken, or the query isn't
+	 * {@link #isCacheable(String) cacheable}.
+	 * 
+	 * @param sql a query
+	 * @param args the query's arguments
+	 * @param mapper the mapper the rows were read with
+	 * @param rows the rows
+	 * @param ttl how long the result may be cached, in milliseconds
+	 * @param snapshot a snapshot taken with {@link #snapshot(String)} before the
+	 *            query was run
+	 */
+	public <T> void put(String sql, Object[] args, RowMapper<T> mapper, List<T> rows, long ttl, long[] snapshot){
+		Optional<List<String>> parsed = readTables.getUnchecked(sql);
+		if(!parsed.isPresent())
+			return;
+		List<String> tables = parsed.get();
+		Key key = new Key(sql, args, mapper, tables);
+		for(String table : tables){
+			Set<Key> keys = keysByTable.get(table);
+			if(keys == null){
+				keysByTable.putIfAbsent(table, Collections.newSetFromMap(new ConcurrentHashMap<Key, Boolean>()));
+				keys = keysByTable.get(table);
+			}
+			keys.add(key);
+		}
+		/*
+		 * Check the versions after indexing the key, so a write that slips in now still finds it
+		 */
+		if(!Arrays.equals(snapshot, snapshot(sql))){
+			for(String table : tables)
+				keysByTable.get(table).remove(key);
+			return;
+		}
+		results.put(key, new Entry(Collections.unmodifiableList(new ArrayList<T>(rows)), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttl)));
+		if(!Arrays.equals(snapshot, snapshot(sql)))
+			results.invalidate(key);
+	}
+	
+	/**
+	 * Throws out every cached result that reads from a table the given command
+	 * writes to. If the tables can't all be determined, the whole cache is
+	 * cleared.
+	 * 
+	 * @param command a command that has been executed
+	 */
+	public void invalidate(String command){
+		Optional<List<String>> tables = writeTables.getUnchecked(command);
+		if(!tables.isPresent())
+			invalidateAll();
+		else
+			for(String table : tables.get())
+				invalidateTable(table);
+	}
+	
+	/**
+	 * Throws out every cached result that reads from a table.
+	 * 
+	 * @param table the name of the table
+	 */
+	public void invalidateTable(String table){
+		table = TableParser.normalize(table);
+		version(table).incrementAndGet();
+		invalidations.incrementAndGet();
+		Set<Key> keys = keysByTable.get(table);
+		if(keys != null)
+			results.invalidateAll(new ArrayList<Key>(keys));
+	}
+	
+	/**
+	 * Throws out every cached result.
+	 */
+	public void invalidateAll(){
+		globalVersion.incrementAndGet();
+		invalidations.incrementAndGet();
+		results.invalidateAll();
+	}
+	
+	private AtomicLong version(String table){
+		AtomicLong version = versions.get(table);
+		if(version == null){
+			versions.putIfAbsent(table, new AtomicLong());
+			version = versions.get(table);
+		}
+		return version;
+	}
+	
+	/** @return the number of results currently cached */
+	public long size(){ return results.size(); }
+	/** @return the number of lookups that found a live result */
+	public long getHitCount(){ return hits.get(); }
+	/** @return the number of lookups that found nothing, or an expired result */
+	public long getMissCount(){ return misses.get(); }
+	/** @return the number of lookups that found an expired result */
+	public long getExpiredCount(){ return expirations.get(); }
+	/** @return the number of table (or whole cache) invalidations */
+	public long getInvalidationCount(){ return invalidations.get(); }
+	
+	/**
+	 * Gets the fraction of lookups that were served from the cache.
+	 * 
+	 * @return the hit rate, between 0 and 1
+	 */
+	public double getHitRate(){
+		long hits = this.hits.get(), total = hits + misses.get();
+		return total == 0 ? 1.0 : (double) hits / total;
+	}
+	
+	private static class Key{
+		
+		private final String sql;
+		private final List<Object> args;
+		private final RowMapper<?> mapper;
+		private final List<String> tables;
+		private final int hash;
+		
+		private Key(String sql, Object[] args, RowMapper<?> mapper, List<String> tables){
+			this.sql = sql;
+			this.args = Arrays.asList(args.clone());
+			this.mapper = mapper;
+			this.tables = tables;
+			hash = (sql.hashCode() * 31 + this.args.hashCode()) * 31 + System.identityHashCode(mapper);
+		}
+		
+		public int hashCode(){
+			return hash;
+		}
+		
+		public boolean equals(Object obj){
+			if(!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return hash == other.hash && mapper == other.mapper && sql.equals(other.sql) && args.equals(other.args);
+		}
+	}
+	
+	private static class Entry{
+		
+		private final List<?> rows;
+		private final long expiresAt;
+		
+		private Entry(List<?> rows, long expiresAt){
+			this.rows = rows;
+			this.expiresAt = expiresAt;
+		}
+	}
+	
+}
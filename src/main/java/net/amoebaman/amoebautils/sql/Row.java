@@ -0,0 +1,105 @@
+package net.amoebaman.amoebautils.sql;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A view of the current row of a streamed query. Only one Row exists per
+ * query - it's moved along the result as it's read, so it must not be held
+ * onto once the next row has been read or the query has finished. Copy out
+ * whatever values you need.
+ * <p>
+ * Columns can be read by their 1-based index, or by their label. Labels are
+ * resolved to indices once when the query starts (case-insensitively), so
+ * reading by label doesn't make the driver search the columns on every row.
+ *
+ * @author AmoebaMan
+ */
+public class Row{
+	
+	private final ResultSet result;
+	private final Map<String, Integer> columns = new TreeMap<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+	private final int columnCount;
+	private int number = 0;
+	
+	Row(ResultSet result) throws SQLException{
+		this.result = result;
+		ResultSetMetaData meta = result.getMetaData();
+		columnCount = meta.getColumnCount();
+		for(int i = 1; i <= columnCount; i++)
+			if(!columns.containsKey(meta.getColumnLabel(i)))
+				columns.put(meta.getColumnLabel(i), i);
+	}
+	
+	void advance(){
+		number++;
+	}
+	
+	/**
+	 * Gets the 1-based index of a column by its label.
+	 * 
+	 * @param label the column label
+	 * @return the column's index
+	 * @throws SQLException if there's no column with that label
+	 */
+	public int column(String label) throws SQLException{
+		Integer index = columns.get(label);
+		if(index == null)
+			throw new SQLException("No column labelled \"" + label + "\" in the result");
+		return index;
+	}
+	
+	/**
+	 * Gets the number of columns in each row.
+	 * 
+	 * @return the column count
+	 */
+	public int getColumnCount(){
+		return columnCount;
+	}
+	
+	/**
+	 * Gets the 1-based number of this row within the result.
+	 * 
+	 * @return the row number
+	 */
+	public int getRowNumber(){
+		return number;
+	}
+	
+	/**
+	 * Checks whether the last column read was SQL NULL. Primitive getters
+	 * return 0 or false for NULL, so use this to tell the difference.
+	 * 
+	 * @return true if the last value read was NULL, false otherwise
+	 * @throws SQLException if the result can't be read
+	 */
+	public boolean wasNull() throws SQLException{
+		return result.wasNull();
+	}
+	
+	public Object getObject(int column) throws SQLException{ return result.getObject(column); }
+	public String getString(int column) throws SQLException{ return result.getString(column); }
+	public int getInt(int column) throws SQLException{ return result.getInt(column); }
+	public long getLong(int column) throws SQLException{ return result.getLong(column); }
+	public double getDouble(int column) throws SQLException{ return result.getDouble(column); }
+	public float getFloat(int column) throws SQLException{ return result.getFloat(column); }
+	public boolean getBoolean(int column) throws SQLException{ return result.getBoolean(column); }
+	public byte[] getBytes(int column) throws SQLException{ return result.getBytes(column); }
+	public Timestamp getTimestamp(int column) throws SQLException{ return result.getTimestamp(column); }
+	
+	public Object getObject(String label) throws SQLException{ return result.getObject(column(label)); }
+	public String getString(String label) throws SQLException{ return result.getString(column(label)); }
+	public int getInt(String label) throws SQLException{ return result.getInt(column(label)); }
+	public long getLong(String label) throws SQLException{ return result.getLong(column(label)); }
+	public double getDouble(String label) throws SQLException{ return result.getDouble(column(label)); }
+	public float getFloat(String label) throws SQLException{ return result.getFloat(column(label)); }
+	public boolean getBoolean(String label) throws SQLException{ return result.getBoolean(column(label)); }
+	public byte[] getBytes(String label) throws SQLException{ return result.getBytes(column(label)); }
+	public Timestamp getTimestamp(String label) throws SQLException{ return result.getTimestamp(column(label)); }
+	
+}
@@ -0,0 +1,20 @@
+package net.amoebaman.amoebautils.sql;
+
+import java.sql.SQLException;
+
+/**
+ * Receives the rows of a streamed query one at a time, as they're read.
+ * 
+ * @author AmoebaMan
+ */
+public interface RowHandler{
+	
+	/**
+	 * Handles a single row. The row is only valid until this method returns.
+	 * 
+	 * @param row the current row
+	 * @throws SQLException if the row can't be read, which ends the query
+	 */
+	public void handle(Row row) throws SQLException;
+	
+}
@@ -0,0 +1,23 @@
+package net.amoebaman.amoebautils.sql;
+
+import java.sql.SQLException;
+
+/**
+ * Turns the rows of a query into objects, one row at a time.
+ * 
+ * @author AmoebaMan
+ * @param <T> the type of object each row becomes
+ */
+public interface RowMapper<T>{
+	
+	/**
+	 * Maps a single row to an object. The row is only valid until this method
+	 * returns, so the object must not keep a reference to it.
+	 * 
+	 * @param row the current row
+	 * @return the object the row represents
+	 * @throws SQLException if the row can't be read, which fails the query
+	 */
+	public T map(Row row) throws SQLException;
+	
+}
@@ -0,0 +1,182 @@
+package net.amoebaman.amoebautils.sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Covers the differences between the databases {@link
+ * net.amoebaman.amoebautils.SQLWrapper SQLWrapper} can talk to: which driver
+ * to load, how to build the JDBC URL, how to select (and create) the
+ * database, and the syntax for statements that aren't standard SQL.
+ * <p>
+ * Batched inserts are rewritten into multi-row inserts, either by the driver,
+ * for dialects that switch that on through the URL they build, or otherwise
+ * by {@link #rewriteBatch(String, int)}.
+ *
+ * @author AmoebaMan
+ */
+public abstract class SQLDialect{
+	
+	/*
+	 * An insert whose only VALUES list is the last thing in it, and is all parameters
+	 */
+	private static final Pattern REWRITABLE = Pattern.compile("^\\s*(?:INSERT|REPLACE|MERGE)\\b.*\\bVALUES\\s*(\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\))\\s*;?\\s*$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	
+	/**
+	 * Gets the fully qualified name of the JDBC driver class, which is loaded
+	 * before the first connection is opened.
+	 * 
+	 * @return the driver class name
+	 */
+	public abstract String getDriverClass();
+	
+	/**
+	 * Builds the JDBC URL to connect to.
+	 * 
+	 * @param url the location of the database, such as a host and port for a
+	 *            server or a directory for a file-backed database
+	 * @param database the name of the database, may be null or empty
+	 * @return the JDBC URL
+	 */
+	public abstract String buildUrl(String url, String database);
+	
+	/**
+	 * Prepares a freshly opened connection for use, selecting the database
+	 * (creating it if needed) and applying any per-connection settings.
+	 * 
+	 * @param connection the connection
+	 * @param database the name of the database, may be null or empty
+	 * @throws SQLException if the connection couldn't be prepared
+	 */
+	public abstract void initialize(Connection connection, String database) throws SQLException;
+	
+	/**
+	 * Builds a statement that inserts a row, or updates the existing row if
+	 * one with the same key is already there. The statement takes one
+	 * argument per column, in the order given.
+	 * 
+	 * @param table the table
+	 * @param keys the columns that make up the table's primary (or a unique)
+	 *            key, which must also be included in the columns
+	 * @param columns the columns to write
+	 * @return the statement
+	 */
+	public abstract String upsert(String table, String[] keys, String... columns);
+	
+	/**
+	 * Gets the fetch size to give a statement whose result is read through a
+	 * {@link Cursor}, so that a large result is fetched from the database a
+	 * few rows at a time instead of all at once. Drivers differ in what they
+	 * need for that, so dialects whose drivers ignore a plain fetch size
+	 * override this (and switch on whatever else is needed in the URL they
+	 * build). By default the configured fetch size is used as-is.
+	 * 
+	 * @param rows the configured fetch size, or 0 if none was set
+	 * @return the fetch size to use, or 0 to let the driver decide
+	 */
+	public int getStreamingFetchSize(int rows){
+		return rows;
+	}
+	
+	/**
+	 * Rewrites a command into one that writes several rows at once, so a
+	 * batch of it can be sent in fewer statements. Dialects whose drivers do
+	 * this themselves return null. By default, inserts that end in a single
+	 * {@code VALUES} list of nothing but parameters, like those built by
+	 * {@link #upsert(String, String[], String...)} for some dialects, get a
+	 * list for each row, and anything else is left alone.
+	 * 
+	 * @param sql a command
+	 * @param rows the number of rows the rewritten command should write
+	 * @return the rewritten command, taking the arguments of each row in
+	 *         turn, or null if it can't be rewritten
+	 */
+	public String rewriteBatch(String sql, int rows){
+		Matcher matcher = REWRITABLE.matcher(sql);
+		if(!matcher.matches())
+			return null;
+		String values = matcher.group(1);
+		StringBuilder rewritten = new StringBuilder(matcher.end(1) + (values.length() + 2) * (rows - 1));
+		rewritten.append(sql, 0, matcher.end(1));
+		for(int i = 1; i < rows; i++)
+			rewritten.append(", ").append(values);
+		return rewritten.toString();
+	}
+	
+	/**
+	 * Gets the most parameters a single statement may have, which caps how
+	 * many rows a {@link #rewriteBatch(String, int) rewritten} command can
+	 * write at once. The default of 999 is the lowest limit of the supported
+	 * databases, SQLite's before version 3.32.
+	 * 
+	 * @return the parameter limit
+	 */
+	public int getMaxParameters(){
+		return 999;
+	}
+	
+	/**
+	 * Builds the start of an insert statement shared by most dialects, in the
+	 * form {@code INSERT INTO table (a, b) VALUES (?, ?)}.
+	 * 
+	 * @param verb the insert verb, such as {@code INSERT INTO}
+	 * @param table the table
+	 * @param columns the columns to write
+	 * @return a builder holding the statement, to append to
+	 */
+	protected static StringBuilder insert(String verb, String table, String... columns){
+		if(columns.length == 0)
+			throw new IllegalArgumentException("an upsert needs at least one column");
+		StringBuilder sql = new StringBuilder(verb).append(' ').append(table).append(" (");
+		join(sql, columns);
+		sql.append(')');
+		return sql;
+	}
+	
+	/**
+	 * Appends a list of parameter placeholders, in the form {@code VALUES (?, ?)}.
+	 * 
+	 * @param sql the statement being built
+	 * @param count the number of placeholders
+	 * @return the same builder
+	 */
+	protected static StringBuilder values(StringBuilder sql, int count){
+		sql.append(" VALUES (");
+		for(int i = 0; i < count; i++)
+			sql.append(i == 0 ? "?" : ", ?");
+		return sql.append(')');
+	}
+	
+	/**
+	 * Appends a comma-separated list of names.
+	 * 
+	 * @param sql the statement being built
+	 * @param names the names
+	 * @return the same builder
+	 */
+	protected static StringBuilder join(StringBuilder sql, String... names){
+		for(int i = 0; i < names.length; i++){
+			if(i > 0)
+				sql.append(", ");
+			sql.append(names[i]);
+		}
+		return sql;
+	}
+	
+	/**
+	 * Checks whether a column is part of the key.
+	 * 
+	 * @param keys the key columns
+	 * @param column a column
+	 * @return true if the column is a key column
+	 */
+	protected static boolean isKey(String[] keys, String column){
+		for(String key : keys)
+			if(key.equalsIgnoreCase(column))
+				return true;
+		return false;
+	}
+	
+}
@@ -0,0 +1,62 @@
+package net.amoebaman.amoebautils.sql;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The dialect for SQLite databases stored in a local file, for when a
+ * separate database server would be overkill. The URL is the directory the
+ * file goes in, and the database name is the name of the file (without the
+ * {@code .db} extension). Credentials are ignored.
+ * <p>
+ * Connections are switched to write-ahead logging so readers don't block
+ * the writer, and wait for locks instead of failing straight away, since
+ * SQLite only allows one writer at a time. Upserts need SQLite 3.24 or later.
+ *
+ * @author AmoebaMan
+ */
+public class SQLiteDialect extends SQLDialect{
+	
+	/** How long, in milliseconds, a connection waits for another one's lock */
+	private static final int BUSY_TIMEOUT = 5000;
+	
+	public String getDriverClass(){
+		return "org.sqlite.JDBC";
+	}
+	
+	public String buildUrl(String url, String database){
+		if(database == null || database.isEmpty())
+			database = "database";
+		File directory = new File(url == null || url.isEmpty() ? "." : url);
+		directory.mkdirs();
+		return "jdbc:sqlite:" + new File(directory, database + ".db").getPath();
+	}
+	
+	public void initialize(Connection connection, String database) throws SQLException{
+		Statement statement = connection.createStatement();
+		try{
+			statement.execute("PRAGMA journal_mode = WAL");
+			statement.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT);
+		}
+		finally{
+			statement.close();
+		}
+	}
+	
+	public String upsert(String table, String[] keys, String... columns){
+		StringBuilder sql = values(insert("INSERT INTO", table, columns), columns.length).append(" ON CONFLICT (");
+		join(sql, keys).append(") DO ");
+		boolean first = true;
+		for(String column : columns)
+			if(!isKey(keys, column)){
+				sql.append(first ? "UPDATE SET " : ", ").append(column).append(" = excluded.").append(column);
+				first = false;
+			}
+		if(first)
+			sql.append("NOTHING");
+		return sql.toString();
+	}
+	
+}
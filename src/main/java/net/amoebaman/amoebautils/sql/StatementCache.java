@@ -0,0 +1,196 @@
+package net.amoebaman.amoebautils.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache of {@link PreparedStatement}s for a single
+ * pooled connection, keyed by their SQL text. Reusing a prepared statement
+ * saves the driver (and usually the server) from parsing the same SQL over
+ * and over, and statements pushed out of the cache are closed rather than
+ * leaked.
+ * <p>
+ * Statements that aren't cached, because the cached one was busy or the
+ * cache was full of busy statements, are remembered along with the result
+ * set they're busy with, and closed once that result set is closed. Those
+ * still open when the cache is cleared are closed with it.
+ * <p>
+ * Like the connection it belongs to, a statement cache must only be used by
+ * the thread currently holding the connection.
+ *
+ * @author AmoebaMan
+ */
+public class StatementCache{
+	
+	private final ConnectionPool pool;
+	private final Connection connection;
+	private final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true);
+	/*
+	 * Statements outside the cache that are still busy with a result set, closed once it is
+	 */
+	private final Map<PreparedStatement, ResultSet> loose = new IdentityHashMap<PreparedStatement, ResultSet>();
+	
+	StatementCache(ConnectionPool pool, Connection connection){
+		this.pool = pool;
+		this.connection = connection;
+	}
+	
+	/**
+	 * Gets a prepared statement for some SQL, reusing a cached statement if
+	 * one is available. Statements taken from the cache have their parameters
+	 * cleared. Every statement obtained from this method should be handed back
+	 * to {@link #release(String, PreparedStatement)} when it's no longer
+	 * needed.
+	 * 
+	 * @param sql some SQL
+	 * @return a prepared statement for the SQL
+	 * @throws SQLException if the statement couldn't be prepared
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException{
+		sweep();
+		CachedStatement cached = statements.get(sql);
+		if(cached != null && !cached.isBusy()){
+			pool.statementHits.incrementAndGet();
+			cached.statement.clearParameters();
+			return cached.statement;
+		}
+		pool.statementMisses.incrementAndGet();
+		PreparedStatement statement = connection.prepareStatement(sql);
+		/*
+		 * If the cached statement is still busy with a result set somebody's reading, leave it be
+		 * and give them a one-off statement instead, re-executing it would close their results
+		 */
+		if(cached == null && pool.getStatementCacheSize() > 0){
+			statements.put(sql, new CachedStatement(statement));
+			trim();
+		}
+		return statement;
+	}
+	
+	/**
+	 * Marks a statement as having an open result set. Until that result set
+	 * is closed, the cached statement won't be handed out again, and a
+	 * statement that isn't cached won't be closed until it is.
+	 * 
+	 * @param sql the SQL the statement was prepared for
+	 * @param statement the statement
+	 * @param result the result set being read from the statement
+	 */
+	public void track(String sql, PreparedStatement statement, ResultSet result){
+		CachedStatement cached = statements.get(sql);
+		if(cached != null && cached.statement == statement)
+			cached.result = result;
+		else
+			loose.put(statement, result);
+	}
+	
+	/**
+	 * Hands a statement back to the cache. Statements that aren't cached are
+	 * closed.
+	 * 
+	 * @param sql the SQL the statement was prepared for
+	 * @param statement the statement
+	 */
+	public void release(String sql, PreparedStatement statement){
+		CachedStatement cached = statements.get(sql);
+		if(cached == null || cached.statement != statement){
+			loose.remove(statement);
+			close(statement);
+		}
+	}
+	
+	/**
+	 * Closes every statement in the cache, along with any busy statements
+	 * outside it.
+	 */
+	public void clear(){
+		for(CachedStatement cached : statements.values())
+			close(cached.statement);
+		statements.clear();
+		for(PreparedStatement statement : loose.keySet())
+			close(statement);
+		loose.clear();
+	}
+	
+	/**
+	 * Gets the number of statements currently cached.
+	 * 
+	 * @return the size of the cache
+	 */
+	public int size(){
+		return statements.size();
+	}
+	
+	private void trim(){
+		int capacity = pool.getStatementCacheSize();
+		Iterator<Map.Entry<String, CachedStatement>> it = statements.entrySet().iterator();
+		while(statements.size() > capacity && it.hasNext()){
+			CachedStatement eldest = it.next().getValue();
+			it.remove();
+			pool.statementEvictions.incrementAndGet();
+			/*
+			 * A busy statement's result set is still being read, so it's closed once that's done
+			 */
+			if(eldest.isBusy())
+				loose.put(eldest.statement, eldest.result);
+			else
+				close(eldest.statement);
+		}
+	}
+	
+	/*
+	 * Closes the statements outside the cache whose result sets have been closed
+	 */
+	private void sweep(){
+		Iterator<Map.Entry<PreparedStatement, ResultSet>> it = loose.entrySet().iterator();
+		while(it.hasNext()){
+			Map.Entry<PreparedStatement, ResultSet> entry = it.next();
+			if(!isOpen(entry.getValue())){
+				PreparedStatement statement = entry.getKey();
+				it.remove();
+				close(statement);
+			}
+		}
+	}
+	
+	private static boolean isOpen(ResultSet result){
+		try{
+			return result != null && !result.isClosed();
+		}
+		catch(SQLException e){
+			return false;
+		}
+	}
+	
+	private static void close(PreparedStatement statement){
+		try{
+			statement.close();
+		}
+		catch(SQLException e){
+			/*
+			 * Nothing more we can do with it
+			 */
+		}
+	}
+	
+	private static class CachedStatement{
+		
+		private final PreparedStatement statement;
+		private ResultSet result;
+		
+		private CachedStatement(PreparedStatement statement){
+			this.statement = statement;
+		}
+		
+		private boolean isBusy(){
+			return isOpen(result);
+		}
+	}
+	
+}
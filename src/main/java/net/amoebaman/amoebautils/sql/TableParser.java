@@ -0,0 +1,438 @@
+package net.amoebaman.amoebautils.sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Picks out the tables a statement reads from or writes to, for the
+ * {@link ResultCache}. It's nowhere near a full SQL parser - it tokenizes the
+ * statement and follows table references through {@code FROM} lists, comma
+ * and {@code JOIN} joins, and the targets of the usual write statements -
+ * but it knows when it's out of its depth, and says so rather than guessing,
+ * so the cache can err on the side of caution.
+ *
+ * @author AmoebaMan
+ */
+final class TableParser{
+	
+	/*
+	 * Words that end a table reference, and so can't be a table's alias
+	 */
+	private static final Set<String> RESERVED = new HashSet<String>(Arrays.asList(
+		"SELECT", "FROM", "WHERE", "GROUP", "ORDER", "HAVING", "LIMIT", "OFFSET", "FETCH", "FOR", "LOCK", "WINDOW",
+		"UNION", "EXCEPT", "INTERSECT", "MINUS", "JOIN", "INNER", "LEFT", "RIGHT", "FULL", "CROSS", "NATURAL", "OUTER",
+		"STRAIGHT_JOIN", "ON", "USING", "SET", "USE", "FORCE", "IGNORE", "INTO", "VALUES", "AS", "PARTITION", "RETURNING",
+		"WITH", "LATERAL", "ONLY"
+	));
+	
+	/*
+	 * Words that start a join, up to and including the JOIN itself
+	 */
+	private static final Set<String> JOINS = new HashSet<String>(Arrays.asList(
+		"JOIN", "STRAIGHT_JOIN", "INNER", "LEFT", "RIGHT", "FULL", "CROSS", "NATURAL", "OUTER"
+	));
+	
+	/*
+	 * Words that end a join condition
+	 */
+	private static final Set<String> CLAUSES = new HashSet<String>(Arrays.asList(
+		"JOIN", "STRAIGHT_JOIN", "INNER", "LEFT", "RIGHT", "FULL", "CROSS", "NATURAL", "WHERE", "GROUP", "ORDER",
+		"HAVING", "LIMIT", "SET", "UNION", "EXCEPT", "INTERSECT", "MINUS", "WINDOW", "FOR", "LOCK", "RETURNING"
+	));
+	
+	private final List<String> tokens;
+	private final List<String> tables = new ArrayList<String>();
+	
+	private TableParser(List<String> tokens){
+		this.tokens = tokens;
+	}
+	
+	/**
+	 * Finds every table a query reads from, including those in joins and
+	 * subqueries.
+	 * 
+	 * @param sql a query
+	 * @return the normalized names of the tables, or null if the statement
+	 *         isn't a query this parser can account for completely
+	 */
+	static List<String> readTables(String sql){
+		List<String> tokens = tokenize(sql);
+		if(tokens == null || tokens.isEmpty() || !(is(tokens.get(0), "SELECT") || is(tokens.get(0), "WITH") || tokens.get(0).equals("(")))
+			return null;
+		TableParser parser = new TableParser(tokens);
+		for(int i = 0; i < tokens.size(); i++)
+			if(is(tokens.get(i), "FROM")){
+				/*
+				 * FROM also turns up inside some functions, like EXTRACT(YEAR FROM date) or SUBSTRING(s FROM 2)
+				 */
+				if(i + 1 < tokens.size() && isLiteral(tokens.get(i + 1)))
+					continue;
+				if(parser.references(i + 1) < 0)
+					return null;
+			}
+		return parser.result();
+	}
+	
+	/**
+	 * Finds every table a command may write to. For statements that write to
+	 * one of several joined tables, all of them are included.
+	 * 
+	 * @param sql a command
+	 * @return the normalized names of the tables, or null if the command isn't
+	 *         one this parser can account for completely
+	 */
+	static List<String> writeTables(String sql){
+		List<String> tokens = tokenize(sql);
+		if(tokens == null || tokens.isEmpty())
+			return null;
+		TableParser parser = new TableParser(tokens);
+		return parser.write() ? parser.result() : null;
+	}
+	
+	/**
+	 * Normalizes a table name, stripping its quotes, schema and any trailing
+	 * {@code .*}, and folding it to lower case.
+	 * 
+	 * @param table a table name, as written in SQL
+	 * @return the normalized name
+	 */
+	static String normalize(String table){
+		table = table.replace("`", "").replace("\"", "");
+		if(table.endsWith(".*"))
+			table = table.substring(0, table.length() - 2);
+		return table.substring(table.lastIndexOf('.') + 1).toLowerCase(Locale.ENGLISH);
+	}
+	
+	private List<String> result(){
+		return Collections.unmodifiableList(tables);
+	}
+	
+	private boolean write(){
+		String verb = token(0);
+		int pos = 1;
+		if(is(verb, "INSERT") || is(verb, "REPLACE")){
+			pos = skip(pos, "LOW_PRIORITY", "DELAYED", "HIGH_PRIORITY", "IGNORE");
+			if(is(token(pos), "OR"))
+				pos += 2;
+			if(is(token(pos), "INTO"))
+				pos++;
+			return table(pos) >= 0;
+		}
+		if(is(verb, "MERGE"))
+			return is(token(pos), "INTO") && table(pos + 1) >= 0;
+		if(is(verb, "UPDATE")){
+			pos = skip(pos, "LOW_PRIORITY", "IGNORE");
+			if(is(token(pos), "OR"))
+				pos += 2;
+			pos = references(pos);
+			return pos >= 0 && is(token(pos), "SET");
+		}
+		if(is(verb, "DELETE")){
+			pos = skip(pos, "LOW_PRIORITY", "QUICK", "IGNORE");
+			if(!is(token(pos), "FROM")){
+				/*
+				 * The multi-table form names the tables to delete from before the FROM
+				 */
+				while(true){
+					String target = token(pos);
+					if(!isName(target))
+						return false;
+					if(!tables.contains(normalize(target)))
+						tables.add(normalize(target));
+					if(!token(++pos).equals(","))
+						break;
+					pos++;
+				}
+				if(!is(token(pos), "FROM"))
+					return false;
+			}
+			pos = references(pos + 1);
+			if(pos >= 0 && is(token(pos), "USING"))
+				pos = references(pos + 1);
+			return pos >= 0;
+		}
+		if(is(verb, "TRUNCATE"))
+			return table(is(token(pos), "TABLE") ? pos + 1 : pos) >= 0;
+		if(is(verb, "ALTER")){
+			pos = skip(pos, "ONLINE", "OFFLINE", "IGNORE");
+			return is(token(pos), "TABLE") && table(pos + 1) >= 0;
+		}
+		if(is(verb, "CREATE")){
+			pos = skip(pos, "OR", "REPLACE", "TEMPORARY", "GLOBAL", "LOCAL", "CACHED", "MEMORY");
+			if(!is(token(pos), "TABLE"))
+				return false;
+			pos++;
+			if(is(token(pos), "IF") && is(token(pos + 1), "NOT") && is(token(pos + 2), "EXISTS"))
+				pos += 3;
+			return table(pos) >= 0;
+		}
+		if(is(verb, "DROP")){
+			pos = skip(pos, "TEMPORARY");
+			if(!is(token(pos), "TABLE"))
+				return false;
+			pos++;
+			if(is(token(pos), "IF") && is(token(pos + 1), "EXISTS"))
+				pos += 2;
+			while((pos = table(pos)) >= 0 && token(pos).equals(","))
+				pos++;
+			return pos >= 0;
+		}
+		if(is(verb, "RENAME")){
+			if(!is(token(pos), "TABLE"))
+				return false;
+			pos++;
+			while((pos = table(pos)) >= 0 && is(token(pos), "TO") && (pos = table(pos + 1)) >= 0 && token(pos).equals(","))
+				pos++;
+			return pos >= 0;
+		}
+		return false;
+	}
+	
+	/*
+	 * Reads a list of table references, with their joins, and returns where it ends or -1 if it couldn't
+	 */
+	private int references(int pos){
+		while(true){
+			pos = factor(pos);
+			while(pos >= 0 && JOINS.contains(upper(token(pos)))){
+				while(!is(token(pos), "JOIN") && !is(token(pos), "STRAIGHT_JOIN"))
+					if(!JOINS.contains(upper(token(pos++))))
+						return -1;
+				pos = factor(pos + 1);
+				if(pos >= 0 && is(token(pos), "ON"))
+					pos = condition(pos + 1);
+				else if(pos >= 0 && is(token(pos), "USING"))
+					pos = parentheses(pos + 1);
+			}
+			if(pos < 0 || !token(pos).equals(","))
+				return pos;
+			pos++;
+		}
+	}
+	
+	/*
+	 * Reads a single table, subquery or parenthesized join, with its alias and any index hints
+	 */
+	private int factor(int pos){
+		if(token(pos).equals("(")){
+			String first = token(pos + 1);
+			/*
+			 * Subqueries are found by the scan for FROM, so only joins need reading here
+			 */
+			if(is(first, "SELECT") || is(first, "WITH"))
+				pos = parentheses(pos);
+			else{
+				pos = references(pos + 1);
+				if(pos < 0 || !token(pos).equals(")"))
+					return -1;
+				pos++;
+			}
+		}
+		else{
+			/*
+			 * Table functions could read from anything
+			 */
+			if(token(pos + 1).equals("("))
+				return -1;
+			pos = table(pos);
+			if(pos < 0)
+				return -1;
+			if(is(token(pos), "PARTITION"))
+				pos = parentheses(pos + 1);
+		}
+		if(pos < 0)
+			return -1;
+		if(is(token(pos), "AS"))
+			return isName(token(pos + 1)) ? hints(pos + 2) : -1;
+		if(isName(token(pos)) && !RESERVED.contains(upper(token(pos))))
+			pos++;
+		return hints(pos);
+	}
+	
+	/*
+	 * Skips MySQL's index hints, like USE INDEX (a) or FORCE KEY FOR JOIN (b)
+	 */
+	private int hints(int pos){
+		while((is(token(pos), "USE") || is(token(pos), "FORCE") || is(token(pos), "IGNORE")) && (is(token(pos + 1), "INDEX") || is(token(pos + 1), "KEY"))){
+			pos += 2;
+			if(is(token(pos), "FOR"))
+				pos += is(token(pos + 1), "JOIN") ? 2 : 3;
+			pos = parentheses(pos);
+			if(pos < 0)
+				return -1;
+			if(token(pos).equals(",") && (is(token(pos + 1), "USE") || is(token(pos + 1), "FORCE") || is(token(pos + 1), "IGNORE")))
+				pos++;
+		}
+		return pos;
+	}
+	
+	/*
+	 * Reads a table name
+	 */
+	private int table(int pos){
+		String name = token(pos);
+		if(!isName(name) || RESERVED.contains(upper(name)))
+			return -1;
+		if(!tables.contains(normalize(name)))
+			tables.add(normalize(name));
+		return pos + 1;
+	}
+	
+	/*
+	 * Skips a join condition, which ends at the next clause, join, comma or closing parenthesis
+	 */
+	private int condition(int pos){
+		while(pos < tokens.size()){
+			String token = tokens.get(pos);
+			if(token.equals("("))
+				pos = parentheses(pos);
+			else if(token.equals(",") || token.equals(")") || token.equals(";") || CLAUSES.contains(upper(token)))
+				return pos;
+			else
+				pos++;
+			if(pos < 0)
+				return -1;
+		}
+		return pos;
+	}
+	
+	/*
+	 * Skips a parenthesized list, returning where it ends or -1 if it doesn't
+	 */
+	private int parentheses(int pos){
+		if(!token(pos).equals("("))
+			return -1;
+		int depth = 0;
+		for(; pos < tokens.size(); pos++)
+			if(tokens.get(pos).equals("("))
+				depth++;
+			else if(tokens.get(pos).equals(")") && --depth == 0)
+				return pos + 1;
+		return -1;
+	}
+	
+	private int skip(int pos, String... words){
+		while(true){
+			boolean skipped = false;
+			for(String word : words)
+				if(is(token(pos), word)){
+					pos++;
+					skipped = true;
+				}
+			if(!skipped)
+				return pos;
+		}
+	}
+	
+	private String token(int pos){
+		return pos >= 0 && pos < tokens.size() ? tokens.get(pos) : "";
+	}
+	
+	/*
+	 * Splits a single statement into words, quoted names, punctuation and literals, dropping comments.
+	 * Literal strings and numbers all become a lone quote, as nothing here cares what they say.
+	 */
+	private static List<String> tokenize(String sql){
+		List<String> tokens = new ArrayList<String>();
+		int length = sql.length();
+		for(int i = 0; i < length;){
+			char c = sql.charAt(i);
+			if(Character.isWhitespace(c))
+				i++;
+			else if(c == '-' && i + 1 < length && sql.charAt(i + 1) == '-' || c == '#'){
+				while(i < length && sql.charAt(i) != '\n')
+					i++;
+			}
+			else if(c == '/' && i + 1 < length && sql.charAt(i + 1) == '*'){
+				int end = sql.indexOf("*/", i + 2);
+				if(end < 0)
+					return null;
+				i = end + 2;
+			}
+			else if(c == '\''){
+				for(i++; i < length; i++)
+					if(sql.charAt(i) == '\\')
+						i++;
+					else if(sql.charAt(i) == '\''){
+						if(i + 1 < length && sql.charAt(i + 1) == '\'')
+							i++;
+						else
+							break;
+					}
+				if(i >= length)
+					return null;
+				i++;
+				tokens.add("'");
+			}
+			else if(Character.isDigit(c)){
+				while(i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.'))
+					i++;
+				tokens.add("'");
+			}
+			else if(c == '`' || c == '"' || isNameChar(c)){
+				/*
+				 * A name, possibly qualified, with any of its parts quoted
+				 */
+				int start = i;
+				while(true){
+					char part = sql.charAt(i);
+					if(part == '`' || part == '"'){
+						int end = sql.indexOf(part, i + 1);
+						if(end < 0)
+							return null;
+						i = end + 1;
+					}
+					else if(part == '*')
+						i++;
+					else
+						while(i < length && isNameChar(sql.charAt(i)))
+							i++;
+					if(i + 1 < length && sql.charAt(i) == '.' && (sql.charAt(i + 1) == '`' || sql.charAt(i + 1) == '"' || sql.charAt(i + 1) == '*' || isNameChar(sql.charAt(i + 1))))
+						i++;
+					else
+						break;
+				}
+				tokens.add(sql.substring(start, i));
+			}
+			else{
+				tokens.add(String.valueOf(c));
+				i++;
+			}
+		}
+		/*
+		 * Only a single statement can be accounted for
+		 */
+		while(!tokens.isEmpty() && tokens.get(tokens.size() - 1).equals(";"))
+			tokens.remove(tokens.size() - 1);
+		return tokens.contains(";") ? null : tokens;
+	}
+	
+	private static boolean isNameChar(char c){
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+	}
+	
+	private static boolean isName(String token){
+		if(token.isEmpty())
+			return false;
+		char c = token.charAt(0);
+		return c == '`' || c == '"' || Character.isLetter(c) || c == '_' || c == '$';
+	}
+	
+	private static boolean isLiteral(String token){
+		return token.equals("'") || token.equals("?");
+	}
+	
+	private static boolean is(String token, String word){
+		return token.equalsIgnoreCase(word);
+	}
+	
+	private static String upper(String token){
+		return token.toUpperCase(Locale.ENGLISH);
+	}
+	
+}
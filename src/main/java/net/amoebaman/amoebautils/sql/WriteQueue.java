@@ -0,0 +1,391 @@
+package net.amoebaman.amoebautils.sql;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A bounded write-behind queue for SQL commands. Commands are collected by a
+ * single background thread and handed to a {@link BatchWriter} in groups,
+ * either once enough of them have piled up or once the oldest of them has
+ * waited for the flush window, whichever comes first.
+ * <p>
+ * Consecutive commands that share the same SQL text are coalesced into a
+ * single {@link Batch}, so they can be sent with one JDBC batch instead of
+ * one round trip each. Commands are never reordered - only runs of the same
+ * command are merged.
+ * <p>
+ * Each group holds at most as many commands as it takes to trigger a flush,
+ * so no transaction grows past that size however far behind the queue is.
+ * Commands the writer couldn't write go back to the front of the queue to be
+ * tried again, but a command that fails {@link #MAX_ATTEMPTS} times is given
+ * up on and reported to the logger, rather than holding up everything behind
+ * it forever.
+ * <p>
+ * When the queue is full, threads adding to it wait until there's room again,
+ * rather than letting the backlog grow without limit. Commands that are being
+ * written still count against the capacity until they're done with, so the
+ * backlog stays bounded while the writer is struggling too.
+ *
+ * @author AmoebaMan
+ */
+public class WriteQueue{
+	
+	/**
+	 * Writes groups of queued commands to the database.
+	 */
+	public static interface BatchWriter{
+		
+		/**
+		 * Writes a group of batched commands. Implementations should write them
+		 * all in one transaction.
+		 * 
+		 * @param batches the batches to write, in the order they were queued
+		 * @return how many of the commands were dealt with, counting from the
+		 *         first - any after them couldn't be written right now, and
+		 *         will be retried later, and the first of those counts as a
+		 *         failed attempt to write it - or a negative number if none of
+		 *         them could even be attempted, such as when the database
+		 *         can't be reached
+		 */
+		public int write(List<Batch> batches);
+	}
+	
+	/**
+	 * A run of queued commands sharing the same SQL text.
+	 */
+	public static class Batch{
+		
+		/** The SQL text of the commands */
+		public final String sql;
+		
+		/** The arguments of each command, in order */
+		public final List<Object[]> args = new ArrayList<Object[]>();
+		
+		private Batch(String sql){
+			this.sql = sql;
+		}
+	}
+	
+	/** How long to wait, by default, before retrying a group the writer couldn't write */
+	private static final long RETRY_DELAY = 1000;
+	
+	/** How many times a command may fail to be written before it's given up on */
+	public static final int MAX_ATTEMPTS = 5;
+	
+	private final BatchWriter writer;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition(), notFull = lock.newCondition();
+	private final Thread flusher;
+	
+	/*
+	 * Guarded by the lock
+	 */
+	private final ArrayDeque<Write> queue = new ArrayDeque<Write>();
+	private boolean shutdown = false;
+	private int dropped = 0, writing = 0;
+	
+	private volatile int capacity, batchSize;
+	private volatile long flushWindow, retryDelay = RETRY_DELAY;
+	private volatile Logger logger;
+	
+	private final AtomicLong queued = new AtomicLong(), written = new AtomicLong(), flushes = new AtomicLong(), stalls = new AtomicLong(), abandoned = new AtomicLong();
+	
+	/**
+	 * Constructs a write queue and starts its background thread.
+	 * 
+	 * @param writer the writer that will receive batches of commands
+	 * @param capacity the maximum number of commands that can be waiting at once
+	 * @param batchSize the number of waiting commands that triggers an
+	 *            immediate flush
+	 * @param flushWindow the longest time, in milliseconds, a command will wait
+	 *            before being flushed
+	 */
+	public WriteQueue(BatchWriter writer, int capacity, int batchSize, long flushWindow){
+		if(writer == null)
+			throw new IllegalArgumentException("writer must not be null");
+		this.writer = writer;
+		setCapacity(capacity);
+		setBatching(batchSize, flushWindow);
+		flusher = new ThreadFactoryBuilder().setNameFormat("SQL-Write-Queue-%d").setDaemon(true).build().newThread(new Runnable(){
+			
+			public void run(){
+				flushLoop();
+			}
+		});
+		flusher.start();
+	}
+	
+	/**
+	 * Adds a command to the queue. If the queue is full, this waits until
+	 * there's room for it.
+	 * 
+	 * @param sql the SQL text of the command
+	 * @param args the arguments for the command
+	 * @return true if the command was queued, or false if the queue has been
+	 *         shut down and the command should be executed directly
+	 * @throws InterruptedException if interrupted while waiting for room
+	 */
+	public boolean add(String sql, Object[] args) throws InterruptedException{
+		lock.lock();
+		try{
+			if(queue.size() + writing >= capacity)
+				stalls.incrementAndGet();
+			while(!shutdown && queue.size() + writing >= capacity)
+				notFull.await();
+			if(shutdown)
+				return false;
+			queue.addLast(new Write(sql, args));
+			queued.incrementAndGet();
+			if(queue.size() == 1 || queue.size() >= batchSize)
+				notEmpty.signal();
+			return true;
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Stops accepting commands, flushes everything still waiting in the queue,
+	 * and waits for the background thread to finish.
+	 * 
+	 * @return the number of commands that had to be dropped because the writer
+	 *         couldn't write them
+	 */
+	public int shutdown(){
+		lock.lock();
+		try{
+			shutdown = true;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		}
+		finally{
+			lock.unlock();
+		}
+		boolean interrupted = false;
+		while(flusher.isAlive())
+			try{
+				flusher.join();
+			}
+			catch(InterruptedException e){
+				interrupted = true;
+			}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+		lock.lock();
+		try{
+			return dropped;
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+	
+	private void flushLoop(){
+		boolean retrying = false;
+		while(true){
+			List<Write> drained = new ArrayList<Write>();
+			boolean last;
+			lock.lock();
+			try{
+				while(queue.isEmpty() && !shutdown)
+					notEmpty.awaitUninterruptibly();
+				if(queue.isEmpty())
+					return;
+				/*
+				 * Give the batch until the oldest command's window runs out to fill up, unless it's being retried,
+				 * in which case it's already waited long enough
+				 */
+				long deadline = queue.peekFirst().queuedAt + TimeUnit.MILLISECONDS.toNanos(flushWindow);
+				long remaining;
+				while(!shutdown && !retrying && queue.size() < batchSize && (remaining = deadline - System.nanoTime()) > 0)
+					try{
+						notEmpty.awaitNanos(remaining);
+					}
+					catch(InterruptedException e){
+						/*
+						 * Nobody but us should be interrupting this thread, just flush early
+						 */
+						break;
+					}
+				/*
+				 * Anything past the batch size waits for the next go, and is flushed right after this one
+				 */
+				for(int i = batchSize; i > 0 && !queue.isEmpty(); i--)
+					drained.add(queue.pollFirst());
+				writing = drained.size();
+				retrying = false;
+				last = shutdown;
+			}
+			finally{
+				lock.unlock();
+			}
+			
+			int result = writer.write(coalesce(drained));
+			int handled = Math.max(0, Math.min(drained.size(), result));
+			if(handled > 0){
+				written.addAndGet(handled);
+				flushes.incrementAndGet();
+			}
+			List<Write> rest = drained.subList(handled, drained.size());
+			/*
+			 * If the writer got as far as trying it, the first command it couldn't write is the one that failed
+			 */
+			Write failed = null;
+			if(result >= 0 && !rest.isEmpty() && ++rest.get(0).attempts >= MAX_ATTEMPTS){
+				failed = rest.get(0);
+				rest = rest.subList(1, rest.size());
+				abandoned.incrementAndGet();
+				Logger logger = this.logger;
+				if(logger != null)
+					logger.warning("[SQL] Gave up on a queued command after " + MAX_ATTEMPTS + " failed attempts to write it: " + failed.sql);
+			}
+			
+			lock.lock();
+			try{
+				writing = 0;
+				notFull.signalAll();
+				if(rest.isEmpty())
+					continue;
+				if(last){
+					dropped += rest.size();
+					continue;
+				}
+				/*
+				 * Put them back at the front, in their original order, and try again in a bit - they were
+				 * counted against the capacity all along, so there's still room for them
+				 */
+				for(int i = rest.size() - 1; i >= 0; i--)
+					queue.addFirst(rest.get(i));
+				retrying = true;
+				if(failed == null)
+					notEmpty.await(retryDelay, TimeUnit.MILLISECONDS);
+			}
+			catch(InterruptedException e){
+				/*
+				 * Same as above, just try again right away
+				 */
+			}
+			finally{
+				lock.unlock();
+			}
+		}
+	}
+	
+	private static List<Batch> coalesce(List<Write> writes){
+		List<Batch> batches = new ArrayList<Batch>();
+		Batch current = null;
+		for(Write write : writes){
+			if(current == null || !current.sql.equals(write.sql)){
+				current = new Batch(write.sql);
+				batches.add(current);
+			}
+			current.args.add(write.args);
+		}
+		return batches;
+	}
+	
+	/**
+	 * Sets the maximum number of commands that can be waiting in the queue at
+	 * once. Threads adding commands to a full queue will wait for room.
+	 * 
+	 * @param capacity the capacity of the queue
+	 */
+	public void setCapacity(int capacity){
+		if(capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+		lock.lock();
+		try{
+			this.capacity = capacity;
+			notFull.signalAll();
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Sets when the queue is flushed. The queue is flushed as soon as it holds
+	 * the given number of commands, or as soon as its oldest command has waited
+	 * for the flush window, whichever comes first.
+	 * 
+	 * @param batchSize the number of waiting commands that triggers a flush
+	 * @param flushWindow the longest time, in milliseconds, a command will wait
+	 */
+	public void setBatching(int batchSize, long flushWindow){
+		if(batchSize < 1 || flushWindow < 0)
+			throw new IllegalArgumentException("batch size must be positive and flush window must not be negative");
+		this.batchSize = batchSize;
+		this.flushWindow = flushWindow;
+	}
+	
+	/**
+	 * Sets how long to wait before trying again to write commands the writer
+	 * couldn't write.
+	 * 
+	 * @param millis the retry delay in milliseconds
+	 */
+	public void setRetryDelay(long millis){
+		if(millis < 0)
+			throw new IllegalArgumentException("retry delay must not be negative");
+		retryDelay = millis;
+	}
+	
+	/**
+	 * Sets the logger commands that are given up on are reported to.
+	 * 
+	 * @param logger the logger, or null to stop reporting
+	 */
+	public void setLogger(Logger logger){
+		this.logger = logger;
+	}
+	
+	/**
+	 * Gets the number of commands currently waiting to be written, including
+	 * any being written right now.
+	 * 
+	 * @return the number of pending commands
+	 */
+	public int getPendingCount(){
+		lock.lock();
+		try{
+			return queue.size() + writing;
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+	
+	/** @return the number of commands that have been queued */
+	public long getQueuedCount(){ return queued.get(); }
+	/** @return the number of commands that have been written */
+	public long getWrittenCount(){ return written.get(); }
+	/** @return the number of groups of commands that have been written */
+	public long getFlushCount(){ return flushes.get(); }
+	/** @return the number of times a thread had to wait for room in a full queue */
+	public long getStallCount(){ return stalls.get(); }
+	/** @return the number of commands given up on after failing {@link #MAX_ATTEMPTS} times */
+	public long getAbandonedCount(){ return abandoned.get(); }
+	
+	private static class Write{
+		
+		private final String sql;
+		private final Object[] args;
+		private final long queuedAt = System.nanoTime();
+		private int attempts = 0;
+		
+		private Write(String sql, Object[] args){
+			this.sql = sql;
+			this.args = args;
+		}
+	}
+	
+}
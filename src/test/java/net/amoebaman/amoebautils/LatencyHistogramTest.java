@@ -0,0 +1,51 @@
+package net.amoebaman.amoebautils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest{
+	
+	@Test
+	public void testBucketsCoverTheirValues(){
+		long[] values = {0, 1, 31, 32, 33, 63, 64, 1000, 123456789, Long.MAX_VALUE};
+		for(long value : values){
+			int index = LatencyHistogram.index(value);
+			assertTrue("bucket for " + value + " reaches it", LatencyHistogram.highest(index) >= value);
+			if(index > 0)
+				assertTrue("previous bucket for " + value + " stops short of it", LatencyHistogram.highest(index - 1) < value);
+		}
+	}
+	
+	@Test
+	public void testPercentiles(){
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(long i = 1; i <= 1000; i++)
+			histogram.record(i * 1000);
+		
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000000, histogram.getMax());
+		assertEquals(500500, histogram.getMean());
+		assertEquals(500000, histogram.getPercentile(50), 500000 * 0.04);
+		assertEquals(990000, histogram.getPercentile(99), 990000 * 0.04);
+		assertEquals(1000000, histogram.getPercentile(100));
+	}
+	
+	@Test
+	public void testReset(){
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(5000, 10);
+		assertEquals(10, histogram.getCount());
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(99));
+	}
+	
+	@Test
+	public void testFormat(){
+		assertEquals("1.234ms", LatencyHistogram.format(1234567));
+		assertEquals("0.005ms", LatencyHistogram.format(5000));
+	}
+	
+}
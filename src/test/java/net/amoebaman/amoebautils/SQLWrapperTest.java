@@ -0,0 +1,187 @@
+package net.amoebaman.amoebautils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import net.amoebaman.amoebautils.sql.ConnectionPool;
+import net.amoebaman.amoebautils.sql.FakeDatabase;
+import net.amoebaman.amoebautils.sql.PooledConnection;
+import net.amoebaman.amoebautils.sql.SQLiteDialect;
+import net.amoebaman.amoebautils.sql.WriteQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SQLWrapperTest{
+	
+	private static final String SELECT = "SELECT value FROM things";
+	private static final String UPDATE = "UPDATE things SET value = ?";
+	
+	private FakeDatabase db;
+	private SQLWrapper sql;
+	
+	@Before
+	public void setUp(){
+		db = new FakeDatabase();
+		db.results.put(SELECT, Arrays.<Object>asList("a", "b"));
+		sql = new SQLWrapper("localhost", null, "user", "none"){
+			
+			protected Connection openConnection() throws SQLException{
+				return db.open();
+			}
+		};
+		sql.setErrorSuppression(true);
+	}
+	
+	@After
+	public void tearDown(){
+		sql.disconnect();
+	}
+	
+	@Test
+	public void testLeakedResultDoesNotPinConnection() throws Exception{
+		final ConnectionPool pool = sql.getConnectionPool();
+		ResultSet leaked = sql.executeQuery(SELECT);
+		assertNotNull(leaked);
+		assertEquals("the connection went back before the result was read", 0, pool.getActiveCount());
+		assertFalse("so did the statement", db.statements(SELECT).get(0).isBusy());
+		
+		final AtomicReference<Connection> borrowed = new AtomicReference<Connection>();
+		Thread other = new Thread(){
+			
+			public void run(){
+				try{
+					PooledConnection connection = pool.borrow();
+					borrowed.set(connection.getConnection());
+					connection.release();
+				}
+				catch(SQLException e){
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		other.start();
+		other.join();
+		assertSame("another thread can have it while the result is still open", db.connections.get(0).mock, borrowed.get());
+		
+		assertTrue(leaked.next());
+		assertEquals("a", leaked.getObject("VALUE"));
+		assertEquals("a", leaked.getString(1));
+		assertTrue(leaked.next());
+		assertFalse(leaked.next());
+		assertNotNull("the same thread can query again without closing it", sql.executeQuery(SELECT));
+		assertEquals(1, db.connections.size());
+	}
+	
+	@Test
+	public void testTransformReleasesConnection(){
+		SQLWrapper.RSListMap rows = sql.transformRS(sql.executeQuery(SELECT), "value");
+		assertEquals(2, rows.size());
+		assertEquals("b", rows.get(1).get("value"));
+		assertEquals(0, sql.getConnectionPool().getActiveCount());
+		assertFalse("the cached statement is kept for next time", db.statements(SELECT).get(0).closed);
+	}
+	
+	@Test
+	public void testAsyncCommandsSurviveOutage() throws Exception{
+		db.down = true;
+		sql.executeCommandAsync(UPDATE, 1);
+		sql.executeCommandAsync(UPDATE, 2);
+		Thread.sleep(200);
+		assertEquals("nothing was written while the server was down", 0, db.written.size());
+		assertEquals(2, sql.getWriteQueue().getPendingCount());
+		
+		db.down = false;
+		for(int i = 0; i < 100 && db.written.size() < 2; i++)
+			Thread.sleep(50);
+		assertEquals(Arrays.asList(UPDATE + " [1]", UPDATE + " [2]"), db.written);
+	}
+	
+	@Test
+	public void testBadCommandDoesNotSinkItsBatch(){
+		db.broken = "UPDATE nothing";
+		sql.executeCommandAsync(UPDATE, 1);
+		sql.executeCommandAsync("UPDATE nothing");
+		sql.executeCommandAsync(UPDATE, 2);
+		sql.disconnect();
+		assertEquals(Arrays.asList(UPDATE + " [1]", UPDATE + " [2]"), db.written);
+		assertEquals(1, sql.getMetrics().getStats("UPDATE nothing").getErrorCount());
+	}
+	
+	@Test
+	public void testCommandThatKeepsFailingIsGivenUpOn() throws Exception{
+		db.poisoned = "UPDATE everything";
+		sql.executeCommandAsync(UPDATE, 1);
+		sql.getWriteQueue().setRetryDelay(10);
+		sql.executeCommandAsync("UPDATE everything");
+		sql.executeCommandAsync(UPDATE, 2);
+		for(int i = 0; i < 100 && db.written.size() < 2; i++)
+			Thread.sleep(50);
+		
+		assertEquals(Arrays.asList(UPDATE + " [1]", UPDATE + " [2]"), db.written);
+		assertEquals(1, sql.getWriteQueue().getAbandonedCount());
+		assertEquals(WriteQueue.MAX_ATTEMPTS, sql.getMetrics().getStats("UPDATE everything").getErrorCount());
+	}
+	
+	@Test
+	public void testAsyncInsertsAreRewritten(){
+		sql.disconnect();
+		sql = new SQLWrapper(new SQLiteDialect(), null, null, null, null){
+			
+			protected Connection openConnection() throws SQLException{
+				return db.open();
+			}
+		};
+		sql.setWriteBatching(7, 10000);
+		for(int i = 1; i <= 7; i++)
+			sql.executeCommandAsync("INSERT INTO t (a, b) VALUES (?, ?)", i, -i);
+		sql.disconnect();
+		
+		assertEquals(Arrays.asList(
+			"INSERT INTO t (a, b) VALUES (?, ?), (?, ?), (?, ?), (?, ?) [1, -1, 2, -2, 3, -3, 4, -4]",
+			"INSERT INTO t (a, b) VALUES (?, ?), (?, ?) [5, -5, 6, -6]",
+			"INSERT INTO t (a, b) VALUES (?, ?) [7, -7]"
+		), db.written);
+		assertEquals(7, sql.getMetrics().getStats("INSERT INTO t (a, b) VALUES (?, ?)").getLatency().getCount());
+	}
+	
+	@Test
+	public void testDisconnectReportsDroppedCommands(){
+		final List<String> logged = Collections.synchronizedList(new ArrayList<String>());
+		Logger logger = Logger.getAnonymousLogger();
+		logger.setUseParentHandlers(false);
+		logger.addHandler(new Handler(){
+			
+			public void publish(LogRecord record){
+				logged.add(record.getMessage());
+			}
+			
+			public void flush(){}
+			
+			public void close(){}
+		});
+		sql.setLogger(logger);
+		
+		db.down = true;
+		sql.executeCommandAsync(UPDATE, 1);
+		sql.disconnect();
+		assertTrue(logged.contains("[SQL] Dropped 1 queued commands that could not be written before disconnecting"));
+	}
+	
+}
@@ -0,0 +1,103 @@
+package net.amoebaman.amoebautils.chat;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Server;
+import org.bukkit.command.ConsoleCommandSender;
+import org.bukkit.entity.Player;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class ChatTest{
+	
+	private static Server server;
+	private static ChatTransport original;
+	
+	private final ChatTransport transport = Mockito.mock(ChatTransport.class);
+	private final Object packet = new Object();
+	private final Player alice = Mockito.mock(Player.class), bob = Mockito.mock(Player.class);
+	private final ConsoleCommandSender console = Mockito.mock(ConsoleCommandSender.class);
+	private final Message json = new Message().then("hi").command("/hi");
+	
+	@BeforeClass
+	public static void setUpServer(){
+		server = MessageTest.mockServer();
+		original = Chat.getTransport();
+	}
+	
+	@Before
+	public void setUp() throws Exception{
+		Mockito.when(transport.prepare(Mockito.anyString())).thenReturn(packet);
+		Mockito.when(alice.hasPermission("chat.see")).thenReturn(true);
+		Mockito.doReturn(Arrays.asList(alice, bob)).when(server).getOnlinePlayers();
+		Mockito.when(server.getConsoleSender()).thenReturn(console);
+		Chat.setTransport(transport);
+	}
+	
+	@After
+	public void tearDown(){
+		Chat.setTransport(original);
+	}
+	
+	@Test
+	public void testFallsBackToSpigotTransport(){
+		assertTrue("there are no server internals here to send packets with", original instanceof SpigotTransport);
+		try{
+			Chat.setTransport(null);
+			fail("there must always be a transport");
+		}
+		catch(IllegalArgumentException e){
+			/*
+			 * Expected
+			 */
+		}
+	}
+	
+	@Test
+	public void testSendUsesTheTransport() throws Exception{
+		Chat.send(alice, json, "plain");
+		Mockito.verify(transport).prepare(json.getJson());
+		Mockito.verify(transport).send(alice, packet);
+		Mockito.verify(alice).sendMessage("plain");
+		
+		Chat.send(console, json);
+		Mockito.verify(console).sendMessage(json.getText());
+	}
+	
+	@Test
+	public void testBroadcastPreparesOnce() throws Exception{
+		Chat.broadcast(json, "plain");
+		Mockito.verify(transport, Mockito.times(1)).prepare(Mockito.anyString());
+		Mockito.verify(transport).send(alice, packet);
+		Mockito.verify(transport).send(bob, packet);
+		Mockito.verify(bob).sendMessage("plain");
+		Mockito.verify(console).sendMessage(json.getText());
+		Mockito.verify(console).sendMessage("plain");
+	}
+	
+	@Test
+	public void testBroadcastToFiltersPlayers() throws Exception{
+		Chat.broadcastTo(Chat.hasPermission("chat.see"), json);
+		Mockito.verify(transport, Mockito.times(1)).prepare(Mockito.anyString());
+		Mockito.verify(transport).send(alice, packet);
+		Mockito.verify(transport, Mockito.never()).send(bob, packet);
+		Mockito.verify(console, Mockito.never()).sendMessage(Mockito.anyString());
+	}
+	
+	@Test
+	public void testFailedSendFallsBackToText() throws Exception{
+		Mockito.doThrow(new IllegalStateException("no connection")).when(transport).send(bob, packet);
+		Chat.broadcast(json);
+		Mockito.verify(transport).send(alice, packet);
+		Mockito.verify(bob).sendMessage(ChatColor.RESET + "hi");
+		Mockito.verify(alice, Mockito.never()).sendMessage(Mockito.anyString());
+	}
+	
+}
@@ -0,0 +1,74 @@
+package net.amoebaman.amoebautils.chat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.bukkit.ChatColor;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MessageTemplateTest{
+	
+	@BeforeClass
+	public static void setUpServer(){
+		MessageTest.mockServer();
+	}
+	
+	@Test
+	public void testFillsPlaceholdersEverywhere(){
+		MessageTemplate template = new Message().then("{0} joined").command("/tp {0}").tooltip("Teleport to {0}").compile();
+		MessageTemplate.Rendered rendered = template.render("Bob");
+		assertTrue(rendered.usesJson());
+		assertEquals("[\"\",{\"text\":\"Bob joined\",\"clickEvent\":{\"action\":\"run_command\",\"value\":\"/tp Bob\"},"
+			+ "\"hoverEvent\":{\"action\":\"show_text\",\"value\":\"Teleport to Bob\"}}]", rendered.getJson());
+		assertEquals(ChatColor.RESET + "Bob joined", rendered.getText());
+		assertEquals(rendered.getJson(), rendered.toString());
+	}
+	
+	@Test
+	public void testArgumentsAreEscapedForJsonOnly(){
+		MessageTemplate.Rendered rendered = new Message().then("<{0}>").compile().render("a \"b\"\n\\");
+		assertEquals("[\"\",{\"text\":\"<a \\\"b\\\"\\n\\\\>\"}]", rendered.getJson());
+		assertEquals(ChatColor.RESET + "<a \"b\"\n\\>", rendered.getText());
+		assertFalse(rendered.usesJson());
+		assertEquals(rendered.getText(), rendered.toString());
+	}
+	
+	@Test
+	public void testTooltipLoreIsEscapedTwice(){
+		MessageTemplate template = new Message().then("\"{0}\"").tooltip("Name {0}", "Lore {0}").compile();
+		String json = template.render("a\"b\\").getJson();
+		assertTrue("text is only escaped once", json.contains("\"text\":\"\\\"a\\\"b\\\\\\\"\""));
+		assertTrue("lore is a string in NBT in a string in JSON", json.contains("\\\"Lore a\\\\\\\"b\\\\\\\\\\\""));
+		assertTrue("the name isn't quoted in the NBT", json.contains("Name a\\\"b\\\\,Lore"));
+		assertEquals(ChatColor.RESET + "\"a\"b\\\"", template.render("a\"b\\").getText());
+	}
+	
+	@Test
+	public void testOnlyDigitsInBracesArePlaceholders(){
+		MessageTemplate template = new Message().then("{1}{0}{1} {10} {12345} {a} {} {0").compile();
+		assertEquals(ChatColor.RESET + "bab k {12345} {a} {} {0", template.render("a", "b", 2, 3, 4, 5, 6, 7, 8, 9, "k").getText());
+		assertEquals("JSON's own braces are left alone", "[\"\",{\"text\":\"bab {10} {12345} {a} {} {0\"}]", template.render("a", "b").getJson());
+	}
+	
+	@Test
+	public void testMissingArgumentsAreLeftAlone(){
+		MessageTemplate template = new Message().then("{0} and {1}").compile();
+		assertEquals(ChatColor.RESET + "x and {1}", template.render("x").getText());
+		assertEquals(ChatColor.RESET + "{0} and {1}", template.render().getText());
+		assertEquals(ChatColor.RESET + "null and {1}", template.render((Object) null).getText());
+	}
+	
+	@Test
+	public void testTemplateIgnoresLaterChanges(){
+		Message message = new Message().then("{0}");
+		MessageTemplate template = message.compile();
+		message.then(" more").command("/more");
+		
+		assertFalse(template.usesJson());
+		assertEquals(ChatColor.RESET + "x", template.render("x").getText());
+		assertEquals("[\"\",{\"text\":\"x\"}]", template.render("x").getJson());
+	}
+	
+}
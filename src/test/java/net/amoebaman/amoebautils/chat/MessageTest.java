@@ -0,0 +1,80 @@
+package net.amoebaman.amoebautils.chat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.Server;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class MessageTest{
+	
+	/*
+	 * Messages look up NMS classes as soon as they're loaded, which needs a server - none of the classes exist here, so
+	 * the lookups all come back empty, which is fine for anything that doesn't need them.  Every thread is the main
+	 * thread, so work handed back to it runs straight away.
+	 */
+	public static synchronized Server mockServer(){
+		if(Bukkit.getServer() == null){
+			Server server = Mockito.mock(Server.class);
+			Mockito.when(server.getLogger()).thenReturn(Logger.getLogger("MockServer"));
+			Mockito.when(server.isPrimaryThread()).thenReturn(true);
+			Bukkit.setServer(server);
+		}
+		return Bukkit.getServer();
+	}
+	
+	@BeforeClass
+	public static void setUpServer(){
+		mockServer();
+	}
+	
+	@Test
+	public void testTextIsEscaped(){
+		Message message = new Message().then("a \"b\" \\ c\nd\te\u0001f\u2028");
+		assertEquals("[\"\",{\"text\":\"a \\\"b\\\" \\\\ c\\nd\\te\\u0001f\\u2028\"}]", message.getJson());
+		assertFalse(message.usesJson());
+	}
+	
+	@Test
+	public void testClickDataKeepsEscapedQuotes(){
+		Message message = new Message().then("say").command("/say \\\"hi\\\" \"x\" a\\b");
+		assertEquals("[\"\",{\"text\":\"say\",\"clickEvent\":{\"action\":\"run_command\",\"value\":\"/say \\\"hi\\\" \\\"x\\\" a\\\\b\"}}]", message.getJson());
+		assertTrue(message.usesJson());
+	}
+	
+	@Test
+	public void testOnlySetStylesAreWritten(){
+		Message message = new Message().then("x").color(ChatColor.RED).style(ChatColor.UNDERLINE, ChatColor.BOLD, ChatColor.MAGIC, ChatColor.BLUE).then("y");
+		assertEquals("[\"\",{\"text\":\"x\",\"color\":\"red\",\"obfuscated\":true,\"bold\":true,\"underlined\":true},{\"text\":\"y\"}]", message.getJson());
+	}
+	
+	@Test
+	public void testTextWritesStylesInOrder(){
+		Message message = new Message().then("x").color(ChatColor.RED).style(ChatColor.ITALIC, ChatColor.BOLD).then("y").color(null);
+		assertEquals(ChatColor.RED + "" + ChatColor.BOLD + ChatColor.ITALIC + "x" + "y", message.getText());
+		assertEquals(ChatColor.RESET + "z", new Message().then("z").getText());
+	}
+	
+	@Test
+	public void testChangesRenderAgain(){
+		Message message = new Message().then("x");
+		String json = message.getJson(), text = message.getText();
+		assertSame("unchanged messages aren't rendered again", json, message.getJson());
+		assertSame(text, message.getText());
+		
+		message.style(ChatColor.BOLD);
+		assertNotSame(json, message.getJson());
+		assertEquals("[\"\",{\"text\":\"x\",\"bold\":true}]", message.getJson());
+		assertEquals(ChatColor.RESET + "" + ChatColor.BOLD + "x", message.getText());
+	}
+	
+}
@@ -0,0 +1,67 @@
+package net.amoebaman.amoebautils.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CachedLookupParserTest{
+	
+	private final List<String> lookups = new ArrayList<String>();
+	private final CachedLookupParser<StringBuilder> parser = new CachedLookupParser<StringBuilder>("Nothing named '%s'"){
+		
+		protected StringBuilder lookup(String arg){
+			lookups.add(arg);
+			return arg.equals("missing") ? null : new StringBuilder(arg);
+		}
+		
+		protected boolean isValid(StringBuilder value){
+			return value.length() > 0;
+		}
+	};
+	
+	@Test
+	public void testLookupsAreCachedForATick() throws Exception{
+		StringBuilder first = parser.parse(null, "Steve");
+		assertSame(first, parser.parse(null, "steve"));
+		assertEquals("names are looked up ignoring case", 1, lookups.size());
+		
+		Thread.sleep(60);
+		parser.parse(null, "Steve");
+		assertEquals(2, lookups.size());
+	}
+	
+	@Test
+	public void testInvalidValuesAreLookedUpAgain() throws Exception{
+		parser.parse(null, "Steve").setLength(0);
+		assertEquals("Steve", parser.parse(null, "Steve").toString());
+		assertEquals(2, lookups.size());
+	}
+	
+	@Test
+	public void testValuesAreHeldWeakly() throws Exception{
+		parser.parse(null, "Steve");
+		for(int i = 0; i < 10 && lookups.size() == 1; i++){
+			System.gc();
+			parser.parse(null, "Steve");
+		}
+		assertTrue("nothing else held on to the value, so it was collected and looked up again", lookups.size() > 1);
+	}
+	
+	@Test
+	public void testMissingValues(){
+		try{
+			parser.parse(null, "missing");
+			fail("nothing was found");
+		}
+		catch(ArgumentException e){
+			assertEquals("Nothing named 'missing'", e.getMessage());
+		}
+	}
+	
+}
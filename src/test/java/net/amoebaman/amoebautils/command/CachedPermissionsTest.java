@@ -0,0 +1,134 @@
+package net.amoebaman.amoebautils.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import net.amoebaman.amoebautils.command.FakeServer.FakeSender;
+
+import org.bukkit.entity.Player;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class CachedPermissionsTest{
+	
+	private final PermissionSet both = PermissionSet.resolve(new String[]{ "a.one", "a.two" });
+	private final FakeSender steve = new FakeSender("Steve", true, "a.one", "a.two");
+	
+	@Before
+	public void setUp(){
+		CachedPermissions.invalidateAll();
+	}
+	
+	@After
+	public void tearDown(){
+		CachedPermissions.setTtl(2000);
+		CachedPermissions.invalidateAll();
+	}
+	
+	@Test
+	public void testSetsAreInterned(){
+		assertSame(both, PermissionSet.resolve(new String[]{ " a.two", "a.one", "a.one" }));
+		assertNull(PermissionSet.resolve(new String[0]));
+		assertNull(PermissionSet.resolve(new String[]{ " " }));
+		assertTrue("nothing to check passes", CachedPermissions.test(steve.mock, null));
+	}
+	
+	@Test
+	public void testResultsAreCached(){
+		assertTrue(CachedPermissions.test(steve.mock, both));
+		assertEquals(2, steve.checks.get());
+		assertTrue(CachedPermissions.test(steve.mock, both));
+		assertEquals("the second check came from the cache", 2, steve.checks.get());
+		
+		steve.permissions.remove("a.two");
+		assertTrue("a change isn't noticed within the TTL", CachedPermissions.test(steve.mock, both));
+	}
+	
+	@Test
+	public void testInvalidation(){
+		CachedPermissions.test(steve.mock, both);
+		steve.permissions.remove("a.two");
+		CachedPermissions.invalidate(steve.mock);
+		assertFalse(CachedPermissions.test(steve.mock, both));
+		
+		steve.permissions.add("a.two");
+		CachedPermissions.invalidateAll();
+		assertTrue(CachedPermissions.test(steve.mock, both));
+	}
+	
+	@Test
+	public void testResultsExpire() throws Exception{
+		CachedPermissions.setTtl(30);
+		CachedPermissions.test(steve.mock, both);
+		steve.permissions.remove("a.two");
+		Thread.sleep(50);
+		assertFalse(CachedPermissions.test(steve.mock, both));
+		
+		Thread.sleep(50);
+		CachedPermissions.expire();
+		assertEquals("the sweep threw out the expired results", 0, CachedPermissions.size());
+	}
+	
+	@Test
+	public void testZeroTtlDoesNotCache(){
+		CachedPermissions.setTtl(0);
+		CachedPermissions.test(steve.mock, both);
+		CachedPermissions.test(steve.mock, both);
+		assertEquals(4, steve.checks.get());
+		assertEquals(0, CachedPermissions.size());
+	}
+	
+	@Test
+	public void testPlayerWhoLogsBackInStartsOver(){
+		CachedPermissions.test(steve.mock, both);
+		FakeSender again = new FakeSender("Steve", true);
+		Mockito.when(((Player) again.mock).getUniqueId()).thenReturn(steve.id);
+		assertFalse("the old Steve's results aren't reused", CachedPermissions.test(again.mock, both));
+		
+		FakeSender renamed = new FakeSender("Stephen", true, "a.one", "a.two");
+		Mockito.when(((Player) renamed.mock).getUniqueId()).thenReturn(steve.id);
+		assertTrue(CachedPermissions.test(renamed.mock, both));
+		assertEquals("players are told apart by ID, not name", 1, CachedPermissions.size());
+	}
+	
+	@Test
+	public void testOnlyPlayersAreCached(){
+		FakeSender console = new FakeSender("@", false, "a.one", "a.two");
+		FakeSender block = new FakeSender("@", false);
+		assertTrue(CachedPermissions.test(console.mock, both));
+		assertFalse("command blocks share a name, but not results", CachedPermissions.test(block.mock, both));
+		assertTrue(CachedPermissions.test(console.mock, both));
+		assertEquals(4, console.checks.get());
+		assertEquals(0, CachedPermissions.size());
+	}
+	
+	@Test
+	public void testNamedSets(){
+		PermissionSet.define("staff", "a.two", "a.one");
+		assertSame("named sets are interned too", both, PermissionSet.resolve(new String[0], new String[]{ "staff" }));
+		PermissionSet more = PermissionSet.resolve(new String[]{ "a.three" }, new String[]{ "staff" });
+		assertFalse(CachedPermissions.test(steve.mock, more));
+		steve.permissions.add("a.three");
+		CachedPermissions.invalidate(steve.mock);
+		assertTrue(CachedPermissions.test(steve.mock, more));
+		
+		PermissionSet.define("nobody");
+		assertNull("an empty set requires nothing", PermissionSet.resolve(new String[0], new String[]{ "nobody" }));
+		try{
+			PermissionSet.resolve(new String[0], new String[]{ "missing" });
+			fail("a set has to be defined before it's used");
+		}
+		catch(IllegalArgumentException e){
+			/*
+			 * Expected
+			 */
+		}
+	}
+	
+}
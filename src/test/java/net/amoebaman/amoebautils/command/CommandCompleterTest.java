@@ -0,0 +1,71 @@
+package net.amoebaman.amoebautils.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import net.amoebaman.amoebautils.CommandController.CommandHandler;
+import net.amoebaman.amoebautils.CommandController.Suggest;
+import net.amoebaman.amoebautils.command.FakeServer.FakeSender;
+
+import org.bukkit.command.CommandSender;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommandCompleterTest{
+	
+	private final FakeServer server = new FakeServer("team");
+	private final FakeSender sender = new FakeSender("Steve", false);
+	
+	@Before
+	public void setUp(){
+		server.registry.registerAll(Arrays.asList(new Teams()));
+	}
+	
+	@Test
+	public void testCompletesSubcommands(){
+		assertEquals(Arrays.asList("join", "leave"), server.complete(sender.mock, "team "));
+		assertEquals(Arrays.asList("join"), server.complete(sender.mock, "team J"));
+		assertEquals("the subcommand is found without caring about case", Arrays.asList("blue", "red"), server.complete(sender.mock, "team JOIN "));
+	}
+	
+	@Test
+	public void testCompletesParameters(){
+		assertEquals(Arrays.asList("blue", "red"), server.complete(sender.mock, "team join "));
+		assertEquals(Arrays.asList("blue"), server.complete(sender.mock, "team join b"));
+		assertEquals("then the enum constants", Arrays.asList("high", "low"), server.complete(sender.mock, "team join red "));
+		assertTrue("there's nothing past the last parameter", server.complete(sender.mock, "team join red high ").isEmpty());
+	}
+	
+	@Test
+	public void testHidesWhatTheSenderCannotUse(){
+		assertEquals(Arrays.asList("join", "leave"), server.complete(sender.mock, "team "));
+		sender.permissions.add("team.admin");
+		CachedPermissions.invalidate(sender.mock);
+		assertEquals(Arrays.asList("join", "kick", "leave"), server.complete(sender.mock, "team "));
+		assertEquals(Arrays.asList("Alex", "Steve"), server.complete(sender.mock, "team kick "));
+	}
+	
+	@Test
+	public void testLimit(){
+		server.completer.setMaxSuggestions(1);
+		assertEquals(Arrays.asList("join"), server.complete(sender.mock, "team "));
+		assertEquals(Arrays.asList("blue"), server.complete(sender.mock, "team join "));
+	}
+	
+	public static enum Priority{ HIGH, LOW }
+	
+	public static class Teams{
+		
+		@CommandHandler(cmd = "team join")
+		public void join(CommandSender sender, @Suggest({ "red", "blue" }) String team, Priority priority){}
+		
+		@CommandHandler(cmd = "team leave")
+		public void leave(CommandSender sender){}
+		
+		@CommandHandler(cmd = "team kick", permissions = "team.admin")
+		public void kick(CommandSender sender, @Suggest({ "Steve", "Alex" }) String player){}
+	}
+	
+}
@@ -0,0 +1,262 @@
+package net.amoebaman.amoebautils.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.amoebaman.amoebautils.CommandController.CommandHandler;
+import net.amoebaman.amoebautils.chat.MessageTest;
+import net.amoebaman.amoebautils.command.FakeServer.FakeSender;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CommandDispatcherTest{
+	
+	private final FakeServer server = new FakeServer("test", "other");
+	private final FakeSender console = new FakeSender("CONSOLE", false);
+	
+	@BeforeClass
+	public static void setUpServer(){
+		MessageTest.mockServer();
+	}
+	
+	@Test
+	public void testDispatchesToDeepestMatch(){
+		Handlers handlers = new Handlers();
+		server.registry.registerAll(Arrays.asList(handlers));
+		
+		assertTrue(server.run(console.mock, "test"));
+		assertTrue(server.run(console.mock, "test sub a b"));
+		assertTrue(server.run(console.mock, "test sub deeper"));
+		assertTrue("an unknown subcommand falls back on its parent", server.run(console.mock, "test nothing"));
+		assertEquals(Arrays.asList("test []", "sub [a, b]", "deeper []", "test [nothing]"), handlers.calls);
+	}
+	
+	@Test
+	public void testMatchingIgnoresCase(){
+		Handlers handlers = new Handlers();
+		server.registry.registerAll(Arrays.asList(handlers));
+		
+		assertTrue(server.run(console.mock, "TEST Sub DEEPER Again"));
+		assertEquals(Arrays.asList("deeper [Again]"), handlers.calls);
+	}
+	
+	@Test
+	public void testPrimaryIdentifierBeatsAlias(){
+		Handlers first = new Handlers();
+		Aliases second = new Aliases();
+		server.registry.registerAll(Arrays.asList(second, first));
+		
+		assertTrue(server.run(console.mock, "test sub"));
+		assertTrue(server.run(console.mock, "test other"));
+		assertEquals("the alias didn't take over another handler's primary identifier", Arrays.asList("sub []"), first.calls);
+		assertEquals("but still works where it's free", Arrays.asList("alias []"), second.calls);
+	}
+	
+	@Test
+	public void testAliasBeatsNothingButAliases(){
+		Aliases aliases = new Aliases();
+		server.registry.registerAll(Arrays.asList(aliases));
+		assertTrue(server.run(console.mock, "test sub"));
+		assertEquals(Arrays.asList("alias []"), aliases.calls);
+		
+		Handlers handlers = new Handlers();
+		server.registry.registerAll(Arrays.asList(handlers));
+		assertTrue(server.run(console.mock, "test sub"));
+		assertEquals("a later primary identifier takes the alias back", Arrays.asList("sub []"), handlers.calls);
+	}
+	
+	@Test
+	public void testUnhandledCommandsAreNotConsumed(){
+		server.registry.registerAll(Arrays.asList(new Aliases()));
+		assertFalse("only a subcommand of /test has a handler", server.run(console.mock, "test"));
+		assertFalse(server.run(console.mock, "other"));
+	}
+	
+	@Test
+	public void testSenderTypeIsChecked(){
+		Handlers handlers = new Handlers();
+		server.registry.registerAll(Arrays.asList(handlers));
+		
+		assertTrue(server.run(console.mock, "other"));
+		assertEquals(Arrays.asList("This command must be sent by a Player"), strip(console.messages));
+		assertTrue(handlers.calls.isEmpty());
+		
+		FakeSender player = new FakeSender("Steve", true);
+		assertTrue(server.run(player.mock, "other"));
+		assertEquals(Arrays.asList("player Steve"), handlers.calls);
+	}
+	
+	@Test
+	public void testNamedPermissionSetsAreRequired(){
+		PermissionSet.define("testers", "test.use", "test.see");
+		Guarded guarded = new Guarded();
+		server.registry.registerAll(Arrays.asList(guarded));
+		
+		FakeSender some = new FakeSender("CONSOLE", false, "test.use", "test.see");
+		assertTrue(server.run(some.mock, "test"));
+		assertEquals(Arrays.asList("Testers only"), strip(some.messages));
+		
+		FakeSender all = new FakeSender("CONSOLE", false, "test.use", "test.see", "test.extra");
+		assertTrue(server.run(all.mock, "test"));
+		assertEquals(Arrays.asList("test []"), guarded.calls);
+	}
+	
+	@Test
+	public void testAsyncHandlersRunOnWorkers() throws Exception{
+		Slow slow = new Slow();
+		server.registry.registerAll(Arrays.asList(slow));
+		slow.release.countDown();
+		
+		assertTrue(server.run(console.mock, "test"));
+		awaitMessages(console, 1);
+		assertEquals("the result was sent back", Arrays.asList("done"), strip(console.messages));
+		assertTrue(slow.thread.getName().startsWith("Command-Worker-"));
+	}
+	
+	@Test
+	public void testAsyncHandlersTimeOut() throws Exception{
+		Slow slow = new Slow();
+		server.registry.registerAll(Arrays.asList(slow));
+		
+		assertTrue(server.run(console.mock, "other"));
+		awaitMessages(console, 1);
+		assertEquals(Arrays.asList("That command took too long and was cancelled"), strip(console.messages));
+		assertTrue("the handler was interrupted", slow.interrupted.await(1, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void testAsyncHandlersPerSender() throws Exception{
+		Slow slow = new Slow();
+		server.registry.registerAll(Arrays.asList(slow));
+		FakeSender other = new FakeSender("Alex", true);
+		
+		assertTrue(server.run(console.mock, "test"));
+		assertTrue(server.run(console.mock, "test"));
+		assertEquals(Arrays.asList("You already have a command running, wait for it to finish"), strip(console.messages));
+		assertTrue(server.run(other.mock, "test"));
+		assertTrue("other senders aren't held up", other.messages.isEmpty());
+		
+		slow.release.countDown();
+		awaitMessages(console, 2);
+		awaitMessages(other, 1);
+		assertTrue(server.run(console.mock, "test"));
+		awaitMessages(console, 3);
+		assertEquals("once it finished, the sender could run another", "done", strip(console.messages).get(2));
+	}
+	
+	@Test
+	public void testAsyncPoolIsBounded() throws Exception{
+		Slow slow = new Slow();
+		server.registry.registerAll(Arrays.asList(slow));
+		server.dispatcher.setAsyncLimits(1, 1, 1);
+		FakeSender[] senders = { new FakeSender("A", false), new FakeSender("B", false), new FakeSender("C", false) };
+		
+		for(FakeSender sender : senders)
+			assertTrue(server.run(sender.mock, "test"));
+		assertTrue("one runs and one waits", senders[0].messages.isEmpty() && senders[1].messages.isEmpty());
+		assertEquals(Arrays.asList("The server is too busy to run that command right now, try again in a moment"), strip(senders[2].messages));
+		
+		slow.release.countDown();
+		awaitMessages(senders[0], 1);
+		awaitMessages(senders[1], 1);
+	}
+	
+	/*
+	 * Async results come back on another thread
+	 */
+	private static void awaitMessages(FakeSender sender, int count) throws InterruptedException{
+		for(int i = 0; i < 200 && sender.messages.size() < count; i++)
+			Thread.sleep(10);
+		assertEquals(count, sender.messages.size());
+	}
+	
+	/*
+	 * Messages are colored, which gets in the way of comparing them
+	 */
+	static List<String> strip(List<String> messages){
+		List<String> stripped = new ArrayList<String>();
+		for(String message : messages)
+			stripped.add(ChatColor.stripColor(message));
+		return stripped;
+	}
+	
+	public static class Handlers{
+		
+		public final List<String> calls = new ArrayList<String>();
+		
+		@CommandHandler(cmd = "test")
+		public void test(CommandSender sender, String[] args){
+			calls.add("test " + Arrays.toString(args));
+		}
+		
+		@CommandHandler(cmd = "test sub")
+		public void sub(CommandSender sender, String[] args){
+			calls.add("sub " + Arrays.toString(args));
+		}
+		
+		@CommandHandler(cmd = "test sub deeper")
+		public void deeper(CommandSender sender, String[] args){
+			calls.add("deeper " + Arrays.toString(args));
+		}
+		
+		@CommandHandler(cmd = "other")
+		public void other(Player player){
+			calls.add("player " + player.getName());
+		}
+	}
+	
+	public static class Aliases{
+		
+		public final List<String> calls = new ArrayList<String>();
+		
+		@CommandHandler(cmd = "test alias", aliases = { "test sub", "test other" })
+		public void alias(CommandSender sender, String[] args){
+			calls.add("alias " + Arrays.toString(args));
+		}
+	}
+	
+	public static class Slow{
+		
+		public final CountDownLatch release = new CountDownLatch(1), interrupted = new CountDownLatch(1);
+		public volatile Thread thread;
+		
+		@CommandHandler(cmd = "test", async = true)
+		public String test(CommandSender sender) throws InterruptedException{
+			thread = Thread.currentThread();
+			release.await();
+			return "done";
+		}
+		
+		@CommandHandler(cmd = "other", async = true, timeout = 50)
+		public void other(CommandSender sender){
+			try{
+				Thread.sleep(10000);
+			}
+			catch(InterruptedException e){
+				interrupted.countDown();
+			}
+		}
+	}
+	
+	public static class Guarded{
+		
+		public final List<String> calls = new ArrayList<String>();
+		
+		@CommandHandler(cmd = "test", permissions = "test.extra", permissionSets = "testers", permissionMessage = "Testers only")
+		public void test(CommandSender sender, String[] args){
+			calls.add("test " + Arrays.toString(args));
+		}
+	}
+	
+}
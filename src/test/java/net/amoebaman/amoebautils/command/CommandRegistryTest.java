@@ -0,0 +1,183 @@
+package net.amoebaman.amoebautils.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.amoebaman.amoebautils.CommandController.CommandHandler;
+import net.amoebaman.amoebautils.command.FakeServer.FakeSender;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.Plugin;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class CommandRegistryTest{
+	
+	private final FakeServer server = new FakeServer("warp", "home");
+	private final FakeSender console = new FakeSender("CONSOLE", false);
+	
+	@Test
+	public void testUnregister(){
+		Warp warp = new Warp("a");
+		server.registry.registerAll(Arrays.asList(warp, new Home()));
+		assertEquals(3, server.registry.getStats().size());
+		
+		assertEquals(2, server.registry.unregister(warp));
+		assertFalse(server.run(console.mock, "warp"));
+		assertNull(server.registry.getStats("warp"));
+		assertTrue("other handlers are left alone", server.run(console.mock, "home"));
+		assertEquals("unregistering it again does nothing", 0, server.registry.unregister(warp));
+	}
+	
+	@Test
+	public void testReloadSwapsHandlers(){
+		Warp old = new Warp("old"), replacement = new Warp("new");
+		server.registry.registerAll(Arrays.asList(old));
+		server.run(console.mock, "warp");
+		
+		server.registry.reload(old, replacement);
+		server.run(console.mock, "warp");
+		server.run(console.mock, "warp list");
+		assertEquals(Arrays.asList("old"), old.calls);
+		assertEquals(Arrays.asList("new", "new list"), replacement.calls);
+		assertEquals(2, server.registry.getStats().size());
+		assertEquals("the stats start over with the new handler", 1, server.registry.getStats("warp").getCount());
+	}
+	
+	@Test
+	public void testDispatchNeverSeesAGap() throws Exception{
+		final Warp first = new Warp("first");
+		server.registry.registerAll(Arrays.asList(first));
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicInteger missed = new AtomicInteger(), runs = new AtomicInteger();
+		Thread dispatcher = new Thread(){
+			
+			public void run(){
+				while(!done.get()){
+					if(!server.run(console.mock, "warp"))
+						missed.incrementAndGet();
+					runs.incrementAndGet();
+				}
+			}
+		};
+		dispatcher.start();
+		Object current = first;
+		for(int i = 0; i < 200; i++){
+			Warp next = new Warp("next");
+			server.registry.reload(current, next);
+			current = next;
+		}
+		while(runs.get() < 100)
+			Thread.sleep(1);
+		done.set(true);
+		dispatcher.join();
+		assertEquals(0, missed.get());
+		assertEquals(2, server.registry.getStats().size());
+	}
+	
+	@Test
+	public void testHandlersWithoutACommandAreSkipped(){
+		Strays strays = new Strays();
+		int limiters = RateLimiter.limiters.size();
+		server.registry.registerAll(Arrays.asList(strays));
+		
+		assertEquals("only the handler with a real alias was kept", 1, server.registry.getStats().size());
+		assertNotNull(server.registry.getStats("nowhere else"));
+		assertTrue(server.run(console.mock, "home away"));
+		assertEquals("the skipped handler's rate limiter isn't kept either", limiters, RateLimiter.limiters.size());
+		assertEquals(1, server.registry.unregister(strays));
+	}
+	
+	@Test
+	public void testRegisterClasses(){
+		Plugin plugin = plugin();
+		List<Class<?>> classes = new ArrayList<Class<?>>();
+		classes.add(Home.class);
+		classes.add(PluginHandler.class);
+		classes.add(Abstract.class);
+		classes.add(Inner.class);
+		classes.add(String.class);
+		server.registry.registerClasses(plugin, classes);
+		
+		assertEquals(2, server.registry.getStats().size());
+		server.run(console.mock, "warp");
+		assertEquals("the handler was created with the plugin", Arrays.asList("made by the plugin"), CommandDispatcherTest.strip(console.messages));
+	}
+	
+	private static Plugin plugin(){
+		Plugin plugin = Mockito.mock(Plugin.class);
+		Mockito.when(plugin.getName()).thenReturn("Test");
+		return plugin;
+	}
+	
+	public static class Warp{
+		
+		public final List<String> calls = new ArrayList<String>();
+		private final String name;
+		
+		public Warp(String name){
+			this.name = name;
+		}
+		
+		@CommandHandler(cmd = "warp")
+		public void warp(CommandSender sender){
+			calls.add(name);
+		}
+		
+		@CommandHandler(cmd = "warp list")
+		public void list(CommandSender sender){
+			calls.add(name + " list");
+		}
+	}
+	
+	public static class Home{
+		
+		@CommandHandler(cmd = "home")
+		public void home(CommandSender sender){}
+	}
+	
+	public static class Strays{
+		
+		@CommandHandler(cmd = "nowhere", cooldown = 1000)
+		public void nowhere(CommandSender sender){}
+		
+		@CommandHandler(cmd = "nowhere else", aliases = "home away")
+		public void elsewhere(CommandSender sender){}
+	}
+	
+	public static class PluginHandler{
+		
+		private final Plugin plugin;
+		
+		public PluginHandler(Plugin plugin){
+			this.plugin = plugin;
+		}
+		
+		@CommandHandler(cmd = "warp")
+		public void warp(CommandSender sender){
+			sender.sendMessage(plugin != null ? "made by the plugin" : "made without it");
+		}
+	}
+	
+	public static abstract class Abstract{
+		
+		@CommandHandler(cmd = "home")
+		public void home(CommandSender sender){}
+	}
+	
+	public class Inner{
+		
+		@CommandHandler(cmd = "warp list")
+		public void list(CommandSender sender){}
+	}
+	
+}
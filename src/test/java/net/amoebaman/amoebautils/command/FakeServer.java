@@ -0,0 +1,134 @@
+package net.amoebaman.amoebautils.command;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * A stand-in for the parts of a server the command classes touch, so handlers
+ * can be registered, run and tab-completed without one. Only the Bukkit
+ * commands named when it's created exist, and senders are mocks that keep
+ * every message they're sent.
+ */
+public class FakeServer{
+	
+	/** The Bukkit commands that exist, by name */
+	public final Map<String, PluginCommand> commands = new TreeMap<String, PluginCommand>(String.CASE_INSENSITIVE_ORDER);
+	
+	public final CommandRegistry registry;
+	public final CommandDispatcher dispatcher;
+	public final CommandCompleter completer;
+	
+	public FakeServer(String... names){
+		for(String name : names)
+			commands.put(name, command(name));
+		registry = new CommandRegistry(null, null){
+			
+			protected PluginCommand getPluginCommand(String name){
+				return commands.get(name);
+			}
+		};
+		dispatcher = new CommandDispatcher(registry);
+		completer = new CommandCompleter(registry);
+	}
+	
+	/**
+	 * Runs a command as if the sender had typed it.
+	 * @param sender the sender
+	 * @param line the command, without the slash
+	 * @return whatever the dispatcher returned
+	 */
+	public boolean run(CommandSender sender, String line){
+		String[] tokens = line.split(" ");
+		return dispatcher.dispatch(sender, commands.get(tokens[0]), Arrays.copyOfRange(tokens, 1, tokens.length));
+	}
+	
+	/**
+	 * Tab-completes a command as if the sender had typed it so far.
+	 * @param sender the sender
+	 * @param line the command, without the slash, ending in a space to complete an empty argument
+	 * @return the completions
+	 */
+	public List<String> complete(CommandSender sender, String line){
+		String[] tokens = line.split(" ", -1);
+		return completer.complete(sender, commands.get(tokens[0]), Arrays.copyOfRange(tokens, 1, tokens.length));
+	}
+	
+	/*
+	 * PluginCommand's constructor is protected, servers create them through reflection too
+	 */
+	private static PluginCommand command(String name){
+		try{
+			Constructor<PluginCommand> constructor = PluginCommand.class.getDeclaredConstructor(String.class, Plugin.class);
+			constructor.setAccessible(true);
+			return constructor.newInstance(name, null);
+		}
+		catch(Exception e){
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * A mock command sender, or player if asked for one, holding a set of
+	 * permissions and keeping every message it's sent.
+	 */
+	public static class FakeSender{
+		
+		/** Every message the sender was sent, in order */
+		public final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+		
+		/** The permissions the sender has */
+		public final Set<String> permissions = Collections.synchronizedSet(new HashSet<String>());
+		
+		/** The number of times the sender's permissions were checked */
+		public final AtomicInteger checks = new AtomicInteger();
+		
+		public final String name;
+		public final UUID id = UUID.randomUUID();
+		public final CommandSender mock;
+		
+		public FakeSender(String name, boolean player, String... permissions){
+			this.name = name;
+			this.permissions.addAll(Arrays.asList(permissions));
+			mock = player ? Mockito.mock(Player.class) : Mockito.mock(CommandSender.class);
+			Mockito.when(mock.getName()).thenReturn(name);
+			Mockito.when(mock.hasPermission(Mockito.anyString())).thenAnswer(new Answer<Boolean>(){
+				
+				public Boolean answer(InvocationOnMock invocation){
+					checks.incrementAndGet();
+					return FakeSender.this.permissions.contains(invocation.getArguments()[0]);
+				}
+			});
+			Mockito.doAnswer(new Answer<Object>(){
+				
+				public Object answer(InvocationOnMock invocation){
+					messages.add((String) invocation.getArguments()[0]);
+					return null;
+				}
+			}).when(mock).sendMessage(Mockito.anyString());
+			if(player){
+				Player mockPlayer = (Player) mock;
+				Mockito.when(mockPlayer.getUniqueId()).thenReturn(id);
+				Mockito.when(mockPlayer.isOnline()).thenReturn(true);
+				Mockito.when(mockPlayer.canSee(Mockito.any(Player.class))).thenReturn(true);
+			}
+		}
+	}
+	
+}
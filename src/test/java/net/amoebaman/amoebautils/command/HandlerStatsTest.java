@@ -0,0 +1,78 @@
+package net.amoebaman.amoebautils.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.amoebaman.amoebautils.CommandController.CommandHandler;
+import net.amoebaman.amoebautils.command.FakeServer.FakeSender;
+
+import org.bukkit.command.CommandSender;
+import org.junit.Test;
+
+public class HandlerStatsTest{
+	
+	private final FakeServer server = new FakeServer("test", "other");
+	private final FakeSender console = new FakeSender("CONSOLE", false);
+	
+	@Test
+	public void testCallsAndErrorsAreCounted(){
+		server.registry.registerAll(Arrays.asList(new Handlers()));
+		server.run(console.mock, "test 1");
+		server.run(console.mock, "test 2");
+		server.run(console.mock, "test -1");
+		server.run(console.mock, "test nope");
+		
+		HandlerStats stats = server.registry.getStats("TEST");
+		assertEquals("test", stats.getCommand());
+		assertEquals("Handlers.test", stats.getHandler());
+		assertEquals("arguments that don't parse never reach the handler", 3, stats.getCount());
+		assertEquals(1, stats.getErrorCount());
+		assertEquals(3, stats.getLatency().getCount());
+		assertTrue(stats.toString().startsWith("/test: 3x, 1 failed, total "));
+		assertNull(server.registry.getStats("missing"));
+	}
+	
+	@Test
+	public void testSlowestHandlersComeFirst(){
+		server.registry.registerAll(Arrays.asList(new Handlers()));
+		server.run(console.mock, "test 1");
+		server.run(console.mock, "other");
+		
+		List<HandlerStats> all = server.registry.getStats();
+		assertEquals(2, all.size());
+		assertSame(server.registry.getStats("other"), all.get(0));
+		assertTrue(all.get(0).getLatency().getTotal() >= all.get(1).getLatency().getTotal());
+	}
+	
+	@Test
+	public void testReset(){
+		server.registry.registerAll(Arrays.asList(new Handlers()));
+		server.run(console.mock, "test -1");
+		server.registry.resetStats();
+		
+		HandlerStats stats = server.registry.getStats("test");
+		assertEquals(0, stats.getCount());
+		assertEquals(0, stats.getErrorCount());
+		assertEquals(0, stats.getLatency().getTotal());
+	}
+	
+	public static class Handlers{
+		
+		@CommandHandler(cmd = "test")
+		public void test(CommandSender sender, int number){
+			if(number < 0)
+				throw new IllegalArgumentException("negative");
+		}
+		
+		@CommandHandler(cmd = "other")
+		public void other(CommandSender sender) throws InterruptedException{
+			Thread.sleep(20);
+		}
+	}
+	
+}
@@ -0,0 +1,85 @@
+package net.amoebaman.amoebautils.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+
+import org.bukkit.command.CommandSender;
+import org.junit.Test;
+
+public class InvokerTest{
+	
+	private final Handlers handlers = new Handlers();
+	private final HandlerStats stats = new HandlerStats("test", "Handlers");
+	
+	@Test
+	public void testReturnedValuesAreSentBack() throws Exception{
+		assertEquals("hi 3", invoker("greet").invoke(new Object[]{ null, 3 }));
+		assertNull(invoker("greet").invoke(new Object[]{ null, -1 }));
+		assertEquals(2, stats.getCount());
+	}
+	
+	@Test
+	public void testVoidHandlersReturnNothing() throws Exception{
+		assertNull(invoker("run").invoke(new Object[]{ null, "x" }));
+		assertEquals("x", handlers.ran);
+	}
+	
+	@Test
+	public void testPrivateAndStaticHandlers() throws Exception{
+		assertEquals(7, invoker("secret").invoke(new Object[]{ null }));
+		assertEquals("static", invoker("shared").invoke(new Object[]{ null }));
+	}
+	
+	@Test
+	public void testHandlerExceptionsArePassedOn() throws Exception{
+		IllegalStateException thrown = new IllegalStateException();
+		handlers.failure = thrown;
+		try{
+			invoker("fail").invoke(new Object[]{ null });
+			fail("the handler's exception should come out of the invoker");
+		}
+		catch(IllegalStateException e){
+			assertSame(thrown, e);
+		}
+		assertEquals(1, stats.getErrorCount());
+	}
+	
+	private Invoker invoker(String name){
+		for(Method method : Handlers.class.getDeclaredMethods())
+			if(method.getName().equals(name))
+				return new Invoker(handlers, method, stats);
+		throw new IllegalArgumentException(name);
+	}
+	
+	static class Handlers{
+		
+		String ran;
+		RuntimeException failure;
+		
+		public String greet(CommandSender sender, int times){
+			return times < 0 ? null : "hi " + times;
+		}
+		
+		public void run(CommandSender sender, String arg){
+			ran = arg;
+		}
+		
+		@SuppressWarnings("unused")
+		private int secret(CommandSender sender){
+			return 7;
+		}
+		
+		public static Object shared(CommandSender sender){
+			return "static";
+		}
+		
+		public void fail(CommandSender sender){
+			throw failure;
+		}
+	}
+	
+}
@@ -0,0 +1,102 @@
+package net.amoebaman.amoebautils.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import net.amoebaman.amoebautils.CommandController.CommandHandler;
+import net.amoebaman.amoebautils.command.FakeServer.FakeSender;
+
+import org.bukkit.command.CommandSender;
+import org.junit.After;
+import org.junit.Test;
+
+public class RateLimiterTest{
+	
+	private final List<RateLimiter> created = new ArrayList<RateLimiter>();
+	private final UUID steve = UUID.randomUUID(), alex = UUID.randomUUID();
+	
+	@After
+	public void tearDown(){
+		RateLimiter.limiters.removeAll(created);
+	}
+	
+	@Test
+	public void testBurstThenCooldown() throws Exception{
+		RateLimiter limiter = limiter(100, 3);
+		for(int i = 0; i < 3; i++)
+			assertEquals("use " + i + " of the burst", 0, limiter.acquire(steve));
+		long wait = limiter.acquire(steve);
+		assertTrue("the fourth use has to wait, but no longer than one cooldown: " + wait, wait > 0 && wait <= TimeUnit.MILLISECONDS.toNanos(100));
+		
+		Thread.sleep(TimeUnit.NANOSECONDS.toMillis(wait) + 20);
+		assertEquals("one use has been earned back", 0, limiter.acquire(steve));
+		assertTrue("but only one", limiter.acquire(steve) > 0);
+	}
+	
+	@Test
+	public void testPlayersHaveTheirOwnBuckets(){
+		RateLimiter limiter = limiter(10000, 1);
+		assertEquals(0, limiter.acquire(steve));
+		assertTrue(limiter.acquire(steve) > 0);
+		assertEquals(0, limiter.acquire(alex));
+	}
+	
+	@Test
+	public void testRefusedUsesDoNotPushTheWaitBack(){
+		RateLimiter limiter = limiter(10000, 1);
+		limiter.acquire(steve);
+		long first = limiter.acquire(steve);
+		for(int i = 0; i < 100; i++)
+			limiter.acquire(steve);
+		assertTrue(limiter.acquire(steve) <= first);
+	}
+	
+	@Test
+	public void testSweepThrowsOutFullBuckets() throws Exception{
+		RateLimiter limiter = limiter(50, 1);
+		limiter.acquire(steve);
+		limiter.sweep();
+		assertEquals("the bucket is still refilling", 1, limiter.size());
+		
+		Thread.sleep(80);
+		limiter.sweep();
+		assertEquals(0, limiter.size());
+		assertEquals("a swept bucket is as good as a full one", 0, limiter.acquire(steve));
+	}
+	
+	@Test
+	public void testOnlyPlayersAreLimited(){
+		FakeServer server = new FakeServer("spawn");
+		Spawn spawn = new Spawn();
+		server.registry.registerAll(Arrays.asList(spawn));
+		FakeSender player = new FakeSender("Steve", true), console = new FakeSender("CONSOLE", false);
+		
+		server.run(player.mock, "spawn");
+		server.run(player.mock, "spawn");
+		assertEquals(Arrays.asList("You must wait 60 seconds before using that command again"), CommandDispatcherTest.strip(player.messages));
+		
+		server.run(console.mock, "spawn");
+		server.run(console.mock, "spawn");
+		assertTrue(console.messages.isEmpty());
+		server.registry.unregister(spawn);
+	}
+	
+	private RateLimiter limiter(long cooldown, int burst){
+		RateLimiter limiter = new RateLimiter(cooldown, burst);
+		created.add(limiter);
+		return limiter;
+	}
+	
+	public static class Spawn{
+		
+		@CommandHandler(cmd = "spawn", cooldown = 60000)
+		public void spawn(CommandSender sender){}
+	}
+	
+}
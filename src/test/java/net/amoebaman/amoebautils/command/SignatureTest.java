@@ -0,0 +1,152 @@
+package net.amoebaman.amoebautils.command;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import net.amoebaman.amoebautils.CommandController.CommandHandler;
+import net.amoebaman.amoebautils.command.FakeServer.FakeSender;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.junit.Test;
+
+public class SignatureTest{
+	
+	private final CommandSender sender = new FakeSender("CONSOLE", false).mock;
+	
+	@Test
+	public void testParsesTypedParameters() throws Exception{
+		Signature signature = signature("give", "kit give");
+		Object[] params = signature.parse(sender, new String[]{ "3", "fast-mode", "yes", "a", "b" });
+		
+		assertSame(sender, params[0]);
+		assertEquals(3, params[1]);
+		assertEquals(Mode.FAST_MODE, params[2]);
+		assertEquals(true, params[3]);
+		assertArrayEquals(new String[]{ "a", "b" }, (String[]) params[4]);
+		assertArrayEquals("nothing left over is an empty array", new String[0], (String[]) signature.parse(sender, new String[]{ "3", "slow", "no" })[4]);
+	}
+	
+	@Test
+	public void testUsage() throws Exception{
+		assertEquals("/kit give <number> <mode> <true/false> [...]", signature("give", "kit give").usage);
+		assertEquals("/kit set <number>", signature("set", "kit set").usage);
+	}
+	
+	@Test
+	public void testLeftoversAreNotCopied() throws Exception{
+		String[] args = { "a", "b" };
+		assertSame(args, signature("list", "kit list").parse(sender, args)[1]);
+	}
+	
+	@Test
+	public void testBadArguments() throws Exception{
+		Signature give = signature("give", "kit give");
+		assertRejected(give, "'x' is not a whole number", "x", "slow", "no");
+		assertRejected(give, "'sideways' is not a valid mode", "3", "sideways", "no");
+		assertRejected(give, "'maybe' is not true or false", "3", "slow", "maybe");
+		assertRejected(give, "Not enough arguments", "3", "slow");
+		
+		Signature set = signature("set", "kit set");
+		assertRejected(set, "Too many arguments", "1", "2");
+		assertRejected(signature("scale", "kit scale"), "'NaN' is not a number", "NaN");
+	}
+	
+	@Test
+	public void testBadHandlersAreRejected() throws Exception{
+		for(String name : new String[]{ "unknownType", "noSender" })
+			try{
+				signature(name, "kit");
+				fail(name + " was accepted");
+			}
+			catch(IllegalArgumentException e){
+				/*
+				 * Expected
+				 */
+			}
+	}
+	
+	@Test
+	public void testRegisteredParserIsUsed() throws Exception{
+		Parsers.register(Point.class, "x,y", new ArgumentParser<Point>(){
+			
+			public Point parse(CommandSender sender, String arg) throws ArgumentException{
+				String[] split = arg.split(",");
+				if(split.length != 2)
+					throw new ArgumentException("'" + arg + "' is not a point");
+				return new Point(Integer.parseInt(split[0]), Integer.parseInt(split[1]));
+			}
+		}, null);
+		Signature signature = new Signature(Kits.class.getMethod("point", CommandSender.class, Point.class), new String[]{ "point" });
+		assertEquals("/point <x,y>", signature.usage);
+		assertEquals(7, ((Point) signature.parse(sender, new String[]{ "3,7" })[1]).y);
+		assertRejected(signature, "'3' is not a point", "3");
+	}
+	
+	@Test
+	public void testSenderIsToldWhatWentWrong(){
+		FakeServer server = new FakeServer("kit");
+		server.registry.registerAll(Arrays.asList(new Kits()));
+		FakeSender console = new FakeSender("CONSOLE", false);
+		
+		assertTrue(server.run(console.mock, "kit set lots"));
+		assertEquals(Arrays.asList("'lots' is not a whole number", "Usage: /kit set <number>"), CommandDispatcherTest.strip(console.messages));
+	}
+	
+	private static Signature signature(String name, String identifier){
+		for(Method method : Kits.class.getMethods())
+			if(method.getName().equals(name))
+				return new Signature(method, identifier.split(" "));
+		throw new AssertionError("no method named " + name);
+	}
+	
+	private void assertRejected(Signature signature, String message, String... args){
+		try{
+			signature.parse(sender, args);
+			fail(Arrays.toString(args) + " was accepted");
+		}
+		catch(ArgumentException e){
+			assertEquals(message, ChatColor.stripColor(e.getMessage()));
+		}
+	}
+	
+	public static enum Mode{ SLOW, FAST_MODE }
+	
+	public static class Point{
+		
+		public final int x, y;
+		
+		public Point(int x, int y){
+			this.x = x;
+			this.y = y;
+		}
+	}
+	
+	public static class Kits{
+		
+		@CommandHandler(cmd = "kit give")
+		public void give(CommandSender sender, int amount, Mode mode, boolean notify, String... rest){}
+		
+		@CommandHandler(cmd = "kit set")
+		public void set(CommandSender sender, int amount){}
+		
+		@CommandHandler(cmd = "kit scale")
+		public void scale(CommandSender sender, double factor){}
+		
+		@CommandHandler(cmd = "kit list")
+		public void list(CommandSender sender, String[] args){}
+		
+		public void unknownType(CommandSender sender, Object thing){}
+		
+		public void noSender(int amount){}
+		
+		public void point(CommandSender sender, Point point){}
+	}
+	
+}
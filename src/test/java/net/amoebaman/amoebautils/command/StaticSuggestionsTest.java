@@ -0,0 +1,45 @@
+package net.amoebaman.amoebautils.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class StaticSuggestionsTest{
+	
+	private final StaticSuggestions words = new StaticSuggestions("stone", "Sand", "sandstone", "dirt", "STONE", "gravel");
+	
+	@Test
+	public void testPrefixIgnoresCase(){
+		assertEquals(Arrays.asList("Sand", "sandstone"), words.suggest(null, "sa", 10));
+		assertEquals(Arrays.asList("Sand", "sandstone"), words.suggest(null, "SA", 10));
+		assertEquals(Arrays.asList("sandstone"), words.suggest(null, "sands", 10));
+	}
+	
+	@Test
+	public void testWordsDifferingOnlyInCaseAreKeptOnce(){
+		assertEquals(Arrays.asList("stone"), words.suggest(null, "st", 10));
+	}
+	
+	@Test
+	public void testEmptyPrefixSuggestsEverythingInOrder(){
+		assertEquals(Arrays.asList("dirt", "gravel", "Sand", "sandstone", "stone"), words.suggest(null, "", 10));
+	}
+	
+	@Test
+	public void testLimit(){
+		assertEquals(Arrays.asList("dirt", "gravel"), words.suggest(null, "", 2));
+		assertEquals(Arrays.asList("Sand"), words.suggest(null, "s", 1));
+	}
+	
+	@Test
+	public void testNoMatches(){
+		assertTrue(words.suggest(null, "x", 10).isEmpty());
+		assertTrue("past the last word", words.suggest(null, "zzz", 10).isEmpty());
+		assertTrue("longer than any word it starts", words.suggest(null, "stones", 10).isEmpty());
+		assertTrue(new StaticSuggestions().suggest(null, "", 10).isEmpty());
+	}
+	
+}
@@ -0,0 +1,189 @@
+package net.amoebaman.amoebautils.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionPoolTest{
+	
+	private FakeDatabase db;
+	private ConnectionPool pool;
+	
+	@Before
+	public void setUp(){
+		db = new FakeDatabase();
+		pool = new ConnectionPool(db, 0, 2);
+		pool.setBorrowTimeout(50);
+	}
+	
+	@After
+	public void tearDown(){
+		pool.close();
+	}
+	
+	@Test
+	public void testNestedBorrowsShareOneLoan() throws Exception{
+		PooledConnection outer = pool.borrow();
+		PooledConnection inner = pool.borrow();
+		assertSame("the same thread gets its own connection back", outer, inner);
+		
+		inner.release();
+		assertEquals("the outer borrow still holds it", 1, pool.getActiveCount());
+		outer.release();
+		assertEquals(0, pool.getActiveCount());
+		assertEquals(1, pool.getIdleCount());
+		assertEquals("nested borrows aren't counted", 1, pool.getBorrowCount());
+	}
+	
+	@Test
+	public void testThreadsGetTheirOwnConnections() throws Exception{
+		PooledConnection mine = pool.borrow();
+		PooledConnection theirs = borrowElsewhere();
+		assertNotSame(mine.getConnection(), theirs.getConnection());
+		assertEquals(2, pool.getTotalCount());
+		mine.release();
+	}
+	
+	@Test
+	public void testExhaustedPoolTimesOut() throws Exception{
+		PooledConnection mine = pool.borrow();
+		borrowElsewhere();
+		try{
+			borrowElsewhere();
+			fail("a third connection was handed out by a pool of two");
+		}
+		catch(SQLException e){
+			assertEquals(1, pool.getTimeoutCount());
+		}
+		mine.release();
+	}
+	
+	@Test
+	public void testReleaseWakesWaitingBorrower() throws Exception{
+		pool.setSize(0, 1);
+		pool.setBorrowTimeout(5000);
+		PooledConnection mine = pool.borrow();
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicReference<PooledConnection> theirs = new AtomicReference<PooledConnection>();
+		Thread waiter = new Thread(){
+			
+			public void run(){
+				started.countDown();
+				try{
+					PooledConnection connection = pool.borrow();
+					theirs.set(connection);
+					connection.release();
+				}
+				catch(SQLException e){
+					/*
+					 * Left unset, which fails the test
+					 */
+				}
+			}
+		};
+		waiter.start();
+		started.await();
+		Thread.sleep(50);
+		mine.release();
+		waiter.join(TimeUnit.SECONDS.toMillis(5));
+		assertSame("the waiting thread got the released connection", mine, theirs.get());
+	}
+	
+	@Test
+	public void testReleaseFromAnotherThread() throws Exception{
+		final PooledConnection mine = pool.borrow();
+		Thread releaser = new Thread(){
+			
+			public void run(){
+				mine.release();
+			}
+		};
+		releaser.start();
+		releaser.join();
+		assertEquals(0, pool.getActiveCount());
+		
+		PooledConnection theirs = borrowElsewhere();
+		assertSame("the released connection went back to the pool", mine, theirs);
+		PooledConnection again = pool.borrow();
+		assertNotSame("this thread no longer thinks it holds it", theirs, again);
+		again.release();
+		assertEquals(1, pool.getActiveCount());
+	}
+	
+	@Test
+	public void testEvictionKeepsMinimum() throws Exception{
+		pool.setSize(1, 2);
+		pool.setIdleTimeout(0);
+		PooledConnection mine = pool.borrow();
+		PooledConnection theirs = borrowElsewhere();
+		mine.release();
+		Thread.sleep(5);
+		
+		pool.evictIdle();
+		assertEquals("one connection is idle, one is lent out", 1, pool.getTotalCount());
+		theirs.getConnection();
+		assertTrue("the evicted connection was closed", db.connections.get(0).closed);
+	}
+	
+	@Test
+	public void testDiscardClosesConnection() throws Exception{
+		PooledConnection connection = pool.borrow();
+		connection.discard();
+		assertTrue(db.connections.get(0).closed);
+		assertEquals(0, pool.getTotalCount());
+	}
+	
+	@Test
+	public void testCloseClosesLentConnectionsOnRelease() throws Exception{
+		PooledConnection connection = pool.borrow();
+		pool.close();
+		assertFalse("a lent connection is left alone", db.connections.get(0).closed);
+		connection.release();
+		assertTrue("and closed once it comes back", db.connections.get(0).closed);
+		try{
+			pool.borrow();
+			fail("borrowed from a closed pool");
+		}
+		catch(SQLException e){
+			/*
+			 * Expected
+			 */
+		}
+	}
+	
+	/*
+	 * Borrows a connection on another thread, which never gives it back
+	 */
+	private PooledConnection borrowElsewhere() throws Exception{
+		final AtomicReference<Object> result = new AtomicReference<Object>();
+		Thread thread = new Thread(){
+			
+			public void run(){
+				try{
+					result.set(pool.borrow());
+				}
+				catch(SQLException e){
+					result.set(e);
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+		if(result.get() instanceof SQLException)
+			throw (SQLException) result.get();
+		return (PooledConnection) result.get();
+	}
+	
+}
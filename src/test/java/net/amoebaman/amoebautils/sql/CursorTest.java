@@ -0,0 +1,86 @@
+package net.amoebaman.amoebautils.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CursorTest{
+	
+	private FakeDatabase db;
+	private ConnectionPool pool;
+	
+	@Before
+	public void setUp(){
+		db = new FakeDatabase();
+		db.results.put("A", Arrays.<Object>asList(1, 2, 3));
+		pool = new ConnectionPool(db, 0, 1);
+	}
+	
+	@After
+	public void tearDown(){
+		pool.close();
+	}
+	
+	@Test
+	public void testReadsToEndAndReleases() throws Exception{
+		Cursor cursor = Cursor.open(pool.borrow(), "A", 0);
+		int sum = 0;
+		while(cursor.hasNext())
+			sum += (Integer) cursor.next().getObject(1);
+		assertEquals(6, sum);
+		assertTrue("the cursor closed itself at the end", cursor.isClosed());
+		assertEquals(0, pool.getActiveCount());
+	}
+	
+	@Test
+	public void testNestedQueryDoesNotCloseCursor() throws Exception{
+		Cursor outer = Cursor.open(pool.borrow(), "A", 0);
+		assertEquals(1, outer.next().getObject(1));
+		
+		Cursor inner = Cursor.open(pool.borrow(), "A", 0);
+		int count = 0;
+		while(inner.hasNext()){
+			inner.next();
+			count++;
+		}
+		assertEquals(3, count);
+		assertEquals("the inner query ran on a statement of its own", 2, db.statements("A").size());
+		
+		assertEquals(2, outer.next().getObject(1));
+		assertEquals(3, outer.next().getObject(1));
+		assertFalse(outer.hasNext());
+		assertEquals(0, pool.getActiveCount());
+		assertTrue("the inner cursor's statement was closed", db.statements("A").get(1).closed);
+	}
+	
+	@Test
+	public void testFetchSizeIsResetOnClose() throws Exception{
+		Cursor cursor = Cursor.open(pool.borrow(), "A", 50);
+		FakeDatabase.FakeStatement statement = db.statements("A").get(0);
+		assertEquals(50, statement.fetchSize);
+		cursor.close();
+		assertEquals("the cached statement is left as it was found", 0, statement.fetchSize);
+		assertFalse(statement.isBusy());
+	}
+	
+	@Test
+	public void testFailedQueryReleasesConnection() throws Exception{
+		db.broken = "A";
+		try{
+			Cursor.open(pool.borrow(), "A", 0);
+			fail("the query should have failed");
+		}
+		catch(SQLException e){
+			assertEquals(0, pool.getActiveCount());
+		}
+	}
+	
+}
@@ -0,0 +1,281 @@
+package net.amoebaman.amoebautils.sql;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * A scripted stand-in for a JDBC driver, so the pool, caches and wrapper can
+ * be tested without a database. Its connections, statements and results are
+ * mocks, each answered by an object that keeps its state. Queries return the values they were given in
+ * {@link #results}, one per row in a single column labelled "value", and
+ * every other statement updates one row and is logged to {@link #written}
+ * once it's committed.
+ */
+public class FakeDatabase implements ConnectionPool.ConnectionFactory{
+	
+	/** The rows each query returns, by SQL text */
+	public final Map<String, List<Object>> results = new ConcurrentHashMap<String, List<Object>>();
+	
+	/** Every write that has been committed, as its SQL followed by its arguments */
+	public final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+	
+	/** Every connection opened, in order */
+	public final List<FakeConnection> connections = new CopyOnWriteArrayList<FakeConnection>();
+	
+	/** Whether the server is unreachable, failing connections and statements alike */
+	public volatile boolean down = false;
+	
+	/** SQL that fails as a bad statement, without anything being wrong with the connection */
+	public volatile String broken = null;
+	
+	/** SQL that fails as if the connection dropped, although it's fine, like a packet that's too large */
+	public volatile String poisoned = null;
+	
+	public Connection open() throws SQLException{
+		if(down)
+			throw new SQLException("Server is down", "08001");
+		FakeConnection connection = new FakeConnection();
+		connections.add(connection);
+		return connection.mock;
+	}
+	
+	/**
+	 * @return every statement prepared on every connection, in order
+	 */
+	public List<FakeStatement> statements(){
+		List<FakeStatement> statements = new ArrayList<FakeStatement>();
+		for(FakeConnection connection : connections)
+			statements.addAll(connection.statements);
+		return statements;
+	}
+	
+	/**
+	 * @param sql some SQL
+	 * @return every statement prepared for the SQL, in order
+	 */
+	public List<FakeStatement> statements(String sql){
+		List<FakeStatement> statements = new ArrayList<FakeStatement>();
+		for(FakeStatement statement : statements())
+			if(statement.sql.equals(sql))
+				statements.add(statement);
+		return statements;
+	}
+	
+	private void check(String sql) throws SQLException{
+		if(down)
+			throw new SQLException("Communications link failure", "08S01");
+		if(sql.equals(broken))
+			throw new SQLException("Syntax error in \"" + sql + "\"", "42000");
+		if(sql.equals(poisoned))
+			throw new SQLException("Communications link failure", "08S01");
+	}
+	
+	private static Object unsupported(Method method){
+		throw new UnsupportedOperationException(method.getName());
+	}
+	
+	public class FakeConnection implements Answer<Object>{
+		
+		public final Connection mock = Mockito.mock(Connection.class, this);
+		public final List<FakeStatement> statements = new CopyOnWriteArrayList<FakeStatement>();
+		public volatile boolean closed = false, valid = true;
+		private boolean autoCommit = true;
+		private final List<String> pending = new ArrayList<String>();
+		
+		public Object answer(InvocationOnMock invocation) throws Throwable{
+			Method method = invocation.getMethod();
+			Object[] args = invocation.getArguments();
+			String name = method.getName();
+			if(name.equals("prepareStatement")){
+				if(closed)
+					throw new SQLException("Connection is closed", "08003");
+				FakeStatement statement = new FakeStatement(this, (String) args[0]);
+				statements.add(statement);
+				return statement.mock;
+			}
+			if(name.equals("isValid"))
+				return !closed && valid && !down;
+			if(name.equals("close"))
+				closed = true;
+			else if(name.equals("isClosed"))
+				return closed;
+			else if(name.equals("setAutoCommit")){
+				autoCommit = (Boolean) args[0];
+				if(autoCommit)
+					commit();
+			}
+			else if(name.equals("getAutoCommit"))
+				return autoCommit;
+			else if(name.equals("commit")){
+				if(down)
+					throw new SQLException("Communications link failure", "08S01");
+				commit();
+			}
+			else if(name.equals("rollback"))
+				pending.clear();
+			else if(name.equals("toString"))
+				return "FakeConnection@" + connections.indexOf(this);
+			else
+				return unsupported(method);
+			return null;
+		}
+		
+		private void write(String write){
+			if(autoCommit)
+				written.add(write);
+			else
+				pending.add(write);
+		}
+		
+		private void commit(){
+			written.addAll(pending);
+			pending.clear();
+		}
+	}
+	
+	public class FakeStatement implements Answer<Object>{
+		
+		public final PreparedStatement mock = Mockito.mock(PreparedStatement.class, this);
+		public final String sql;
+		public volatile boolean closed = false;
+		public volatile int fetchSize = 0, executions = 0;
+		private final FakeConnection connection;
+		private final Map<Integer, Object> params = new TreeMap<Integer, Object>();
+		private final List<String> batch = new ArrayList<String>();
+		private FakeResult result;
+		
+		private FakeStatement(FakeConnection connection, String sql){
+			this.connection = connection;
+			this.sql = sql;
+		}
+		
+		public Object answer(InvocationOnMock invocation) throws Throwable{
+			Method method = invocation.getMethod();
+			Object[] args = invocation.getArguments();
+			String name = method.getName();
+			if(closed && !name.equals("close") && !name.equals("isClosed"))
+				throw new SQLException("Statement is closed");
+			if(name.equals("setObject"))
+				params.put((Integer) args[0], args[1]);
+			else if(name.equals("clearParameters"))
+				params.clear();
+			else if(name.equals("setFetchSize"))
+				fetchSize = (Integer) args[0];
+			else if(name.equals("getFetchSize"))
+				return fetchSize;
+			else if(name.equals("executeQuery")){
+				check(sql);
+				executions++;
+				closeResult();
+				List<Object> rows = results.get(sql);
+				result = new FakeResult(rows == null ? Collections.emptyList() : rows);
+				return result.mock;
+			}
+			else if(name.equals("executeUpdate")){
+				check(sql);
+				executions++;
+				connection.write(describe());
+				return 1;
+			}
+			else if(name.equals("addBatch"))
+				batch.add(describe());
+			else if(name.equals("clearBatch"))
+				batch.clear();
+			else if(name.equals("executeBatch")){
+				check(sql);
+				executions++;
+				int[] counts = new int[batch.size()];
+				Arrays.fill(counts, 1);
+				for(String write : batch)
+					connection.write(write);
+				batch.clear();
+				return counts;
+			}
+			else if(name.equals("cancel"))
+				return null;
+			else if(name.equals("close")){
+				closed = true;
+				closeResult();
+			}
+			else if(name.equals("isClosed"))
+				return closed;
+			else if(name.equals("toString"))
+				return "FakeStatement[" + sql + "]";
+			else
+				return unsupported(method);
+			return null;
+		}
+		
+		private String describe(){
+			return sql + " " + params.values();
+		}
+		
+		private void closeResult(){
+			if(result != null)
+				result.closed = true;
+			result = null;
+		}
+		
+		/** @return whether the last result this statement returned is still open */
+		public boolean isBusy(){
+			return result != null && !result.closed;
+		}
+	}
+	
+	private static class FakeResult implements Answer<Object>{
+		
+		private final ResultSet mock = Mockito.mock(ResultSet.class, this);
+		private final List<Object> rows;
+		private int index = -1;
+		private volatile boolean closed = false;
+		
+		private FakeResult(List<Object> rows){
+			this.rows = rows;
+		}
+		
+		public Object answer(InvocationOnMock invocation) throws Throwable{
+			Method method = invocation.getMethod();
+			Object[] args = invocation.getArguments();
+			String name = method.getName();
+			if(name.equals("close")){
+				closed = true;
+				return null;
+			}
+			if(name.equals("isClosed"))
+				return closed;
+			if(closed)
+				throw new SQLException("Result set is closed");
+			if(name.equals("next"))
+				return ++index < rows.size();
+			if(name.equals("getObject"))
+				return rows.get(index);
+			if(name.equals("wasNull"))
+				return rows.get(index) == null;
+			if(name.equals("getMetaData")){
+				ResultSetMetaData meta = Mockito.mock(ResultSetMetaData.class);
+				Mockito.when(meta.getColumnCount()).thenReturn(1);
+				Mockito.when(meta.getColumnLabel(1)).thenReturn("value");
+				Mockito.when(meta.getColumnName(1)).thenReturn("value");
+				return meta;
+			}
+			return unsupported(method);
+		}
+	}
+	
+}
@@ -0,0 +1,116 @@
+package net.amoebaman.amoebautils.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ResultCacheTest{
+	
+	private static final RowMapper<Object> MAPPER = new RowMapper<Object>(){
+		
+		public Object map(Row row) throws SQLException{
+			return row.getObject(1);
+		}
+	};
+	
+	private static final Object[] NO_ARGS = new Object[0];
+	
+	@Test
+	public void testReadTables(){
+		assertEquals(Arrays.asList("a", "b"), TableParser.readTables("SELECT * FROM a, b WHERE a.id = b.id"));
+		assertEquals(Arrays.asList("a", "b", "c"), TableParser.readTables("SELECT * FROM `db`.`a` x, b AS y LEFT OUTER JOIN c ON y.id = c.id WHERE x.id = 1"));
+		assertEquals(Arrays.asList("a", "b", "c"), TableParser.readTables("SELECT * FROM a WHERE id IN (SELECT id FROM b, c)"));
+		assertEquals(Arrays.asList("a", "b", "c"), TableParser.readTables("SELECT * FROM (a JOIN b USING (id)), c"));
+		assertEquals(Arrays.asList("a", "b"), TableParser.readTables("SELECT * FROM a USE INDEX (i), b -- FROM c\n"));
+		assertEquals(Arrays.asList("a"), TableParser.readTables("SELECT SUBSTRING(name FROM 2), 'FROM b' FROM a"));
+		assertEquals(Arrays.<String>asList(), TableParser.readTables("SELECT NOW()"));
+	}
+	
+	@Test
+	public void testUnknownQueriesAreNotCacheable(){
+		assertNull(TableParser.readTables("SHOW TABLES"));
+		assertNull(TableParser.readTables("SELECT * FROM generate_series(1, 10)"));
+		assertNull(TableParser.readTables("SELECT * FROM a; SELECT * FROM b"));
+		
+		ResultCache cache = new ResultCache(10);
+		assertFalse(cache.isCacheable("CALL stats()"));
+		cache.put("CALL stats()", NO_ARGS, MAPPER, Arrays.<Object>asList(1), 60000, cache.snapshot("CALL stats()"));
+		assertNull(cache.get("CALL stats()", NO_ARGS, MAPPER));
+		assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void testWriteTables(){
+		assertEquals(Arrays.asList("a"), TableParser.writeTables("INSERT IGNORE INTO a (x) SELECT x FROM b"));
+		assertEquals(Arrays.asList("a"), TableParser.writeTables("INSERT OR REPLACE INTO \"a\" VALUES (?)"));
+		assertEquals(Arrays.asList("a"), TableParser.writeTables("MERGE INTO a (id) KEY (id) VALUES (?)"));
+		assertEquals(Arrays.asList("a", "b"), TableParser.writeTables("UPDATE a, b SET a.x = b.x WHERE a.id = b.id"));
+		assertEquals(Arrays.asList("a", "b"), TableParser.writeTables("UPDATE a JOIN b ON a.id = b.id SET a.x = 1"));
+		assertEquals(Arrays.asList("a"), TableParser.writeTables("DELETE FROM a WHERE id IN (SELECT id FROM b)"));
+		assertEquals(Arrays.asList("a", "b"), TableParser.writeTables("DELETE a, b FROM a INNER JOIN b WHERE a.id = b.id"));
+		assertEquals(Arrays.asList("a", "b"), TableParser.writeTables("DELETE FROM a.* USING a, b WHERE a.id = b.id"));
+		assertEquals(Arrays.asList("a", "b"), TableParser.writeTables("DROP TABLE IF EXISTS a, b"));
+		assertEquals(Arrays.asList("a", "b"), TableParser.writeTables("RENAME TABLE a TO b"));
+		assertEquals(Arrays.asList("a"), TableParser.writeTables("CREATE TABLE IF NOT EXISTS a (id INT)"));
+		assertNull(TableParser.writeTables("CALL cleanup()"));
+		assertNull(TableParser.writeTables("UPDATE a SET x = 1; DELETE FROM b"));
+	}
+	
+	@Test
+	public void testWriteInvalidatesEveryJoinedTable(){
+		ResultCache cache = new ResultCache(10);
+		cacheResult(cache, "SELECT * FROM a, b");
+		cacheResult(cache, "SELECT * FROM c");
+		assertEquals(2, cache.size());
+		
+		cache.invalidate("UPDATE b SET x = 1");
+		assertNull("the second table of a comma join counts", cache.get("SELECT * FROM a, b", NO_ARGS, MAPPER));
+		assertNotNull(cache.get("SELECT * FROM c", NO_ARGS, MAPPER));
+		
+		cacheResult(cache, "SELECT * FROM a");
+		cache.invalidate("DELETE x FROM c x JOIN a ON a.id = x.id");
+		assertEquals("a multi-table delete invalidates all of its tables", 0, cache.size());
+	}
+	
+	@Test
+	public void testUnknownCommandInvalidatesEverything(){
+		ResultCache cache = new ResultCache(10);
+		cacheResult(cache, "SELECT * FROM a");
+		cacheResult(cache, "SELECT * FROM b");
+		cache.invalidate("CALL cleanup()");
+		assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void testWriteDuringQueryIsNotCached(){
+		ResultCache cache = new ResultCache(10);
+		long[] snapshot = cache.snapshot("SELECT * FROM a JOIN b ON a.id = b.id");
+		cache.invalidateTable("B");
+		cache.put("SELECT * FROM a JOIN b ON a.id = b.id", NO_ARGS, MAPPER, Arrays.<Object>asList(1), 60000, snapshot);
+		assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void testExpiry() throws Exception{
+		ResultCache cache = new ResultCache(10);
+		cache.put("SELECT * FROM a", NO_ARGS, MAPPER, Arrays.<Object>asList(1), 0, cache.snapshot("SELECT * FROM a"));
+		assertNull(cache.get("SELECT * FROM a", NO_ARGS, MAPPER));
+		assertEquals(1, cache.getExpiredCount());
+	}
+	
+	private static void cacheResult(ResultCache cache, String sql){
+		List<Object> rows = Arrays.<Object>asList(1, 2);
+		cache.put(sql, NO_ARGS, MAPPER, rows, 60000, cache.snapshot(sql));
+		assertTrue(cache.isCacheable(sql));
+		assertEquals(rows, cache.get(sql, NO_ARGS, MAPPER));
+	}
+	
+}
@@ -0,0 +1,51 @@
+package net.amoebaman.amoebautils.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SQLDialectTest{
+	
+	@Test
+	public void testStreamingFetchSize(){
+		assertEquals("other drivers are left to decide", 0, new SQLiteDialect().getStreamingFetchSize(0));
+		assertEquals(250, new H2Dialect().getStreamingFetchSize(250));
+		
+		MySQLDialect mysql = new MySQLDialect();
+		assertEquals("cursor fetching is off by default", 0, mysql.getStreamingFetchSize(0));
+		assertFalse(mysql.buildUrl("localhost", null).contains("useCursorFetch"));
+		
+		MySQLDialect cursors = new MySQLDialect(true);
+		assertEquals("MySQL needs a fetch size to stream", MySQLDialect.DEFAULT_FETCH_SIZE, cursors.getStreamingFetchSize(0));
+		assertEquals(250, cursors.getStreamingFetchSize(250));
+		assertTrue(cursors.buildUrl("localhost", null).contains("rewriteBatchedStatements=true&useCursorFetch=true"));
+	}
+	
+	@Test
+	public void testUpsert(){
+		String[] keys = {"id"};
+		assertEquals("INSERT INTO t (id, a) VALUES (?, ?) ON DUPLICATE KEY UPDATE a = VALUES(a)", new MySQLDialect().upsert("t", keys, "id", "a"));
+		assertEquals("INSERT INTO t (id, a) VALUES (?, ?) ON CONFLICT (id) DO UPDATE SET a = excluded.a", new SQLiteDialect().upsert("t", keys, "id", "a"));
+		assertEquals("MERGE INTO t (id, a) KEY (id) VALUES (?, ?)", new H2Dialect().upsert("t", keys, "id", "a"));
+		assertEquals("INSERT INTO t (id) VALUES (?) ON CONFLICT (id) DO NOTHING", new SQLiteDialect().upsert("t", keys, "id"));
+	}
+	
+	@Test
+	public void testRewriteBatch(){
+		SQLDialect sqlite = new SQLiteDialect();
+		assertEquals("INSERT INTO t (a, b) VALUES (?, ?), (?, ?), (?, ?)", sqlite.rewriteBatch("INSERT INTO t (a, b) VALUES (?, ?)", 3));
+		assertEquals("insert or ignore into t values (?), (?)", sqlite.rewriteBatch("insert or ignore into t values (?);", 2));
+		assertEquals("MERGE INTO t (id, a) KEY (id) VALUES (?, ?), (?, ?)", new H2Dialect().rewriteBatch(new H2Dialect().upsert("t", new String[]{"id"}, "id", "a"), 2));
+		
+		assertNull("only inserts", sqlite.rewriteBatch("UPDATE t SET a = ?", 2));
+		assertNull("with nothing after the values", sqlite.rewriteBatch(sqlite.upsert("t", new String[]{"id"}, "id", "a"), 2));
+		assertNull("made of nothing but parameters", sqlite.rewriteBatch("INSERT INTO t (a, b) VALUES (?, NOW())", 2));
+		assertNull("or from a query", sqlite.rewriteBatch("INSERT INTO t SELECT * FROM u WHERE a = ?", 2));
+		assertNull("MySQL's driver does it itself", new MySQLDialect().rewriteBatch("INSERT INTO t (a) VALUES (?)", 2));
+		assertTrue(new MySQLDialect().buildUrl("localhost", null).contains("rewriteBatchedStatements=true"));
+	}
+	
+}
@@ -0,0 +1,120 @@
+package net.amoebaman.amoebautils.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StatementCacheTest{
+	
+	private FakeDatabase db;
+	private ConnectionPool pool;
+	private StatementCache cache;
+	
+	@Before
+	public void setUp() throws Exception{
+		db = new FakeDatabase();
+		db.results.put("A", Arrays.<Object>asList(1, 2));
+		pool = new ConnectionPool(db, 0, 1);
+		pool.setStatementCacheSize(2);
+		cache = new StatementCache(pool, db.open());
+	}
+	
+	@After
+	public void tearDown(){
+		pool.close();
+	}
+	
+	@Test
+	public void testReusesStatements() throws Exception{
+		PreparedStatement first = cache.prepare("A");
+		cache.release("A", first);
+		assertSame(first, cache.prepare("A"));
+		assertFalse(db.statements("A").get(0).closed);
+		assertEquals(1, pool.getStatementCacheHits());
+		assertEquals(1, pool.getStatementCacheMisses());
+	}
+	
+	@Test
+	public void testEvictsLeastRecentlyUsed() throws Exception{
+		cache.release("A", cache.prepare("A"));
+		cache.release("B", cache.prepare("B"));
+		cache.release("A", cache.prepare("A"));
+		cache.release("C", cache.prepare("C"));
+		
+		assertEquals(2, cache.size());
+		assertEquals(1, pool.getStatementCacheEvictions());
+		assertTrue("B was used least recently", db.statements("B").get(0).closed);
+		assertFalse(db.statements("A").get(0).closed);
+	}
+	
+	@Test
+	public void testBusyStatementIsNotReused() throws Exception{
+		PreparedStatement cached = cache.prepare("A");
+		ResultSet result = cached.executeQuery();
+		cache.track("A", cached, result);
+		
+		PreparedStatement oneOff = cache.prepare("A");
+		assertNotSame(cached, oneOff);
+		cache.release("A", oneOff);
+		assertTrue("one-off statements are closed on release", db.statements("A").get(1).closed);
+		assertFalse("the cached statement's result is still open", result.isClosed());
+		
+		result.close();
+		cache.release("A", cached);
+		assertSame(cached, cache.prepare("A"));
+	}
+	
+	@Test
+	public void testEvictedBusyStatementClosesWithItsResult() throws Exception{
+		PreparedStatement busy = cache.prepare("A");
+		ResultSet result = busy.executeQuery();
+		cache.track("A", busy, result);
+		cache.release("B", cache.prepare("B"));
+		cache.release("C", cache.prepare("C"));
+		
+		FakeDatabase.FakeStatement evicted = db.statements("A").get(0);
+		assertFalse("the evicted statement is still being read", evicted.closed);
+		assertTrue(result.next());
+		
+		result.close();
+		cache.release("B", cache.prepare("B"));
+		assertTrue("and closed once its result was", evicted.closed);
+	}
+	
+	@Test
+	public void testTrackedOneOffClosesWithItsResult() throws Exception{
+		pool.setStatementCacheSize(0);
+		PreparedStatement oneOff = cache.prepare("A");
+		ResultSet result = oneOff.executeQuery();
+		cache.track("A", oneOff, result);
+		assertEquals(0, cache.size());
+		
+		result.close();
+		cache.prepare("B");
+		assertTrue(db.statements("A").get(0).closed);
+	}
+	
+	@Test
+	public void testClearClosesEverything() throws Exception{
+		PreparedStatement busy = cache.prepare("A");
+		cache.track("A", busy, busy.executeQuery());
+		PreparedStatement oneOff = cache.prepare("A");
+		cache.track("A", oneOff, oneOff.executeQuery());
+		
+		cache.clear();
+		assertEquals(0, cache.size());
+		for(FakeDatabase.FakeStatement statement : db.statements())
+			assertTrue(statement.closed);
+	}
+	
+}
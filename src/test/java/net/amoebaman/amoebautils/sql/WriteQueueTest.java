@@ -0,0 +1,279 @@
+package net.amoebaman.amoebautils.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import net.amoebaman.amoebautils.sql.WriteQueue.Batch;
+import net.amoebaman.amoebautils.sql.WriteQueue.BatchWriter;
+
+import org.junit.Test;
+
+public class WriteQueueTest{
+	
+	@Test
+	public void testCoalescesRunsOfTheSameCommand() throws Exception{
+		Recorder recorder = new Recorder();
+		WriteQueue queue = new WriteQueue(recorder, 100, 5, 10000);
+		queue.add("A", new Object[]{1});
+		queue.add("A", new Object[]{2});
+		queue.add("B", new Object[]{3});
+		queue.add("A", new Object[]{4});
+		queue.add("A", new Object[]{5});
+		assertEquals(0, queue.shutdown());
+		
+		assertEquals("[A x2, B x1, A x2]", recorder.flushes.get(0));
+		assertEquals(5, queue.getWrittenCount());
+		assertEquals(1, queue.getFlushCount());
+	}
+	
+	@Test
+	public void testFlushesOnceWindowPasses() throws Exception{
+		Recorder recorder = new Recorder();
+		WriteQueue queue = new WriteQueue(recorder, 100, 100, 20);
+		queue.add("A", new Object[0]);
+		assertTrue("the lone command was flushed without waiting for a full batch", recorder.flushed.await(5, TimeUnit.SECONDS));
+		queue.shutdown();
+	}
+	
+	@Test
+	public void testFullQueueMakesWritersWait() throws Exception{
+		final CountDownLatch writing = new CountDownLatch(1), unblock = new CountDownLatch(1);
+		final WriteQueue queue = new WriteQueue(new BatchWriter(){
+			
+			public int write(List<Batch> batches){
+				writing.countDown();
+				try{
+					unblock.await();
+				}
+				catch(InterruptedException e){
+					/*
+					 * Just let it through
+					 */
+				}
+				return count(batches);
+			}
+		}, 2, 1, 0);
+		queue.add("A", new Object[0]);
+		writing.await();
+		queue.add("A", new Object[0]);
+		
+		Thread stalled = new Thread(){
+			
+			public void run(){
+				try{
+					queue.add("A", new Object[0]);
+				}
+				catch(InterruptedException e){
+					/*
+					 * Fails the test below
+					 */
+				}
+			}
+		};
+		stalled.start();
+		stalled.join(100);
+		assertTrue("the command being written still takes up room", stalled.isAlive());
+		assertEquals(1, queue.getStallCount());
+		
+		unblock.countDown();
+		stalled.join(5000);
+		assertFalse(stalled.isAlive());
+		assertEquals(0, queue.shutdown());
+		assertEquals(3, queue.getWrittenCount());
+	}
+	
+	@Test
+	public void testFlushesAtMostOneBatchAtATime() throws Exception{
+		final CountDownLatch unblock = new CountDownLatch(1);
+		final List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+		WriteQueue queue = new WriteQueue(new BatchWriter(){
+			
+			public int write(List<Batch> batches){
+				try{
+					unblock.await();
+				}
+				catch(InterruptedException e){
+					/*
+					 * Just let it through
+					 */
+				}
+				sizes.add(count(batches));
+				return count(batches);
+			}
+		}, 100, 3, 0);
+		for(int i = 0; i < 10; i++)
+			queue.add("A", new Object[]{i});
+		unblock.countDown();
+		assertEquals(0, queue.shutdown());
+		
+		assertEquals(10, queue.getWrittenCount());
+		for(int size : sizes)
+			assertTrue("a backlog of " + size + " was written at once", size <= 3);
+	}
+	
+	@Test
+	public void testRetriedCommandsKeepTakingUpRoom() throws Exception{
+		final CountDownLatch tried = new CountDownLatch(2);
+		final WriteQueue queue = new WriteQueue(new BatchWriter(){
+			
+			public int write(List<Batch> batches){
+				tried.countDown();
+				return -1;
+			}
+		}, 2, 2, 0);
+		queue.setRetryDelay(10);
+		queue.add("A", new Object[0]);
+		queue.add("A", new Object[0]);
+		assertTrue(tried.await(5, TimeUnit.SECONDS));
+		
+		Thread stalled = new Thread(){
+			
+			public void run(){
+				try{
+					queue.add("A", new Object[0]);
+				}
+				catch(InterruptedException e){
+					/*
+					 * Fails the test below
+					 */
+				}
+			}
+		};
+		stalled.start();
+		stalled.join(100);
+		assertTrue("the unwritten commands still fill the queue", stalled.isAlive());
+		assertEquals(2, queue.getPendingCount());
+		assertEquals("the database being unreachable isn't held against them", 0, queue.getAbandonedCount());
+		queue.shutdown();
+		stalled.join(5000);
+	}
+	
+	@Test
+	public void testGivesUpOnCommandThatKeepsFailing() throws Exception{
+		final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+		final List<String> logged = Collections.synchronizedList(new ArrayList<String>());
+		Logger logger = Logger.getAnonymousLogger();
+		logger.setUseParentHandlers(false);
+		logger.addHandler(new Handler(){
+			
+			public void publish(LogRecord record){
+				logged.add(record.getMessage());
+			}
+			
+			public void flush(){}
+			
+			public void close(){}
+		});
+		WriteQueue queue = new WriteQueue(new BatchWriter(){
+			
+			public int write(List<Batch> batches){
+				int handled = 0;
+				for(Batch batch : batches)
+					for(int i = 0; i < batch.args.size(); i++){
+						if(batch.sql.equals("BAD"))
+							return handled;
+						written.add(batch.sql);
+						handled++;
+					}
+				return handled;
+			}
+		}, 100, 3, 10000);
+		queue.setRetryDelay(10);
+		queue.setLogger(logger);
+		queue.add("A", new Object[0]);
+		queue.add("BAD", new Object[0]);
+		queue.add("B", new Object[0]);
+		for(int i = 0; i < 100 && written.size() < 2; i++)
+			Thread.sleep(50);
+		
+		assertEquals("[A, B]", written.toString());
+		assertEquals(1, queue.getAbandonedCount());
+		assertEquals(Arrays.asList("[SQL] Gave up on a queued command after " + WriteQueue.MAX_ATTEMPTS + " failed attempts to write it: BAD"), logged);
+		assertEquals(0, queue.shutdown());
+	}
+	
+	@Test
+	public void testRetriesWhatWasNotWritten() throws Exception{
+		final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch done = new CountDownLatch(1);
+		WriteQueue queue = new WriteQueue(new BatchWriter(){
+			
+			private boolean failed = false;
+			
+			public int write(List<Batch> batches){
+				int handled = 0;
+				for(Batch batch : batches)
+					for(Object[] args : batch.args){
+						/*
+						 * The connection drops after the first command, once
+						 */
+						if(handled == 1 && !failed){
+							failed = true;
+							return handled;
+						}
+						written.add(batch.sql + args[0]);
+						handled++;
+					}
+				if(failed)
+					done.countDown();
+				return handled;
+			}
+		}, 100, 3, 50);
+		queue.add("A", new Object[]{1});
+		queue.add("A", new Object[]{2});
+		queue.add("B", new Object[]{3});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(0, queue.shutdown());
+		
+		assertEquals("[A1, A2, B3]", written.toString());
+		assertEquals(3, queue.getWrittenCount());
+	}
+	
+	@Test
+	public void testDropsWhatCannotBeWrittenAtShutdown() throws Exception{
+		WriteQueue queue = new WriteQueue(new BatchWriter(){
+			
+			public int write(List<Batch> batches){
+				return 0;
+			}
+		}, 100, 100, 10000);
+		queue.add("A", new Object[0]);
+		queue.add("B", new Object[0]);
+		assertEquals(2, queue.shutdown());
+		assertFalse("nothing more is accepted", queue.add("C", new Object[0]));
+	}
+	
+	private static int count(List<Batch> batches){
+		int count = 0;
+		for(Batch batch : batches)
+			count += batch.args.size();
+		return count;
+	}
+	
+	private static class Recorder implements BatchWriter{
+		
+		private final List<String> flushes = Collections.synchronizedList(new ArrayList<String>());
+		private final CountDownLatch flushed = new CountDownLatch(1);
+		
+		public int write(List<Batch> batches){
+			List<String> described = new ArrayList<String>();
+			for(Batch batch : batches)
+				described.add(batch.sql + " x" + batch.args.size());
+			flushes.add(described.toString());
+			flushed.countDown();
+			return count(batches);
+		}
+	}
+	
+}